@@ -0,0 +1,55 @@
+package com.agent.financial_advisor.config;
+
+import com.pgvector.PGvector;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Registers PGvector with every pooled connection. The driver then sends and receives
+ * vector values in binary, instead of formatting and parsing ~1536 decimals as text.
+ */
+@Configuration
+public class PgvectorDataSourceConfig {
+
+    @Bean
+    public static BeanPostProcessor pgvectorDataSourcePostProcessor() {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (bean instanceof DataSource dataSource && !(bean instanceof PgvectorDataSource)) {
+                    return new PgvectorDataSource(dataSource);
+                }
+                return bean;
+            }
+        };
+    }
+
+    static class PgvectorDataSource extends DelegatingDataSource {
+
+        PgvectorDataSource(DataSource target) {
+            super(target);
+        }
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            return register(super.getConnection());
+        }
+
+        @Override
+        public Connection getConnection(String username, String password) throws SQLException {
+            return register(super.getConnection(username, password));
+        }
+
+        private Connection register(Connection connection) throws SQLException {
+            // Cheap after the first call on a physical connection: the type OID is cached by the driver
+            PGvector.addVectorType(connection);
+            return connection;
+        }
+    }
+}
@@ -35,7 +35,13 @@ public class VectorType implements UserType<PGvector> {
     @Override
     public PGvector nullSafeGet(ResultSet rs, int position, SharedSessionContractImplementor session, Object owner)
             throws SQLException {
-        Object value = rs.getObject(position);
+        return fromJdbc(rs.getObject(position));
+    }
+
+    /**
+     * A vector column value as read over JDBC: a PGvector on connections with the type registered, text otherwise.
+     */
+    public static PGvector fromJdbc(Object value) throws SQLException {
         if (value == null) {
             return null;
         }
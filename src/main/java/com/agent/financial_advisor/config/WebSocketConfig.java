@@ -22,8 +22,10 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
 
     @Override
     public void configureMessageBroker(MessageBrokerRegistry config) {
-        config.enableSimpleBroker("/topic");
+        config.enableSimpleBroker("/topic", "/queue");
         config.setApplicationDestinationPrefixes("/app");
+        // Chat replies go to /user/queue/replies, which only reaches the sessions of the requesting user
+        config.setUserDestinationPrefix("/user");
     }
 
     @Override
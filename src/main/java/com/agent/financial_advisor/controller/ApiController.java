@@ -2,14 +2,22 @@ package com.agent.financial_advisor.controller;
 
 import com.agent.financial_advisor.model.User;
 import com.agent.financial_advisor.services.AIAgentService;
+import com.agent.financial_advisor.services.AgentRunExecutor;
+import com.agent.financial_advisor.services.AgentStreamListener;
+import com.agent.financial_advisor.services.EmbeddingCache;
 import com.agent.financial_advisor.services.SyncService;
 import com.agent.financial_advisor.services.UserService;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.security.oauth2.core.user.OAuth2User;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import java.io.IOException;
+import java.time.Duration;
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 
 @RestController
 @RequestMapping("/api")
@@ -18,11 +26,16 @@ public class ApiController {
     private final UserService userService;
     private final SyncService syncService;
     private final AIAgentService aiAgentService;
+    private final EmbeddingCache embeddingCache;
+    private final AgentRunExecutor agentRunExecutor;
 
-    public ApiController(UserService userService, SyncService syncService, AIAgentService aiAgentService) {
+    public ApiController(UserService userService, SyncService syncService, AIAgentService aiAgentService,
+                         EmbeddingCache embeddingCache, AgentRunExecutor agentRunExecutor) {
         this.userService = userService;
         this.syncService = syncService;
         this.aiAgentService = aiAgentService;
+        this.embeddingCache = embeddingCache;
+        this.agentRunExecutor = agentRunExecutor;
     }
 
     @PostMapping("/sync")
@@ -49,9 +62,7 @@ public class ApiController {
         }
 
         // Trigger immediate sync
-        new Thread(() -> {
-            syncService.syncAllUsers();
-        }).start();
+        syncService.submitSync(user);
 
         return ResponseEntity.ok(Map.of("message", "Sync started"));
     }
@@ -94,6 +105,18 @@ public class ApiController {
         ));
     }
 
+    @GetMapping("/stats/embedding-cache")
+    public ResponseEntity<?> getEmbeddingCacheStats() {
+        EmbeddingCache.Stats stats = embeddingCache.getStats();
+        return ResponseEntity.ok(Map.of(
+                "memoryHits", stats.memoryHits(),
+                "databaseHits", stats.databaseHits(),
+                "misses", stats.misses(),
+                "hitRate", stats.hitRate(),
+                "memoryEntries", stats.memoryEntries()
+        ));
+    }
+
     @PostMapping("/chat")
     public ResponseEntity<?> chat(
             @AuthenticationPrincipal OAuth2User oauth2User,
@@ -138,4 +161,66 @@ public class ApiController {
                     .body(Map.of("error", "Error processing message: " + e.getMessage()));
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Streaming variant of /chat for clients that accept text/event-stream. Sends the same frames as the
+     * WebSocket endpoint: answer tokens and tool progress as they happen, then the full answer.
+     */
+    @PostMapping(value = "/chat", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter chatStream(
+            @AuthenticationPrincipal OAuth2User oauth2User,
+            @RequestBody Map<String, String> payload
+    ) {
+        SseEmitter emitter = new SseEmitter(Duration.ofMinutes(2).toMillis());
+
+        String email = oauth2User != null ? oauth2User.getAttribute("email") : null;
+        User user = email != null && !email.isEmpty() ? userService.findByEmail(email) : null;
+        String message = payload.get("message");
+        String requestedRunId = payload.get("runId");
+
+        if (user == null) {
+            sendFrame(emitter, ChatStreamFrame.error(requestedRunId, "Not authenticated"));
+            emitter.complete();
+            return emitter;
+        }
+        if (message == null || message.trim().isEmpty()) {
+            sendFrame(emitter, ChatStreamFrame.error(requestedRunId, "Message cannot be empty"));
+            emitter.complete();
+            return emitter;
+        }
+
+        try {
+            agentRunExecutor.submit(user, requestedRunId, runId -> {
+                try {
+                    String response = aiAgentService.processMessage(user, message, new AgentStreamListener() {
+                        @Override
+                        public void onToken(String token) {
+                            sendFrame(emitter, ChatStreamFrame.token(runId, token));
+                        }
+
+                        @Override
+                        public void onToolCall(String functionName, String description) {
+                            sendFrame(emitter, ChatStreamFrame.tool(runId, description));
+                        }
+                    });
+                    sendFrame(emitter, ChatStreamFrame.done(runId, response));
+                } finally {
+                    emitter.complete();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            sendFrame(emitter, ChatStreamFrame.error(requestedRunId, e.getMessage()));
+            emitter.complete();
+        }
+
+        return emitter;
+    }
+
+    private void sendFrame(SseEmitter emitter, ChatStreamFrame frame) {
+        try {
+            emitter.send(SseEmitter.event().name(frame.type()).data(frame, MediaType.APPLICATION_JSON));
+        } catch (IOException | IllegalStateException e) {
+            // Client went away; the agent run still finishes and saves its answer
+        }
+    }
+}
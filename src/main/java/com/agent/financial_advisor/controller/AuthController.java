@@ -18,8 +18,6 @@ import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.servlet.view.RedirectView;
 
-import java.util.concurrent.CompletableFuture;
-
 @Controller
 @RequiredArgsConstructor
 public class AuthController {
@@ -62,23 +60,8 @@ public class AuthController {
                     googleRefreshToken
             );
 
-            // Auto-sync Gmail in background when user logs in
-            CompletableFuture.runAsync(() -> {
-                try {
-                    syncService.syncGmail(user);
-                } catch (Exception e) {
-                    System.err.println("Error syncing Gmail: " + e.getMessage());
-                }
-            });
-
-            // Auto-sync HubSpot in background when user logs in
-            CompletableFuture.runAsync(() -> {
-                try {
-                    syncService.syncHubspot(user);
-                } catch (Exception e) {
-                    System.err.println("Error syncing HubSpot: " + e.getMessage());
-                }
-            });
+            // Auto-sync Gmail and HubSpot in background when user logs in
+            syncService.submitSync(user);
 
             return "chat";
         } catch (Exception e) {
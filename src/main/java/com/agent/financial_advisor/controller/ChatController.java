@@ -2,30 +2,46 @@ package com.agent.financial_advisor.controller;
 
 import com.agent.financial_advisor.model.User;
 import com.agent.financial_advisor.services.AIAgentService;
+import com.agent.financial_advisor.services.AgentRunExecutor;
+import com.agent.financial_advisor.services.AgentStreamListener;
 import com.agent.financial_advisor.services.UserService;
 import lombok.RequiredArgsConstructor;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.messaging.handler.annotation.MessageMapping;
-import org.springframework.messaging.handler.annotation.SendTo;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.oauth2.core.user.DefaultOAuth2User;
 import org.springframework.stereotype.Controller;
 
 import java.security.Principal;
+import java.util.concurrent.RejectedExecutionException;
 
 @Controller
 @RequiredArgsConstructor
 public class ChatController {
+    private static final String REPLY_DESTINATION = "/queue/replies";
+
     @Autowired
     AIAgentService aiAgentService;
     @Autowired
     UserService userService;
+    @Autowired
+    SimpMessagingTemplate messagingTemplate;
+    @Autowired
+    AgentRunExecutor agentRunExecutor;
 
 
+    /**
+     * Queues the agent run and returns right away so the inbound channel thread is free for other sessions.
+     * Every frame of the run, including the final answer, goes to the sender's /user/queue/replies.
+     */
     @MessageMapping("/chat")
-    @SendTo("/topic/messages")
-    public ChatResponse handleChatMessage(
+    public void handleChatMessage(
             ChatRequest request, Principal principal) {
+        if (principal == null) {
+            return;
+        }
+        String session = principal.getName();
         String email = "anonymous";
 
         if (principal instanceof Authentication auth) {
@@ -39,17 +55,40 @@ public class ChatController {
         User user = userService.findByEmail(email);
 
         if (user == null) {
-            return new ChatResponse("Error: User not found!!!");
+            reply(session, ChatStreamFrame.error(request.getRunId(), "Error: User not found!!!"));
+            return;
         }
 
-        String response = aiAgentService.processMessage(user, request.getMessage());
-        return new ChatResponse(response);
+        try {
+            agentRunExecutor.submit(user, request.getRunId(), runId -> {
+                // Tokens and tool progress go out as they arrive; the last frame carries the full answer
+                String response = aiAgentService.processMessage(user, request.getMessage(), new AgentStreamListener() {
+                    @Override
+                    public void onToken(String token) {
+                        reply(session, ChatStreamFrame.token(runId, token));
+                    }
+
+                    @Override
+                    public void onToolCall(String functionName, String description) {
+                        reply(session, ChatStreamFrame.tool(runId, description));
+                    }
+                });
+                reply(session, ChatStreamFrame.done(runId, response));
+            });
+        } catch (RejectedExecutionException e) {
+            reply(session, ChatStreamFrame.error(request.getRunId(), e.getMessage()));
+        }
+    }
+
+    private void reply(String session, ChatStreamFrame frame) {
+        messagingTemplate.convertAndSendToUser(session, REPLY_DESTINATION, frame);
     }
 
     // --- Inner Classes (DTOs) ---
 
     public static class ChatRequest {
         private String message;
+        private String runId;
 
         public String getMessage() {
             return message;
@@ -58,21 +97,13 @@ public class ChatController {
         public void setMessage(String message) {
             this.message = message;
         }
-    }
 
-    public static class ChatResponse {
-        public ChatResponse(final String message) {
-            this.message = message;
+        public String getRunId() {
+            return runId;
         }
 
-        private String message;
-
-        public String getMessage() {
-            return message;
-        }
-
-        public void setMessage(String message) {
-            this.message = message;
+        public void setRunId(String runId) {
+            this.runId = runId;
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,25 @@
+package com.agent.financial_advisor.controller;
+
+/**
+ * One incremental chat update pushed to the client, over STOMP or as a server-sent event.
+ * runId identifies the agent run the frame belongs to, so a client with several requests in flight can tell replies apart.
+ * type is "token" (a piece of the answer), "tool" (a tool is running), "done" (the full answer) or "error".
+ */
+public record ChatStreamFrame(String runId, String type, String content) {
+
+    public static ChatStreamFrame token(String runId, String token) {
+        return new ChatStreamFrame(runId, "token", token);
+    }
+
+    public static ChatStreamFrame tool(String runId, String description) {
+        return new ChatStreamFrame(runId, "tool", description);
+    }
+
+    public static ChatStreamFrame done(String runId, String message) {
+        return new ChatStreamFrame(runId, "done", message);
+    }
+
+    public static ChatStreamFrame error(String runId, String message) {
+        return new ChatStreamFrame(runId, "error", message);
+    }
+}
@@ -0,0 +1,19 @@
+package com.agent.financial_advisor.model;
+
+import java.time.LocalDateTime;
+
+/**
+ * Read-only contact search result: the fields the RAG context needs plus the L2 distance to the query.
+ * Carries neither the embedding, the raw allProperties JSON nor the owning user.
+ */
+public record ContactSearchHit(
+        Long id,
+        String hubspotContactId,
+        String firstName,
+        String lastName,
+        String email,
+        String notes,
+        LocalDateTime lastModified,
+        double distance
+) {
+}
@@ -0,0 +1,106 @@
+package com.agent.financial_advisor.model;
+
+import com.agent.financial_advisor.config.VectorType;
+import com.pgvector.PGvector;
+import jakarta.persistence.*;
+import lombok.Data;
+import org.hibernate.annotations.OnDelete;
+import org.hibernate.annotations.OnDeleteAction;
+import org.hibernate.annotations.Type;
+
+/**
+ * A token-sized, overlapping piece of an email body with its own embedding. Vector search runs over chunks
+ * and reports the parent email, so a long email is matched by its most relevant part.
+ */
+@Entity
+@Table(name = "email_chunks", indexes = {
+        @Index(name = "idx_email_chunk_user", columnList = "user_id"),
+        @Index(name = "idx_email_chunk_document", columnList = "email_document_id, chunk_index"),
+        @Index(name = "idx_email_chunk_embedding_model", columnList = "embedding_model")
+})
+@Data
+public class EmailChunk {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "email_document_id", nullable = false)
+    @OnDelete(action = OnDeleteAction.CASCADE)
+    private EmailDocument emailDocument;
+
+    // Also on the chunk so the ANN query can filter by user before joining the parent
+    @ManyToOne
+    @JoinColumn(name = "user_id", nullable = false)
+    private User user;
+
+    @Column(nullable = false)
+    private int chunkIndex;
+
+    @Column(columnDefinition = "TEXT", nullable = false)
+    private String content;
+
+    @Column(columnDefinition = "vector")
+    @Type(VectorType.class)
+    private PGvector embedding;
+
+    // EmbeddingModel key the vector was produced with
+    @Column(length = 100)
+    private String embeddingModel;
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public EmailDocument getEmailDocument() {
+        return emailDocument;
+    }
+
+    public void setEmailDocument(EmailDocument emailDocument) {
+        this.emailDocument = emailDocument;
+    }
+
+    public User getUser() {
+        return user;
+    }
+
+    public void setUser(User user) {
+        this.user = user;
+    }
+
+    public int getChunkIndex() {
+        return chunkIndex;
+    }
+
+    public void setChunkIndex(int chunkIndex) {
+        this.chunkIndex = chunkIndex;
+    }
+
+    public String getContent() {
+        return content;
+    }
+
+    public void setContent(String content) {
+        this.content = content;
+    }
+
+    public PGvector getEmbedding() {
+        return embedding;
+    }
+
+    public void setEmbedding(PGvector embedding) {
+        this.embedding = embedding;
+    }
+
+    public String getEmbeddingModel() {
+        return embeddingModel;
+    }
+
+    public void setEmbeddingModel(String embeddingModel) {
+        this.embeddingModel = embeddingModel;
+    }
+}
@@ -0,0 +1,12 @@
+package com.agent.financial_advisor.model;
+
+/**
+ * One embedded chunk of an email as held by the in-memory vector index. The email's fields are shared by all
+ * of its chunks and carry no body or distance; the chunk text is kept separately.
+ */
+public record EmailChunkEntry(
+        EmailSearchHit email,
+        int chunkIndex,
+        String content
+) {
+}
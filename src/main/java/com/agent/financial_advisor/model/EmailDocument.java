@@ -12,7 +12,10 @@ import org.hibernate.annotations.Type;
 @Entity
 @Table(name = "email_documents", indexes = {
         @Index(name = "idx_email_user", columnList = "user_id"),
-        @Index(name = "idx_email_gmail_id", columnList = "gmail_message_id")
+        @Index(name = "idx_email_gmail_id", columnList = "gmail_message_id"),
+        // Support the sender and date filters of knowledge base searches
+        @Index(name = "idx_email_user_date", columnList = "user_id, email_date"),
+        @Index(name = "idx_email_user_from", columnList = "user_id, from_email")
 })
 @Data
 public class EmailDocument {
@@ -34,6 +37,7 @@ public class EmailDocument {
     @Column(columnDefinition = "TEXT")
     private String body;
 
+    // Whole-email embedding of emails indexed before chunking; new emails are embedded per EmailChunk
     @Column(columnDefinition = "vector(1536)")
     @Type(VectorType.class)
     private PGvector embedding;
@@ -0,0 +1,19 @@
+package com.agent.financial_advisor.model;
+
+import java.time.LocalDateTime;
+
+/**
+ * Read-only email search result: the fields the RAG context needs plus the L2 distance to the query.
+ * Carries neither the embedding nor the owning user.
+ */
+public record EmailSearchHit(
+        Long id,
+        String gmailMessageId,
+        String fromEmail,
+        String fromName,
+        String subject,
+        String body,
+        LocalDateTime emailDate,
+        double distance
+) {
+}
@@ -0,0 +1,77 @@
+package com.agent.financial_advisor.model;
+
+import com.agent.financial_advisor.config.VectorType;
+import com.pgvector.PGvector;
+import jakarta.persistence.*;
+import lombok.Data;
+import org.hibernate.annotations.Type;
+
+import java.time.LocalDateTime;
+
+@Entity
+@Table(name = "embedding_cache", uniqueConstraints = {
+        @UniqueConstraint(name = "uk_embedding_cache_model_hash", columnNames = {"model", "content_hash"})
+})
+@Data
+public class EmbeddingCacheEntry {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false)
+    private String model;
+
+    @Column(name = "content_hash", nullable = false, length = 64)
+    private String contentHash; // SHA-256 of the normalized input text
+
+    @Column(columnDefinition = "vector")
+    @Type(VectorType.class)
+    private PGvector embedding;
+
+    private LocalDateTime createdAt;
+
+    @PrePersist
+    protected void onCreate() {
+        createdAt = LocalDateTime.now();
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public String getModel() {
+        return model;
+    }
+
+    public void setModel(String model) {
+        this.model = model;
+    }
+
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    public void setContentHash(String contentHash) {
+        this.contentHash = contentHash;
+    }
+
+    public PGvector getEmbedding() {
+        return embedding;
+    }
+
+    public void setEmbedding(PGvector embedding) {
+        this.embedding = embedding;
+    }
+
+    public LocalDateTime getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(LocalDateTime createdAt) {
+        this.createdAt = createdAt;
+    }
+}
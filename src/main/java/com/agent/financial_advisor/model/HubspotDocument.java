@@ -11,7 +11,8 @@ import java.time.LocalDateTime;
 @Entity
 @Table(name = "hubspot_documents", indexes = {
         @Index(name = "idx_hubspot_user", columnList = "user_id"),
-        @Index(name = "idx_hubspot_contact_id", columnList = "hubspot_contact_id")
+        @Index(name = "idx_hubspot_contact_id", columnList = "hubspot_contact_id"),
+        @Index(name = "idx_hubspot_embedding_model", columnList = "embedding_model")
 })
 @Data
 public class HubspotDocument {
@@ -35,10 +36,14 @@ public class HubspotDocument {
     @Column(columnDefinition = "TEXT")
     private String allProperties;
 
-    @Column(columnDefinition = "vector(1536)")
+    @Column(columnDefinition = "vector")
     @Type(VectorType.class)
     private PGvector embedding;
 
+    // EmbeddingModel key the vector was produced with
+    @Column(length = 100)
+    private String embeddingModel;
+
     private LocalDateTime lastModified;
     private LocalDateTime indexedAt;
 
@@ -119,6 +124,14 @@ public class HubspotDocument {
         this.embedding = embedding;
     }
 
+    public String getEmbeddingModel() {
+        return embeddingModel;
+    }
+
+    public void setEmbeddingModel(String embeddingModel) {
+        this.embeddingModel = embeddingModel;
+    }
+
     public LocalDateTime getLastModified() {
         return lastModified;
     }
@@ -1,12 +1,17 @@
 package com.agent.financial_advisor.model;
 
+import com.agent.financial_advisor.config.VectorType;
+import com.pgvector.PGvector;
 import jakarta.persistence.*;
 import lombok.Data;
+import org.hibernate.annotations.Type;
 
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "messages")
+@Table(name = "messages", indexes = {
+        @Index(name = "idx_message_embedding_model", columnList = "embedding_model")
+})
 @Data
 public class Message {
     @Id
@@ -26,6 +31,15 @@ public class Message {
     @Column(columnDefinition = "TEXT")
     private String toolCalls;
 
+    // Set once the message has been folded into the conversation summary, for semantic recall later
+    @Column(columnDefinition = "vector")
+    @Type(VectorType.class)
+    private PGvector embedding;
+
+    // EmbeddingModel key the vector was produced with
+    @Column(length = 100)
+    private String embeddingModel;
+
     private LocalDateTime createdAt;
 
     @PrePersist
@@ -73,6 +87,22 @@ public class Message {
         this.toolCalls = toolCalls;
     }
 
+    public PGvector getEmbedding() {
+        return embedding;
+    }
+
+    public void setEmbedding(PGvector embedding) {
+        this.embedding = embedding;
+    }
+
+    public String getEmbeddingModel() {
+        return embeddingModel;
+    }
+
+    public void setEmbeddingModel(String embeddingModel) {
+        this.embeddingModel = embeddingModel;
+    }
+
     public LocalDateTime getCreatedAt() {
         return createdAt;
     }
@@ -0,0 +1,15 @@
+package com.agent.financial_advisor.model;
+
+import java.time.LocalDateTime;
+
+/**
+ * Read-only chat memory search result: an earlier message plus its L2 distance to the query.
+ */
+public record MessageSearchHit(
+        Long id,
+        String role,
+        String content,
+        LocalDateTime createdAt,
+        double distance
+) {
+}
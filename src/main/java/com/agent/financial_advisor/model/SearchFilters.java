@@ -0,0 +1,53 @@
+package com.agent.financial_advisor.model;
+
+import java.time.LocalDateTime;
+
+/**
+ * Optional structured predicates for knowledge base searches, applied in SQL next to the similarity ordering.
+ * A null field means no restriction.
+ *
+ * @param sender    email address, or part of a name, of the sender (emails) or the contact (contacts)
+ * @param dateFrom  inclusive lower bound on the email date or the contact's last modification
+ * @param dateTo    exclusive upper bound on the same dates
+ * @param contactId HubSpot contact ID; for emails this keeps only mail from that contact's address
+ * @param source    "emails" or "contacts" to search only one of them
+ */
+public record SearchFilters(String sender, LocalDateTime dateFrom, LocalDateTime dateTo, String contactId,
+                            String source) {
+
+    public static final String SOURCE_EMAILS = "emails";
+    public static final String SOURCE_CONTACTS = "contacts";
+
+    public static SearchFilters none() {
+        return new SearchFilters(null, null, null, null, null);
+    }
+
+    public boolean includesEmails() {
+        return source == null || SOURCE_EMAILS.equalsIgnoreCase(source);
+    }
+
+    public boolean includesContacts() {
+        return source == null || SOURCE_CONTACTS.equalsIgnoreCase(source);
+    }
+
+    /**
+     * True when any predicate beyond the source restricts which documents match.
+     */
+    public boolean hasPredicates() {
+        return sender != null || dateFrom != null || dateTo != null || contactId != null;
+    }
+
+    /**
+     * True when the sender is a full address, which can be matched exactly against the indexed column.
+     */
+    public boolean senderIsAddress() {
+        return sender != null && sender.contains("@");
+    }
+
+    /**
+     * The sender as an ILIKE pattern matching it anywhere, with any % and _ in it matched literally.
+     */
+    public String senderPattern() {
+        return "%" + sender.trim().replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + "%";
+    }
+}
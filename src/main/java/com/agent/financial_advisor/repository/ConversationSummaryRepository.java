@@ -0,0 +1,11 @@
+package com.agent.financial_advisor.repository;
+
+import com.agent.financial_advisor.model.ConversationSummary;
+import com.agent.financial_advisor.model.User;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+import java.util.Optional;
+
+public interface ConversationSummaryRepository extends JpaRepository<ConversationSummary, Long> {
+    Optional<ConversationSummary> findByUser(User user);
+}
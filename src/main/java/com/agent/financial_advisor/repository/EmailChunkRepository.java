@@ -0,0 +1,14 @@
+package com.agent.financial_advisor.repository;
+
+import com.agent.financial_advisor.model.EmailChunk;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+import java.util.List;
+
+public interface EmailChunkRepository extends JpaRepository<EmailChunk, Long> {
+    /**
+     * Rows whose vector is of another embedding model; rows without a vector are not included
+     */
+    List<EmailChunk> findByEmbeddingModelNot(String embeddingModel, Pageable pageable);
+}
@@ -2,21 +2,42 @@ package com.agent.financial_advisor.repository;
 
 import com.agent.financial_advisor.model.EmailDocument;
 import com.agent.financial_advisor.model.User;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
-import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.util.List;
 
-public interface EmailDocumentRepository extends JpaRepository<EmailDocument, Long> {
-    @Query(value = "SELECT * FROM email_documents WHERE user_id = :userId " +
-            "ORDER BY embedding <-> CAST(:embedding AS vector) LIMIT :limit",
-            nativeQuery = true)
-    List<EmailDocument> findSimilar(@Param("userId") Long userId,
-                                    @Param("embedding") String embedding,
-                                    @Param("limit") int limit);
-
+public interface EmailDocumentRepository extends JpaRepository<EmailDocument, Long>, EmailDocumentRepositoryCustom {
     List<EmailDocument> findByUserOrderByEmailDateDesc(User user);
 
     boolean existsByGmailMessageId(String gmailMessageId);
+
+    /**
+     * Emails indexed before chunking was introduced, oldest first. Parts of emails the old indexer split into
+     * "_chunk_N" documents are left out; they are merged back into one email first.
+     */
+    @Query("SELECT d FROM EmailDocument d WHERE d.gmailMessageId NOT LIKE '%!_chunk!_%' ESCAPE '!' AND NOT EXISTS " +
+            "(SELECT c.id FROM EmailChunk c WHERE c.emailDocument = d) ORDER BY d.id")
+    List<EmailDocument> findWithoutChunks(Pageable pageable);
+
+    /**
+     * Gmail ids of emails the old indexer split into documents with a "_chunk_N" suffix on the id
+     */
+    @Query(value = "SELECT DISTINCT regexp_replace(gmail_message_id, '_chunk_[0-9]+$', '') FROM email_documents " +
+            "WHERE gmail_message_id ~ '_chunk_[0-9]+$'", nativeQuery = true)
+    List<String> findLegacyPartMessageIds(Pageable pageable);
+
+    List<EmailDocument> findByGmailMessageIdStartingWith(String prefix);
+
+    /**
+     * Lower-cases sender addresses stored before they were normalized on indexing, returning the rows changed
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "UPDATE email_documents SET from_email = lower(from_email) WHERE from_email <> lower(from_email)",
+            nativeQuery = true)
+    int lowerCaseSenderAddresses();
 }
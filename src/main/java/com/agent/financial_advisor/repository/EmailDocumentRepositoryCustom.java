@@ -0,0 +1,44 @@
+package com.agent.financial_advisor.repository;
+
+import com.agent.financial_advisor.model.EmailChunkEntry;
+import com.agent.financial_advisor.model.EmailSearchHit;
+import com.agent.financial_advisor.model.SearchFilters;
+import com.agent.financial_advisor.services.EmbeddingModel;
+
+import java.util.List;
+import java.util.function.BiConsumer;
+
+public interface EmailDocumentRepositoryCustom {
+
+    // Nearest chunks fetched per requested email, so an email matched by several chunks doesn't crowd out others
+    int CHUNKS_PER_EMAIL = 4;
+
+    /**
+     * Nearest emails by L2 distance, as projections rather than managed entities.
+     * The query vector is bound as a PGvector, not formatted as text, and must come from the given model;
+     * only vectors of that model are searched.
+     */
+    default List<EmailSearchHit> findSimilar(Long userId, EmbeddingModel model, float[] embedding, int limit) {
+        return findSimilar(userId, model, embedding, SearchFilters.none(), limit);
+    }
+
+    /**
+     * Nearest emails by L2 distance among those matching the filters.
+     */
+    List<EmailSearchHit> findSimilar(Long userId, EmbeddingModel model, float[] embedding, SearchFilters filters, int limit);
+
+    /**
+     * Best full-text matches for a tsquery among those matching the filters, ranked by ts_rank_cd.
+     * The L2 distance to the query vector is still filled in, so hits from either search look the same;
+     * it is infinite for emails whose vector is of another model.
+     */
+    List<EmailSearchHit> findByText(Long userId, String tsQuery, EmbeddingModel model, float[] embedding,
+                                    SearchFilters filters, int limit);
+
+    /**
+     * Streams every chunk vector of the user's emails that is of the given model, grouped by email.
+     * Chunks of the same email share one email object. Run inside a transaction so rows are fetched in batches
+     * rather than all at once.
+     */
+    void forEachChunkVector(Long userId, EmbeddingModel model, BiConsumer<EmailChunkEntry, float[]> consumer);
+}
@@ -0,0 +1,139 @@
+package com.agent.financial_advisor.repository;
+
+import com.agent.financial_advisor.model.EmailChunkEntry;
+import com.agent.financial_advisor.model.EmailSearchHit;
+import com.agent.financial_advisor.model.SearchFilters;
+import com.agent.financial_advisor.services.EmbeddingModel;
+import com.agent.financial_advisor.services.TextSearchIndexService;
+import com.agent.financial_advisor.services.VectorIndexService;
+import com.agent.financial_advisor.config.VectorType;
+import com.pgvector.PGvector;
+import org.springframework.jdbc.core.DataClassRowMapper;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+public class EmailDocumentRepositoryCustomImpl implements EmailDocumentRepositoryCustom {
+
+    private static final RowMapper<EmailSearchHit> ROW_MAPPER = new DataClassRowMapper<>(EmailSearchHit.class);
+
+    // Rows per round trip when streaming vectors; each row carries a full embedding
+    private static final int STREAM_FETCH_SIZE = 500;
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final NamedParameterJdbcTemplate streamingJdbcTemplate;
+    private final VectorIndexService vectorIndexService;
+
+    public EmailDocumentRepositoryCustomImpl(NamedParameterJdbcTemplate jdbcTemplate,
+                                             VectorIndexService vectorIndexService) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.vectorIndexService = vectorIndexService;
+        JdbcTemplate streaming = new JdbcTemplate(jdbcTemplate.getJdbcTemplate().getDataSource());
+        streaming.setFetchSize(STREAM_FETCH_SIZE);
+        this.streamingJdbcTemplate = new NamedParameterJdbcTemplate(streaming);
+    }
+
+    @Override
+    public List<EmailSearchHit> findSimilar(Long userId, EmbeddingModel model, float[] embedding, SearchFilters filters,
+                                            int limit) {
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("userId", userId)
+                .addValue("embedding", new PGvector(embedding))
+                .addValue("chunkLimit", vectorIndexService.annCandidates(limit * CHUNKS_PER_EMAIL))
+                .addValue("limit", limit);
+
+        // Nearest chunks first, then one hit per email at the exact distance of its best chunk, with the matched
+        // chunks in body order as the body. The inner ORDER BY repeats the indexed expression so the planner
+        // still matches it to the ANN index; with a quantized index the outer ORDER BY is the exact rescoring.
+        return jdbcTemplate.query("WITH hits AS (" +
+                        "SELECT c.email_document_id, c.chunk_index, c.content, c.embedding <-> :embedding AS distance " +
+                        "FROM email_chunks c JOIN email_documents d ON d.id = c.email_document_id " +
+                        "WHERE c.user_id = :userId AND " + vectorIndexService.modelPredicate("c.embedding_model", model) +
+                        filterClause(filters, params) +
+                        " ORDER BY " + vectorIndexService.nearestOrder("c.embedding", model) + " LIMIT :chunkLimit) " +
+                        "SELECT d.id, d.gmail_message_id, d.from_email, d.from_name, d.subject, " +
+                        "string_agg(h.content, E'\\n…\\n' ORDER BY h.chunk_index) AS body, d.email_date, " +
+                        "min(h.distance) AS distance " +
+                        "FROM hits h JOIN email_documents d ON d.id = h.email_document_id " +
+                        "GROUP BY d.id ORDER BY distance LIMIT :limit",
+                params, ROW_MAPPER);
+    }
+
+    @Override
+    public List<EmailSearchHit> findByText(Long userId, String tsQuery, EmbeddingModel model, float[] embedding,
+                                           SearchFilters filters, int limit) {
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("userId", userId)
+                .addValue("tsQuery", tsQuery)
+                .addValue("embedding", new PGvector(embedding))
+                .addValue("limit", limit);
+
+        return jdbcTemplate.query("SELECT id, gmail_message_id, from_email, from_name, subject, body, email_date, " +
+                        "COALESCE((SELECT min(c.embedding <-> :embedding) FROM email_chunks c " +
+                        "WHERE c.email_document_id = email_documents.id AND " +
+                        vectorIndexService.modelPredicate("c.embedding_model", model) +
+                        "), 'Infinity') AS distance FROM email_documents, " +
+                        "to_tsquery('" + TextSearchIndexService.TEXT_SEARCH_CONFIG + "', :tsQuery) query " +
+                        "WHERE user_id = :userId AND search_tsv @@ query" +
+                        filterClause(filters, params) +
+                        " ORDER BY ts_rank_cd(search_tsv, query) DESC LIMIT :limit",
+                params, ROW_MAPPER);
+    }
+
+    @Override
+    public void forEachChunkVector(Long userId, EmbeddingModel model, BiConsumer<EmailChunkEntry, float[]> consumer) {
+        MapSqlParameterSource params = new MapSqlParameterSource("userId", userId);
+        EmailSearchHit[] email = new EmailSearchHit[1];
+
+        streamingJdbcTemplate.query("SELECT d.id, d.gmail_message_id, d.from_email, d.from_name, d.subject, " +
+                        "d.email_date, c.chunk_index, c.content, c.embedding " +
+                        "FROM email_chunks c JOIN email_documents d ON d.id = c.email_document_id " +
+                        "WHERE c.user_id = :userId AND " + vectorIndexService.modelPredicate("c.embedding_model", model) +
+                        " ORDER BY d.id, c.chunk_index",
+                params, rs -> {
+                    long id = rs.getLong("id");
+                    if (email[0] == null || email[0].id() != id) {
+                        email[0] = new EmailSearchHit(id, rs.getString("gmail_message_id"), rs.getString("from_email"),
+                                rs.getString("from_name"), rs.getString("subject"), null,
+                                rs.getObject("email_date", LocalDateTime.class), 0);
+                    }
+                    consumer.accept(new EmailChunkEntry(email[0], rs.getInt("chunk_index"), rs.getString("content")),
+                            VectorType.fromJdbc(rs.getObject("embedding")).toArray());
+                });
+    }
+
+    /**
+     * Builds the AND-ed predicates for the filters and binds their values. Exact sender addresses and date
+     * ranges are matched so they can use the (user_id, from_email) and (user_id, email_date) indexes.
+     * The columns are left unqualified; in the chunk query only the parent email has them.
+     */
+    private String filterClause(SearchFilters filters, MapSqlParameterSource params) {
+        StringBuilder clause = new StringBuilder();
+        if (filters.senderIsAddress()) {
+            clause.append(" AND from_email = :sender");
+            params.addValue("sender", filters.sender().trim().toLowerCase());
+        } else if (filters.sender() != null) {
+            clause.append(" AND (from_name ILIKE :sender OR from_email ILIKE :sender)");
+            params.addValue("sender", filters.senderPattern());
+        }
+        if (filters.dateFrom() != null) {
+            clause.append(" AND email_date >= :dateFrom");
+            params.addValue("dateFrom", filters.dateFrom());
+        }
+        if (filters.dateTo() != null) {
+            clause.append(" AND email_date < :dateTo");
+            params.addValue("dateTo", filters.dateTo());
+        }
+        if (filters.contactId() != null) {
+            clause.append(" AND from_email IN (SELECT lower(email) FROM hubspot_documents " +
+                    "WHERE user_id = :userId AND hubspot_contact_id = :contactId)");
+            params.addValue("contactId", filters.contactId());
+        }
+        return clause.toString();
+    }
+}
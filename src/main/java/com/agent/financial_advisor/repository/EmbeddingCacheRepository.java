@@ -0,0 +1,12 @@
+package com.agent.financial_advisor.repository;
+
+import com.agent.financial_advisor.model.EmbeddingCacheEntry;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+import java.util.Collection;
+import java.util.List;
+
+public interface EmbeddingCacheRepository extends JpaRepository<EmbeddingCacheEntry, Long>, EmbeddingCacheRepositoryCustom {
+
+    List<EmbeddingCacheEntry> findByModelAndContentHashIn(String model, Collection<String> contentHashes);
+}
@@ -0,0 +1,11 @@
+package com.agent.financial_advisor.repository;
+
+import java.util.Map;
+
+public interface EmbeddingCacheRepositoryCustom {
+
+    /**
+     * Stores the embeddings by content hash in one batch, keeping whichever entries are already cached
+     */
+    void insertAllIfAbsent(String model, Map<String, float[]> embeddings);
+}
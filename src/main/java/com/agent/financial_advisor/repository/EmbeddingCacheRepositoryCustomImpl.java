@@ -0,0 +1,33 @@
+package com.agent.financial_advisor.repository;
+
+import com.pgvector.PGvector;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+
+import java.util.Map;
+
+public class EmbeddingCacheRepositoryCustomImpl implements EmbeddingCacheRepositoryCustom {
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+
+    public EmbeddingCacheRepositoryCustomImpl(NamedParameterJdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @Override
+    public void insertAllIfAbsent(String model, Map<String, float[]> embeddings) {
+        if (embeddings.isEmpty()) {
+            return;
+        }
+        SqlParameterSource[] batch = embeddings.entrySet().stream()
+                .map(entry -> new MapSqlParameterSource()
+                        .addValue("model", model)
+                        .addValue("contentHash", entry.getKey())
+                        .addValue("embedding", new PGvector(entry.getValue())))
+                .toArray(SqlParameterSource[]::new);
+        jdbcTemplate.batchUpdate("INSERT INTO embedding_cache (model, content_hash, embedding, created_at) " +
+                "VALUES (:model, :contentHash, :embedding, NOW()) " +
+                "ON CONFLICT (model, content_hash) DO NOTHING", batch);
+    }
+}
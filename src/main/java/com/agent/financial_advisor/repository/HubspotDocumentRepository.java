@@ -2,23 +2,30 @@ package com.agent.financial_advisor.repository;
 
 import com.agent.financial_advisor.model.HubspotDocument;
 import com.agent.financial_advisor.model.User;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
-public interface HubspotDocumentRepository extends JpaRepository<HubspotDocument, Long> {
+public interface HubspotDocumentRepository extends JpaRepository<HubspotDocument, Long>, HubspotDocumentRepositoryCustom {
 
     Optional<HubspotDocument> findByUserAndHubspotContactId(User user, String hubspotContactId);
 
-    @Query(value = "SELECT * FROM hubspot_documents WHERE user_id = :userId " +
-            "ORDER BY embedding <-> CAST(:embedding AS vector) LIMIT :limit",
-            nativeQuery = true)
-    List<HubspotDocument> findSimilar(@Param("userId") Long userId,
-                                      @Param("embedding") String embedding,
-                                      @Param("limit") int limit);
+    List<HubspotDocument> findByUserAndHubspotContactIdIn(User user, Collection<String> hubspotContactIds);
+
+    @Query("SELECT d.hubspotContactId FROM HubspotDocument d WHERE d.user = :user")
+    List<String> findContactIdsByUser(@Param("user") User user);
+
+    void deleteByUserAndHubspotContactIdIn(User user, Collection<String> hubspotContactIds);
 
     List<HubspotDocument> findByUserOrderByLastModifiedDesc(User user);
+
+    /**
+     * Rows whose vector is of another embedding model; rows without a vector are not included
+     */
+    List<HubspotDocument> findByEmbeddingModelNot(String embeddingModel, Pageable pageable);
 }
@@ -0,0 +1,39 @@
+package com.agent.financial_advisor.repository;
+
+import com.agent.financial_advisor.model.ContactSearchHit;
+import com.agent.financial_advisor.model.SearchFilters;
+import com.agent.financial_advisor.services.EmbeddingModel;
+
+import java.util.List;
+import java.util.function.BiConsumer;
+
+public interface HubspotDocumentRepositoryCustom {
+
+    /**
+     * Nearest contacts by L2 distance, as projections rather than managed entities.
+     * The query vector is bound as a PGvector, not formatted as text, and must come from the given model;
+     * only vectors of that model are searched.
+     */
+    default List<ContactSearchHit> findSimilar(Long userId, EmbeddingModel model, float[] embedding, int limit) {
+        return findSimilar(userId, model, embedding, SearchFilters.none(), limit);
+    }
+
+    /**
+     * Nearest contacts by L2 distance among those matching the filters.
+     */
+    List<ContactSearchHit> findSimilar(Long userId, EmbeddingModel model, float[] embedding, SearchFilters filters, int limit);
+
+    /**
+     * Best full-text matches for a tsquery among those matching the filters, ranked by ts_rank_cd.
+     * The L2 distance to the query vector is still filled in, so hits from either search look the same;
+     * it is infinite for contacts whose vector is of another model.
+     */
+    List<ContactSearchHit> findByText(Long userId, String tsQuery, EmbeddingModel model, float[] embedding,
+                                      SearchFilters filters, int limit);
+
+    /**
+     * Streams every contact vector of the user that is of the given model, with a zero distance.
+     * Run inside a transaction so rows are fetched in batches rather than all at once.
+     */
+    void forEachContactVector(Long userId, EmbeddingModel model, BiConsumer<ContactSearchHit, float[]> consumer);
+}
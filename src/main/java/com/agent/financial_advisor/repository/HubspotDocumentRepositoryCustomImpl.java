@@ -0,0 +1,113 @@
+package com.agent.financial_advisor.repository;
+
+import com.agent.financial_advisor.model.ContactSearchHit;
+import com.agent.financial_advisor.model.SearchFilters;
+import com.agent.financial_advisor.services.EmbeddingModel;
+import com.agent.financial_advisor.services.TextSearchIndexService;
+import com.agent.financial_advisor.services.VectorIndexService;
+import com.agent.financial_advisor.config.VectorType;
+import com.pgvector.PGvector;
+import org.springframework.jdbc.core.DataClassRowMapper;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+
+import java.util.List;
+import java.util.function.BiConsumer;
+
+public class HubspotDocumentRepositoryCustomImpl implements HubspotDocumentRepositoryCustom {
+
+    private static final RowMapper<ContactSearchHit> ROW_MAPPER = new DataClassRowMapper<>(ContactSearchHit.class);
+
+    // Rows per round trip when streaming vectors; each row carries a full embedding
+    private static final int STREAM_FETCH_SIZE = 500;
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final NamedParameterJdbcTemplate streamingJdbcTemplate;
+    private final VectorIndexService vectorIndexService;
+
+    public HubspotDocumentRepositoryCustomImpl(NamedParameterJdbcTemplate jdbcTemplate,
+                                               VectorIndexService vectorIndexService) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.vectorIndexService = vectorIndexService;
+        JdbcTemplate streaming = new JdbcTemplate(jdbcTemplate.getJdbcTemplate().getDataSource());
+        streaming.setFetchSize(STREAM_FETCH_SIZE);
+        this.streamingJdbcTemplate = new NamedParameterJdbcTemplate(streaming);
+    }
+
+    @Override
+    public List<ContactSearchHit> findSimilar(Long userId, EmbeddingModel model, float[] embedding, SearchFilters filters,
+                                              int limit) {
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("userId", userId)
+                .addValue("embedding", new PGvector(embedding))
+                .addValue("candidates", vectorIndexService.annCandidates(limit))
+                .addValue("limit", limit);
+
+        // The ORDER BY repeats the indexed expression so the planner still matches it to the ANN index
+        return jdbcTemplate.query(vectorIndexService.rescored(
+                        "SELECT id, hubspot_contact_id, first_name, last_name, email, notes, last_modified, " +
+                        "embedding <-> :embedding AS distance FROM hubspot_documents WHERE user_id = :userId AND " +
+                        vectorIndexService.modelPredicate("embedding_model", model) +
+                        filterClause(filters, params) +
+                        " ORDER BY " + vectorIndexService.nearestOrder("embedding", model) + " LIMIT :candidates"),
+                params, ROW_MAPPER);
+    }
+
+    @Override
+    public List<ContactSearchHit> findByText(Long userId, String tsQuery, EmbeddingModel model, float[] embedding,
+                                             SearchFilters filters, int limit) {
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("userId", userId)
+                .addValue("tsQuery", tsQuery)
+                .addValue("embedding", new PGvector(embedding))
+                .addValue("limit", limit);
+
+        return jdbcTemplate.query("SELECT id, hubspot_contact_id, first_name, last_name, email, notes, last_modified, " +
+                        "COALESCE(CASE WHEN " + vectorIndexService.modelPredicate("embedding_model", model) +
+                        " THEN embedding <-> :embedding END, 'Infinity') AS distance FROM hubspot_documents, " +
+                        "to_tsquery('" + TextSearchIndexService.TEXT_SEARCH_CONFIG + "', :tsQuery) query " +
+                        "WHERE user_id = :userId AND search_tsv @@ query" +
+                        filterClause(filters, params) +
+                        " ORDER BY ts_rank_cd(search_tsv, query) DESC LIMIT :limit",
+                params, ROW_MAPPER);
+    }
+
+    @Override
+    public void forEachContactVector(Long userId, EmbeddingModel model, BiConsumer<ContactSearchHit, float[]> consumer) {
+        streamingJdbcTemplate.query("SELECT id, hubspot_contact_id, first_name, last_name, email, notes, last_modified, " +
+                        "0 AS distance, embedding FROM hubspot_documents WHERE user_id = :userId AND " +
+                        vectorIndexService.modelPredicate("embedding_model", model),
+                new MapSqlParameterSource("userId", userId),
+                rs -> consumer.accept(ROW_MAPPER.mapRow(rs, 0), VectorType.fromJdbc(rs.getObject("embedding")).toArray()));
+    }
+
+    /**
+     * Builds the AND-ed predicates for the filters and binds their values. For contacts the sender filter
+     * matches the contact's own address or name, and the date range applies to its last modification.
+     */
+    private String filterClause(SearchFilters filters, MapSqlParameterSource params) {
+        StringBuilder clause = new StringBuilder();
+        if (filters.senderIsAddress()) {
+            clause.append(" AND lower(email) = :sender");
+            params.addValue("sender", filters.sender().trim().toLowerCase());
+        } else if (filters.sender() != null) {
+            clause.append(" AND (first_name || ' ' || last_name ILIKE :sender OR email ILIKE :sender)");
+            params.addValue("sender", filters.senderPattern());
+        }
+        if (filters.dateFrom() != null) {
+            clause.append(" AND last_modified >= :dateFrom");
+            params.addValue("dateFrom", filters.dateFrom());
+        }
+        if (filters.dateTo() != null) {
+            clause.append(" AND last_modified < :dateTo");
+            params.addValue("dateTo", filters.dateTo());
+        }
+        if (filters.contactId() != null) {
+            clause.append(" AND hubspot_contact_id = :contactId");
+            params.addValue("contactId", filters.contactId());
+        }
+        return clause.toString();
+    }
+}
@@ -2,12 +2,22 @@ package com.agent.financial_advisor.repository;
 
 import com.agent.financial_advisor.model.Message;
 import com.agent.financial_advisor.model.User;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 
 import java.util.List;
 
-public interface MessageRepository extends JpaRepository<Message, Long> {
+public interface MessageRepository extends JpaRepository<Message, Long>, MessageRepositoryCustom {
     List<Message> findByUserOrderByCreatedAtAsc(User user);
 
     List<Message> findTop20ByUserOrderByCreatedAtDesc(User user);
+
+    List<Message> findByUserOrderByCreatedAtDesc(User user, Pageable pageable);
+
+    List<Message> findByUserAndIdGreaterThanOrderByIdAsc(User user, Long id);
+
+    /**
+     * Rows whose vector is of another embedding model; rows without a vector are not included
+     */
+    List<Message> findByEmbeddingModelNot(String embeddingModel, Pageable pageable);
 }
\ No newline at end of file
@@ -0,0 +1,16 @@
+package com.agent.financial_advisor.repository;
+
+import com.agent.financial_advisor.model.MessageSearchHit;
+import com.agent.financial_advisor.services.EmbeddingModel;
+
+import java.util.List;
+
+public interface MessageRepositoryCustom {
+
+    /**
+     * Nearest embedded messages of the user by L2 distance, up to and including maxId.
+     * Messages that have not been summarized yet have no embedding and are never returned, nor are messages
+     * whose vector is of another model than the query's.
+     */
+    List<MessageSearchHit> findSimilar(Long userId, EmbeddingModel model, float[] embedding, Long maxId, int limit);
+}
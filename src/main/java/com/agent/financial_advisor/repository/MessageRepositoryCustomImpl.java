@@ -0,0 +1,42 @@
+package com.agent.financial_advisor.repository;
+
+import com.agent.financial_advisor.model.MessageSearchHit;
+import com.agent.financial_advisor.services.EmbeddingModel;
+import com.agent.financial_advisor.services.VectorIndexService;
+import com.pgvector.PGvector;
+import org.springframework.jdbc.core.DataClassRowMapper;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+
+import java.util.List;
+
+public class MessageRepositoryCustomImpl implements MessageRepositoryCustom {
+
+    private static final RowMapper<MessageSearchHit> ROW_MAPPER = new DataClassRowMapper<>(MessageSearchHit.class);
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final VectorIndexService vectorIndexService;
+
+    public MessageRepositoryCustomImpl(NamedParameterJdbcTemplate jdbcTemplate, VectorIndexService vectorIndexService) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.vectorIndexService = vectorIndexService;
+    }
+
+    @Override
+    public List<MessageSearchHit> findSimilar(Long userId, EmbeddingModel model, float[] embedding, Long maxId,
+                                              int limit) {
+        return jdbcTemplate.query(vectorIndexService.rescored(
+                        "SELECT id, role, content, created_at, embedding <-> :embedding AS distance " +
+                        "FROM messages WHERE user_id = :userId AND id <= :maxId AND " +
+                        vectorIndexService.modelPredicate("embedding_model", model) +
+                        " ORDER BY " + vectorIndexService.nearestOrder("embedding", model) + " LIMIT :candidates"),
+                new MapSqlParameterSource()
+                        .addValue("userId", userId)
+                        .addValue("embedding", new PGvector(embedding))
+                        .addValue("maxId", maxId)
+                        .addValue("candidates", vectorIndexService.annCandidates(limit))
+                        .addValue("limit", limit),
+                ROW_MAPPER);
+    }
+}
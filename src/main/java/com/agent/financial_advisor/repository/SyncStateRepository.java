@@ -0,0 +1,11 @@
+package com.agent.financial_advisor.repository;
+
+import com.agent.financial_advisor.model.SyncState;
+import com.agent.financial_advisor.model.User;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+import java.util.Optional;
+
+public interface SyncStateRepository extends JpaRepository<SyncState, Long> {
+    Optional<SyncState> findByUserAndProvider(User user, String provider);
+}
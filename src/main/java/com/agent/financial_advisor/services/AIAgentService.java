@@ -2,18 +2,31 @@ package com.agent.financial_advisor.services;
 
 import com.agent.financial_advisor.model.*;
 import com.agent.financial_advisor.repository.*;
+import com.fasterxml.jackson.annotation.JsonPropertyDescription;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.api.services.calendar.model.Event;
 import com.google.api.services.calendar.model.EventAttendee;
-import com.theokanning.openai.completion.chat.*;
+import com.theokanning.openai.completion.chat.ChatFunction;
+import com.theokanning.openai.completion.chat.ChatMessageRole;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.time.Duration;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 @Service
 @Slf4j
@@ -26,12 +39,15 @@ public class AIAgentService {
     private final MessageRepository messageRepository;
     private final TaskRepository taskRepository;
     private final OngoingInstructionRepository instructionRepository;
+    private final PromptAssembler promptAssembler;
+    private final ConversationMemoryService conversationMemory;
     private final ObjectMapper objectMapper = new ObjectMapper();
 
     public AIAgentService(OpenAIService openAIService, RAGService ragService, GmailService gmailService,
                           CalendarService calendarService, HubspotService hubspotService,
                           MessageRepository messageRepository, TaskRepository taskRepository,
-                          OngoingInstructionRepository instructionRepository) {
+                          OngoingInstructionRepository instructionRepository, PromptAssembler promptAssembler,
+                          ConversationMemoryService conversationMemory) {
         this.openAIService = openAIService;
         this.ragService = ragService;
         this.gmailService = gmailService;
@@ -40,19 +56,106 @@ public class AIAgentService {
         this.messageRepository = messageRepository;
         this.taskRepository = taskRepository;
         this.instructionRepository = instructionRepository;
+        this.promptAssembler = promptAssembler;
+        this.conversationMemory = conversationMemory;
     }
     private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(AIAgentService.class);
 
 
-    // User context for function execution
-    private User currentUser;
+    // Upper bound on one agent run, including all model and tool calls
+    @Value("${app.agent.run.timeout:2m}")
+    private Duration runTimeout;
+
+    @Value("${app.agent.tools.concurrency:16}")
+    private int toolConcurrency;
+
+    // Read-only tool calls from the same model turn run side by side here; write tools stay on the run's thread
+    private ExecutorService toolExecutor;
+
+    private ArrayNode toolSchema;
+    private int toolSchemaTokens;
+
+    /*
+     * Static system prompt shared by chat and the proactive entry points. It goes first and never changes, so
+     * together with the tool schema it forms a stable prefix the provider can cache. Anything that varies per
+     * request (time, ongoing instructions, the triggering email or event) is sent after it.
+     */
+    private static final String SYSTEM_PROMPT = """
+            You are an AI assistant for a financial advisor. You have access to their emails, calendar, and HubSpot CRM.
+
+            IMPORTANT INSTRUCTIONS:
+            - When user asks about recent/latest emails, use fetch_recent_emails function
+            - When user asks about upcoming meetings/schedule, use get_upcoming_events function
+            - When user asks about client information in notes, use search_knowledge_base first
+            - When scheduling meetings, first get_available_times, then create_calendar_event
+            - Always search_hubspot_contact before creating new contacts to avoid duplicates
+            - When replying to emails, you need the message_id and thread_id from fetch_recent_emails
+
+            Always be helpful, proactive, and professional.""";
+
+    // Tools that only read, so several of them can run at once and their results can be reused within a run
+    private static final Set<String> READ_ONLY_TOOLS = Set.of(
+            "search_knowledge_base",
+            "fetch_recent_emails",
+            "get_upcoming_events",
+            "get_available_times",
+            "search_hubspot_contact"
+    );
+
+    // Progress text shown to the user while a tool runs
+    private static final Map<String, String> TOOL_PROGRESS = Map.ofEntries(
+            Map.entry("search_knowledge_base", "Searching knowledge base…"),
+            Map.entry("fetch_recent_emails", "Fetching recent emails…"),
+            Map.entry("get_upcoming_events", "Checking your calendar…"),
+            Map.entry("send_email", "Sending email…"),
+            Map.entry("reply_to_email", "Sending reply…"),
+            Map.entry("get_available_times", "Looking for available times…"),
+            Map.entry("create_calendar_event", "Creating calendar event…"),
+            Map.entry("search_hubspot_contact", "Searching HubSpot…"),
+            Map.entry("create_hubspot_contact", "Creating HubSpot contact…"),
+            Map.entry("add_hubspot_note", "Adding HubSpot note…"),
+            Map.entry("create_task", "Creating task…")
+    );
+
+    @PostConstruct
+    public void init() {
+        // Built once so every request carries byte-identical tool definitions
+        this.toolSchema = openAIService.toTools(buildFunctions());
+        this.toolSchemaTokens = promptAssembler.countTokens(OpenAIService.CHAT_MODEL, toolSchema.toString());
+        this.toolExecutor = Executors.newFixedThreadPool(toolConcurrency, new CustomizableThreadFactory("agent-tool-"));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        toolExecutor.shutdownNow();
+    }
 
     // ========== Parameter Classes ==========
 
     public static class SearchParams {
         private String query;
+        @JsonPropertyDescription("Only emails from this sender, or contacts with this address or name. A full email address or part of a name.")
+        private String sender;
+        @JsonPropertyDescription("Only items dated on or after this day, as YYYY-MM-DD")
+        private String start_date;
+        @JsonPropertyDescription("Only items dated on or before this day, as YYYY-MM-DD")
+        private String end_date;
+        @JsonPropertyDescription("Only this HubSpot contact, and emails from its address")
+        private String contact_id;
+        @JsonPropertyDescription("Search only 'emails' or only 'contacts'")
+        private String source;
         public String getQuery() { return query; }
         public void setQuery(String query) { this.query = query; }
+        public String getSender() { return sender; }
+        public void setSender(String sender) { this.sender = sender; }
+        public String getStart_date() { return start_date; }
+        public void setStart_date(String start_date) { this.start_date = start_date; }
+        public String getEnd_date() { return end_date; }
+        public void setEnd_date(String end_date) { this.end_date = end_date; }
+        public String getContact_id() { return contact_id; }
+        public void setContact_id(String contact_id) { this.contact_id = contact_id; }
+        public String getSource() { return source; }
+        public void setSource(String source) { this.source = source; }
     }
 
     public static class EmailParams {
@@ -165,140 +268,92 @@ public class AIAgentService {
 
     // ========== Available Functions ==========
 
-    private List<ChatFunction> getAvailableFunctions() {
+    private static List<ChatFunction> buildFunctions() {
         List<ChatFunction> functions = new ArrayList<>();
 
         // Search indexed knowledge base
-        functions.add(ChatFunction.builder()
-                .name("search_knowledge_base")
-                .description("Search through indexed emails and HubSpot contacts for historical information")
-                .executor(SearchParams.class, params -> {
-                    SearchParams p = (SearchParams) params;
-                    return executeSearchKnowledgeBase(p.getQuery());
-                })
-                .build());
+        functions.add(function("search_knowledge_base",
+                "Search through indexed emails and HubSpot contacts for historical information. " +
+                        "Use the optional filters when the user names a sender, a contact or a time period.",
+                SearchParams.class));
 
         // Fetch recent emails from Gmail API
-        functions.add(ChatFunction.builder()
-                .name("fetch_recent_emails")
-                .description("Fetch recent emails directly from Gmail. Use when user asks about recent/latest emails.")
-                .executor(FetchEmailsParams.class, params -> {
-                    FetchEmailsParams p = (FetchEmailsParams) params;
-                    int maxResults = p.getMax_results() != null ? p.getMax_results() : 10;
-                    return executeFetchRecentEmails(maxResults);
-                })
-                .build());
+        functions.add(function("fetch_recent_emails",
+                "Fetch recent emails directly from Gmail. Use when user asks about recent/latest emails.",
+                FetchEmailsParams.class));
 
         // Get upcoming calendar events
-        functions.add(ChatFunction.builder()
-                .name("get_upcoming_events")
-                .description("Get upcoming calendar events. Use when user asks about meetings or schedule.")
-                .executor(GetEventsParams.class, params -> {
-                    GetEventsParams p = (GetEventsParams) params;
-                    int maxResults = p.getMax_results() != null ? p.getMax_results() : 10;
-                    return executeGetUpcomingEvents(maxResults);
-                })
-                .build());
+        functions.add(function("get_upcoming_events",
+                "Get upcoming calendar events. Use when user asks about meetings or schedule.",
+                GetEventsParams.class));
 
         // Send email
-        functions.add(ChatFunction.builder()
-                .name("send_email")
-                .description("Send an email to a recipient")
-                .executor(EmailParams.class, params -> {
-                    EmailParams p = (EmailParams) params;
-                    return executeSendEmail(p.getTo(), p.getSubject(), p.getBody());
-                })
-                .build());
+        functions.add(function("send_email",
+                "Send an email to a recipient",
+                EmailParams.class));
 
         // Reply to email
-        functions.add(ChatFunction.builder()
-                .name("reply_to_email")
-                .description("Reply to an existing email thread")
-                .executor(ReplyParams.class, params -> {
-                    ReplyParams p = (ReplyParams) params;
-                    return executeReplyToEmail(p.getMessage_id(), p.getThread_id(), p.getBody());
-                })
-                .build());
+        functions.add(function("reply_to_email",
+                "Reply to an existing email thread",
+                ReplyParams.class));
 
         // Get calendar availability
-        functions.add(ChatFunction.builder()
-                .name("get_available_times")
-                .description("Get available time slots from the calendar")
-                .executor(AvailabilityParams.class, params -> {
-                    AvailabilityParams p = (AvailabilityParams) params;
-                    return executeGetAvailableTimes(p.getStart_date(), p.getEnd_date());
-                })
-                .build());
+        functions.add(function("get_available_times",
+                "Get available time slots from the calendar",
+                AvailabilityParams.class));
 
         // Create calendar event
-        functions.add(ChatFunction.builder()
-                .name("create_calendar_event")
-                .description("Create a new calendar event")
-                .executor(CalendarEventParams.class, params -> {
-                    CalendarEventParams p = (CalendarEventParams) params;
-                    return executeCreateCalendarEvent(p.getTitle(), p.getDescription(),
-                            p.getStart_time(), p.getEnd_time(), p.getAttendees());
-                })
-                .build());
+        functions.add(function("create_calendar_event",
+                "Create a new calendar event",
+                CalendarEventParams.class));
 
         // Search HubSpot contact
-        functions.add(ChatFunction.builder()
-                .name("search_hubspot_contact")
-                .description("Search for a contact in HubSpot by email")
-                .executor(SearchContactParams.class, params -> {
-                    SearchContactParams p = (SearchContactParams) params;
-                    return executeSearchHubspotContact(p.getEmail());
-                })
-                .build());
+        functions.add(function("search_hubspot_contact",
+                "Search for a contact in HubSpot by email",
+                SearchContactParams.class));
 
         // Create HubSpot contact
-        functions.add(ChatFunction.builder()
-                .name("create_hubspot_contact")
-                .description("Create a new contact in HubSpot")
-                .executor(CreateContactParams.class, params -> {
-                    CreateContactParams p = (CreateContactParams) params;
-                    return executeCreateHubspotContact(p);
-                })
-                .build());
+        functions.add(function("create_hubspot_contact",
+                "Create a new contact in HubSpot",
+                CreateContactParams.class));
 
         // Add note to HubSpot contact
-        functions.add(ChatFunction.builder()
-                .name("add_hubspot_note")
-                .description("Add a note to a HubSpot contact")
-                .executor(AddNoteParams.class, params -> {
-                    AddNoteParams p = (AddNoteParams) params;
-                    return executeAddHubspotNote(p.getContact_id(), p.getNote());
-                })
-                .build());
+        functions.add(function("add_hubspot_note",
+                "Add a note to a HubSpot contact",
+                AddNoteParams.class));
 
         // Create task
-        functions.add(ChatFunction.builder()
-                .name("create_task")
-                .description("Create a task that requires waiting for external input")
-                .executor(CreateTaskParams.class, params -> {
-                    CreateTaskParams p = (CreateTaskParams) params;
-                    return executeCreateTask(p.getType(), p.getDescription(), p.getContext());
-                })
-                .build());
+        functions.add(function("create_task",
+                "Create a task that requires waiting for external input",
+                CreateTaskParams.class));
 
         return functions;
     }
 
+    // The functions are declared only for their schema; calls are dispatched in executeFunctionByName
+    private static ChatFunction function(String name, String description, Class<?> parametersClass) {
+        ChatFunction function = new ChatFunction();
+        function.setName(name);
+        function.setDescription(description);
+        function.setParametersClass(parametersClass);
+        return function;
+    }
+
     // ========== Execution Methods ==========
 
-    private String executeSearchKnowledgeBase(String query) {
+    private String executeSearchKnowledgeBase(AgentRunContext context, String query, SearchFilters filters) {
         try {
-            String context = ragService.search(currentUser, query, 5);
-            return context.isEmpty() ? "No relevant information found in indexed data." : context;
+            String results = ragService.search(context.getUser(), query, 5, filters);
+            return results.isEmpty() ? "No relevant information found in indexed data." : results;
         } catch (Exception e) {
             return "Error searching: " + e.getMessage();
         }
     }
 
-    private String executeFetchRecentEmails(int maxResults) {
+    private String executeFetchRecentEmails(AgentRunContext context, int maxResults) {
         try {
             List<com.google.api.services.gmail.model.Message> messages =
-                    gmailService.listMessages(currentUser, maxResults);
+                    gmailService.listMessages(context.getUser(), maxResults);
 
             if (messages.isEmpty()) {
                 return "No emails found.";
@@ -340,9 +395,9 @@ public class AIAgentService {
         }
     }
 
-    private String executeGetUpcomingEvents(int maxResults) {
+    private String executeGetUpcomingEvents(AgentRunContext context, int maxResults) {
         try {
-            List<Event> events = calendarService.getUpcomingEvents(currentUser, maxResults);
+            List<Event> events = calendarService.getUpcomingEvents(context.getUser(), maxResults);
 
             if (events.isEmpty()) {
                 return "No upcoming events found.";
@@ -382,9 +437,9 @@ public class AIAgentService {
         }
     }
 
-    private String executeSendEmail(String to, String subject, String body) {
+    private String executeSendEmail(AgentRunContext context, String to, String subject, String body) {
         try {
-            gmailService.sendEmail(currentUser, to, subject, body);
+            gmailService.sendEmail(context.getUser(), to, subject, body);
             log.info("✉️ Email sent to: {}", to);
             return "Email sent successfully to " + to;
         } catch (Exception e) {
@@ -392,9 +447,9 @@ public class AIAgentService {
         }
     }
 
-    private String executeReplyToEmail(String messageId, String threadId, String body) {
+    private String executeReplyToEmail(AgentRunContext context, String messageId, String threadId, String body) {
         try {
-            gmailService.replyToEmail(currentUser, messageId, threadId, body);
+            gmailService.replyToEmail(context.getUser(), messageId, threadId, body);
             log.info("↩️ Reply sent to thread: {}", threadId);
             return "Reply sent successfully";
         } catch (Exception e) {
@@ -402,24 +457,24 @@ public class AIAgentService {
         }
     }
 
-    private String executeGetAvailableTimes(String startDate, String endDate) {
+    private String executeGetAvailableTimes(AgentRunContext context, String startDate, String endDate) {
         try {
             LocalDateTime start = LocalDateTime.parse(startDate);
             LocalDateTime end = LocalDateTime.parse(endDate);
-            List<String> availableSlots = calendarService.getAvailableSlots(currentUser, start, end);
+            List<String> availableSlots = calendarService.getAvailableSlots(context.getUser(), start, end);
             return "Available times:\n" + String.join("\n", availableSlots);
         } catch (Exception e) {
             return "Error getting availability: " + e.getMessage();
         }
     }
 
-    private String executeCreateCalendarEvent(String title, String description,
+    private String executeCreateCalendarEvent(AgentRunContext context, String title, String description,
                                               String startTime, String endTime,
                                               List<String> attendees) {
         try {
             LocalDateTime start = LocalDateTime.parse(startTime);
             LocalDateTime end = LocalDateTime.parse(endTime);
-            Event event = calendarService.createEvent(currentUser, title, description,
+            Event event = calendarService.createEvent(context.getUser(), title, description,
                     start, end, attendees);
             log.info("📅 Calendar event created: {}", title);
             return "Calendar event created: " + event.getHtmlLink();
@@ -428,9 +483,9 @@ public class AIAgentService {
         }
     }
 
-    private String executeSearchHubspotContact(String email) {
+    private String executeSearchHubspotContact(AgentRunContext context, String email) {
         try {
-            JsonNode contact = hubspotService.searchContactByEmail(currentUser, email);
+            JsonNode contact = hubspotService.searchContactByEmail(context.getUser(), email);
             if (contact == null) {
                 return "Contact not found for email: " + email;
             }
@@ -442,10 +497,10 @@ public class AIAgentService {
 
 // Add this method to AIAgentService.java
 
-    private String executeCreateHubspotContact(CreateContactParams params) {
+    private String executeCreateHubspotContact(AgentRunContext context, CreateContactParams params) {
         try {
             // ✅ FIX: Prevent creating contact for the user themselves
-            if (params.getEmail() != null && params.getEmail().equalsIgnoreCase(currentUser.getEmail())) {
+            if (params.getEmail() != null && params.getEmail().equalsIgnoreCase(context.getUser().getEmail())) {
                 return "Cannot create a HubSpot contact for yourself.";
             }
 
@@ -456,7 +511,7 @@ public class AIAgentService {
             if (params.getPhone() != null) properties.put("phone", params.getPhone());
             if (params.getCompany() != null) properties.put("company", params.getCompany());
 
-            JsonNode newContact = hubspotService.createContact(currentUser, properties);
+            JsonNode newContact = hubspotService.createContact(context.getUser(), properties);
             log.info("👤 HubSpot contact created: {}", params.getEmail());
 
             // ✅ After creating contact, send thank you email
@@ -466,9 +521,9 @@ public class AIAgentService {
             try {
                 String emailBody = String.format("Dear %s,\n\nThank you for being a valued client! We appreciate your business and look forward to working with you.\n\nBest regards,\n%s",
                         contactName.isEmpty() ? "Client" : contactName,
-                        currentUser.getName() != null ? currentUser.getName() : "Your Financial Advisor");
+                        context.getUser().getName() != null ? context.getUser().getName() : "Your Financial Advisor");
 
-                gmailService.sendEmail(currentUser, contactEmail, "Thank You for Being a Client", emailBody);
+                gmailService.sendEmail(context.getUser(), contactEmail, "Thank You for Being a Client", emailBody);
                 log.info("✉️ Thank you email sent to: {}", contactEmail);
             } catch (Exception emailError) {
                 log.error("Failed to send thank you email: ", emailError);
@@ -481,9 +536,9 @@ public class AIAgentService {
         }
     }
 
-    private String executeAddHubspotNote(String contactId, String note) {
+    private String executeAddHubspotNote(AgentRunContext context, String contactId, String note) {
         try {
-            hubspotService.addNoteToContact(currentUser, contactId, note);
+            hubspotService.addNoteToContact(context.getUser(), contactId, note);
             log.info("📝 Note added to contact: {}", contactId);
             return "Note added successfully";
         } catch (Exception e) {
@@ -491,13 +546,13 @@ public class AIAgentService {
         }
     }
 
-    private String executeCreateTask(String type, String description, String context) {
+    private String executeCreateTask(AgentRunContext context, String type, String description, String taskContext) {
         try {
             Task task = new Task();
-            task.setUser(currentUser);
+            task.setUser(context.getUser());
             task.setType(type);
             task.setDescription(description);
-            task.setContext(context);
+            task.setContext(taskContext);
             task.setStatus("pending");
             taskRepository.save(task);
             return "Task created with ID: " + task.getId();
@@ -510,7 +565,16 @@ public class AIAgentService {
 
     @Transactional
     public String processMessage(User user, String userMessage) {
-        this.currentUser = user;
+        return processMessage(user, userMessage, AgentStreamListener.NONE);
+    }
+
+    /**
+     * Same as {@link #processMessage(User, String)}, but streams answer tokens and tool progress to the listener
+     * as they happen. The complete response is still returned and saved at the end.
+     */
+    @Transactional
+    public String processMessage(User user, String userMessage, AgentStreamListener listener) {
+        AgentRunContext context = AgentRunContext.of(user, runTimeout, listener);
 
         try {
             // Save user message
@@ -531,45 +595,26 @@ public class AIAgentService {
                 log.info("💾 Ongoing instruction saved for user: {}", user.getEmail());
             }
 
-            // Get conversation history
-            List<Message> history = messageRepository.findTop20ByUserOrderByCreatedAtDesc(user);
-            Collections.reverse(history);
+            // Recent turns verbatim; older ones come back as the rolling summary and recalled messages
+            List<Message> history = conversationMemory.recentHistory(user);
+            String longTermContext = conversationMemory.longTermContext(user, userMessage);
 
             // Get ongoing instructions
             List<OngoingInstruction> instructions = instructionRepository.findByUserAndActiveTrue(user);
 
-            // Build enhanced system message
-            StringBuilder systemMessage = new StringBuilder();
-            systemMessage.append("You are an AI assistant for a financial advisor. You have access to their emails, calendar, and HubSpot CRM.\n\n");
-            systemMessage.append("IMPORTANT INSTRUCTIONS:\n");
-            systemMessage.append("- When user asks about recent/latest emails, use fetch_recent_emails function\n");
-            systemMessage.append("- When user asks about upcoming meetings/schedule, use get_upcoming_events function\n");
-            systemMessage.append("- When user asks about client information in notes, use search_knowledge_base first\n");
-            systemMessage.append("- When scheduling meetings, first get_available_times, then create_calendar_event\n");
-            systemMessage.append("- Always search_hubspot_contact before creating new contacts to avoid duplicates\n");
-            systemMessage.append("- When replying to emails, you need the message_id and thread_id from fetch_recent_emails\n\n");
-            systemMessage.append("Current date and time: ").append(LocalDateTime.now().format(DateTimeFormatter.ISO_DATE_TIME)).append("\n\n");
-
-            if (!instructions.isEmpty()) {
-                systemMessage.append("ONGOING INSTRUCTIONS:\n");
-                for (OngoingInstruction inst : instructions) {
-                    systemMessage.append("- ").append(inst.getInstruction()).append("\n");
-                }
-                systemMessage.append("\n");
-            }
-
-            systemMessage.append("Always be helpful, proactive, and professional.");
-
-            // Build chat messages
-            List<ChatMessage> chatMessages = new ArrayList<>();
-            chatMessages.add(new ChatMessage(ChatMessageRole.SYSTEM.value(), systemMessage.toString()));
+            // Static prefix, then the history, then what changes per request right before the new message
+            List<ObjectNode> chatMessages = new ArrayList<>();
+            chatMessages.add(OpenAIService.message(ChatMessageRole.SYSTEM.value(), SYSTEM_PROMPT));
 
             for (Message msg : history) {
-                chatMessages.add(new ChatMessage(msg.getRole(), msg.getContent()));
+                chatMessages.add(OpenAIService.message(msg.getRole(), msg.getContent()));
             }
 
+            chatMessages.add(Math.max(1, chatMessages.size() - 1),
+                    OpenAIService.message(ChatMessageRole.SYSTEM.value(), requestContext(instructions, longTermContext)));
+
             // Process with function calling
-            String response = processChatWithFunctions(chatMessages, 0);
+            String response = processChatWithFunctions(context, chatMessages, 0);
 
             // Save assistant response
             Message assistantMessage = new Message();
@@ -584,13 +629,13 @@ public class AIAgentService {
             log.error("Error processing message: ", e);
             return "I encountered an error processing your request: " + e.getMessage();
         } finally {
-            this.currentUser = null;
+            log.info("⏱️ Chat run for {}: {}", user.getEmail(), context.summary());
         }
     }
 
     @Transactional
     public void processIncomingEmail(User user, com.google.api.services.gmail.model.Message gmailMessage) {
-        this.currentUser = user;
+        AgentRunContext context = AgentRunContext.of(user, runTimeout, AgentStreamListener.NONE);
 
         try {
             ragService.indexEmail(user, gmailMessage);
@@ -621,24 +666,24 @@ public class AIAgentService {
             }
             prompt.append("\nBased on these instructions, should you take any action? If yes, execute the appropriate functions.");
 
-            List<ChatMessage> messages = new ArrayList<>();
-            messages.add(new ChatMessage(ChatMessageRole.SYSTEM.value(),
-                    "You are a proactive AI assistant. Analyze the email against ongoing instructions and take appropriate action using available functions."));
-            messages.add(new ChatMessage(ChatMessageRole.USER.value(), prompt.toString()));
+            List<ObjectNode> messages = new ArrayList<>();
+            messages.add(OpenAIService.message(ChatMessageRole.SYSTEM.value(), SYSTEM_PROMPT));
+            messages.add(OpenAIService.message(ChatMessageRole.SYSTEM.value(),
+                    "You are acting proactively. Analyze the email against ongoing instructions and take appropriate action using available functions.\n\n"
+                            + requestContext(List.of(), "")));
+            messages.add(OpenAIService.message(ChatMessageRole.USER.value(), prompt.toString()));
 
-            String result = processChatWithFunctions(messages, 0);
+            String result = processChatWithFunctions(context, messages, 0);
             log.info("🤖 Proactive action taken for email: {}", result);
 
         } catch (Exception e) {
             log.error("Error processing incoming email: ", e);
-        } finally {
-            this.currentUser = null;
         }
     }
 
     @Transactional
     public void processNewCalendarEvent(User user, Event event) {
-        this.currentUser = user;
+        AgentRunContext context = AgentRunContext.of(user, runTimeout, AgentStreamListener.NONE);
 
         try {
             List<OngoingInstruction> instructions = instructionRepository.findByUserAndActiveTrue(user);
@@ -669,50 +714,80 @@ public class AIAgentService {
             }
             prompt.append("\nShould you take any action based on these instructions? If yes, execute appropriate functions.");
 
-            List<ChatMessage> messages = new ArrayList<>();
-            messages.add(new ChatMessage(ChatMessageRole.SYSTEM.value(),
-                    "You are a proactive AI assistant. Analyze the calendar event and ongoing instructions, then take action."));
-            messages.add(new ChatMessage(ChatMessageRole.USER.value(), prompt.toString()));
+            List<ObjectNode> messages = new ArrayList<>();
+            messages.add(OpenAIService.message(ChatMessageRole.SYSTEM.value(), SYSTEM_PROMPT));
+            messages.add(OpenAIService.message(ChatMessageRole.SYSTEM.value(),
+                    "You are acting proactively. Analyze the calendar event and ongoing instructions, then take action.\n\n"
+                            + requestContext(List.of(), "")));
+            messages.add(OpenAIService.message(ChatMessageRole.USER.value(), prompt.toString()));
 
-            String result = processChatWithFunctions(messages, 0);
+            String result = processChatWithFunctions(context, messages, 0);
             log.info("🤖 Proactive action taken for calendar event: {}", result);
 
         } catch (Exception e) {
             log.error("Error processing calendar event: ", e);
-        } finally {
-            this.currentUser = null;
         }
     }
 
-    private String processChatWithFunctions(List<ChatMessage> messages, int depth) {
+    /**
+     * The per-request part of the system prompt. Instructions and chat memory are listed here only for chat;
+     * the proactive prompts already include the instructions next to the email or event.
+     */
+    private String requestContext(List<OngoingInstruction> instructions, String longTermContext) {
+        StringBuilder context = new StringBuilder();
+        context.append("Current date and time: ")
+                .append(LocalDateTime.now().format(DateTimeFormatter.ISO_DATE_TIME));
+
+        if (!instructions.isEmpty()) {
+            context.append("\n\nONGOING INSTRUCTIONS:\n");
+            for (OngoingInstruction inst : instructions) {
+                context.append("- ").append(inst.getInstruction()).append("\n");
+            }
+        }
+        if (!longTermContext.isEmpty()) {
+            context.append("\n\n").append(longTermContext);
+        }
+        return context.toString();
+    }
+
+    private String processChatWithFunctions(AgentRunContext context, List<ObjectNode> messages, int depth) {
         if (depth > 10) {
             return "I've reached the maximum number of actions for this request. Please try breaking it into smaller tasks.";
         }
+        if (context.isExpired()) {
+            return "This request took too long to complete. Please try again or break it into smaller tasks.";
+        }
 
         try {
-            ChatCompletionResult result = openAIService.chat(messages, getAvailableFunctions());
-            ChatCompletionChoice choice = result.getChoices().get(0);
-            ChatMessage responseMessage = choice.getMessage();
-
-            if (responseMessage.getFunctionCall() != null) {
-                ChatFunctionCall functionCall = responseMessage.getFunctionCall();
-                String functionName = functionCall.getName();
-                String argumentsJson = functionCall.getArguments().toString();
-
-                log.info("🔧 Function called: {} with args: {}", functionName, argumentsJson);
+            AgentStreamListener listener = context.getListener();
+            List<ObjectNode> prompt = promptAssembler.assemble(OpenAIService.CHAT_MODEL, messages, toolSchemaTokens);
+            context.recordModelCall(promptAssembler.countTokens(OpenAIService.CHAT_MODEL, prompt) + toolSchemaTokens);
+            ChatTurn turn = openAIService.chat(prompt, toolSchema, context.isStreaming() ? listener::onToken : null);
+
+            if (turn.hasToolCalls()) {
+                for (ChatTurn.ToolCall call : turn.toolCalls()) {
+                    log.info("🔧 Function called: {} with args: {}", call.name(), call.arguments());
+                    listener.onToolCall(call.name(), TOOL_PROGRESS.getOrDefault(call.name(), "Working…"));
+                }
 
-                String functionResult = executeFunctionByName(functionName, argumentsJson);
+                List<String> results = executeToolCalls(context, turn.toolCalls());
 
-                messages.add(responseMessage);
+                // The model has read the earlier results by now; only a short excerpt of each is sent again
+                promptAssembler.compactToolResults(OpenAIService.CHAT_MODEL, messages);
 
-                ChatMessage functionMessage = new ChatMessage(ChatMessageRole.FUNCTION.value(), functionResult);
-                functionMessage.setName(functionName);
-                messages.add(functionMessage);
+                // All results go back in one follow-up request, in the order the model asked for them
+                messages.add(turn.toMessage());
+                for (int i = 0; i < results.size(); i++) {
+                    ObjectNode toolMessage = OpenAIService.message("tool",
+                            promptAssembler.capToolResult(OpenAIService.CHAT_MODEL, results.get(i)));
+                    toolMessage.put("tool_call_id", turn.toolCalls().get(i).id());
+                    messages.add(toolMessage);
+                }
 
-                return processChatWithFunctions(messages, depth + 1);
+                return processChatWithFunctions(context, messages, depth + 1);
             } else {
-                return responseMessage.getContent() != null ?
-                        responseMessage.getContent() :
+                return turn.content() != null ?
+                        turn.content() :
                         "I've completed that action for you.";
             }
 
@@ -722,40 +797,87 @@ public class AIAgentService {
         }
     }
 
-    private String executeFunctionByName(String functionName, String argumentsJson) {
+    /**
+     * Runs the tool calls of one model turn and returns their results in call order.
+     * Consecutive read-only calls run concurrently; a write call waits for the reads before it and
+     * runs alone, so writes keep the order the model gave them.
+     */
+    private List<String> executeToolCalls(AgentRunContext context, List<ChatTurn.ToolCall> calls) throws Exception {
+        List<String> results = new ArrayList<>(calls.size());
+        List<Future<String>> pendingReads = new ArrayList<>();
+
+        for (ChatTurn.ToolCall call : calls) {
+            if (READ_ONLY_TOOLS.contains(call.name()) && calls.size() > 1) {
+                pendingReads.add(toolExecutor.submit(() -> executeToolCall(context, call)));
+                continue;
+            }
+            collect(pendingReads, results);
+            results.add(executeToolCall(context, call));
+        }
+        collect(pendingReads, results);
+
+        return results;
+    }
+
+    private void collect(List<Future<String>> pendingReads, List<String> results) throws Exception {
+        for (Future<String> read : pendingReads) {
+            results.add(read.get());
+        }
+        pendingReads.clear();
+    }
+
+    private String executeToolCall(AgentRunContext context, ChatTurn.ToolCall call) {
+        // Lookups are cached for the rest of the run; anything that writes drops that cache
+        if (READ_ONLY_TOOLS.contains(call.name())) {
+            return context.cachedTool(call.name(), call.arguments(),
+                    () -> executeFunctionByName(context, call.name(), call.arguments()));
+        }
+        return context.mutatingTool(() -> executeFunctionByName(context, call.name(), call.arguments()));
+    }
+
+    private String executeFunctionByName(AgentRunContext context, String functionName, String argumentsJson) {
         try {
             JsonNode arguments = objectMapper.readTree(argumentsJson);
 
             switch (functionName) {
                 case "search_knowledge_base":
-                    return executeSearchKnowledgeBase(arguments.get("query").asText());
+                    // Dates are whole days; the end date is inclusive
+                    SearchFilters filters = new SearchFilters(
+                            optionalText(arguments, "sender"),
+                            arguments.hasNonNull("start_date")
+                                    ? LocalDate.parse(arguments.get("start_date").asText()).atStartOfDay() : null,
+                            arguments.hasNonNull("end_date")
+                                    ? LocalDate.parse(arguments.get("end_date").asText()).plusDays(1).atStartOfDay() : null,
+                            optionalText(arguments, "contact_id"),
+                            optionalText(arguments, "source"));
+                    return executeSearchKnowledgeBase(context, arguments.get("query").asText(), filters);
 
                 case "fetch_recent_emails":
                     int maxEmails = arguments.has("max_results") ?
                             arguments.get("max_results").asInt() : 10;
-                    return executeFetchRecentEmails(maxEmails);
+                    return executeFetchRecentEmails(context, maxEmails);
 
                 case "get_upcoming_events":
                     int maxEvents = arguments.has("max_results") ?
                             arguments.get("max_results").asInt() : 10;
-                    return executeGetUpcomingEvents(maxEvents);
+                    return executeGetUpcomingEvents(context, maxEvents);
 
                 case "send_email":
-                    return executeSendEmail(
+                    return executeSendEmail(context,
                             arguments.get("to").asText(),
                             arguments.get("subject").asText(),
                             arguments.get("body").asText()
                     );
 
                 case "reply_to_email":
-                    return executeReplyToEmail(
+                    return executeReplyToEmail(context,
                             arguments.get("message_id").asText(),
                             arguments.get("thread_id").asText(),
                             arguments.get("body").asText()
                     );
 
                 case "get_available_times":
-                    return executeGetAvailableTimes(
+                    return executeGetAvailableTimes(context,
                             arguments.get("start_date").asText(),
                             arguments.get("end_date").asText()
                     );
@@ -765,7 +887,7 @@ public class AIAgentService {
                     if (arguments.has("attendees") && arguments.get("attendees").isArray()) {
                         arguments.get("attendees").forEach(node -> attendees.add(node.asText()));
                     }
-                    return executeCreateCalendarEvent(
+                    return executeCreateCalendarEvent(context,
                             arguments.get("title").asText(),
                             arguments.has("description") ? arguments.get("description").asText() : "",
                             arguments.get("start_time").asText(),
@@ -774,7 +896,7 @@ public class AIAgentService {
                     );
 
                 case "search_hubspot_contact":
-                    return executeSearchHubspotContact(arguments.get("email").asText());
+                    return executeSearchHubspotContact(context, arguments.get("email").asText());
 
                 case "create_hubspot_contact":
                     CreateContactParams contactParams = new CreateContactParams();
@@ -783,16 +905,16 @@ public class AIAgentService {
                     if (arguments.has("lastname")) contactParams.setLastname(arguments.get("lastname").asText());
                     if (arguments.has("phone")) contactParams.setPhone(arguments.get("phone").asText());
                     if (arguments.has("company")) contactParams.setCompany(arguments.get("company").asText());
-                    return executeCreateHubspotContact(contactParams);
+                    return executeCreateHubspotContact(context, contactParams);
 
                 case "add_hubspot_note":
-                    return executeAddHubspotNote(
+                    return executeAddHubspotNote(context,
                             arguments.get("contact_id").asText(),
                             arguments.get("note").asText()
                     );
 
                 case "create_task":
-                    return executeCreateTask(
+                    return executeCreateTask(context,
                             arguments.get("type").asText(),
                             arguments.get("description").asText(),
                             arguments.get("context").asText()
@@ -806,4 +928,10 @@ public class AIAgentService {
             return "Error executing function " + functionName + ": " + e.getMessage();
         }
     }
-}
\ No newline at end of file
+
+    private String optionalText(JsonNode arguments, String field) {
+        return arguments.hasNonNull(field) && !arguments.get(field).asText().isBlank()
+                ? arguments.get(field).asText()
+                : null;
+    }
+}
@@ -0,0 +1,106 @@
+package com.agent.financial_advisor.services;
+
+import com.agent.financial_advisor.model.User;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * State of one agent run: the user it acts for, when it must give up, results of read-only tools already
+ * called in this run, and counters for logging. Each run gets its own instance, so AIAgentService itself
+ * holds no per-request state and can serve many conversations at once.
+ */
+public final class AgentRunContext {
+
+    private final User user;
+    private final Instant deadline;
+    private final AgentStreamListener listener;
+    private final Instant startedAt = Instant.now();
+
+    // Read-only tool results keyed by function name and arguments; cleared after any tool that changes data
+    private final Map<String, String> toolCache = new ConcurrentHashMap<>();
+
+    private final AtomicInteger modelCalls = new AtomicInteger();
+    private final AtomicLong promptTokens = new AtomicLong();
+    private final AtomicInteger toolCalls = new AtomicInteger();
+    private final AtomicInteger toolCacheHits = new AtomicInteger();
+    private final AtomicLong toolMillis = new AtomicLong();
+
+    private AgentRunContext(User user, Duration timeout, AgentStreamListener listener) {
+        this.user = user;
+        this.deadline = startedAt.plus(timeout);
+        this.listener = listener;
+    }
+
+    public static AgentRunContext of(User user, Duration timeout, AgentStreamListener listener) {
+        return new AgentRunContext(user, timeout, listener);
+    }
+
+    public User getUser() {
+        return user;
+    }
+
+    public AgentStreamListener getListener() {
+        return listener;
+    }
+
+    public boolean isStreaming() {
+        return listener != AgentStreamListener.NONE;
+    }
+
+    public boolean isExpired() {
+        return Instant.now().isAfter(deadline);
+    }
+
+    public void recordModelCall(int promptTokens) {
+        modelCalls.incrementAndGet();
+        this.promptTokens.addAndGet(promptTokens);
+    }
+
+    /**
+     * Runs a read-only tool, reusing the earlier result when the same call was already made in this run.
+     */
+    public String cachedTool(String functionName, String argumentsJson, Supplier<String> call) {
+        String key = functionName + ":" + argumentsJson;
+        String cached = toolCache.get(key);
+        if (cached != null) {
+            toolCacheHits.incrementAndGet();
+            return cached;
+        }
+        String result = timedTool(call);
+        toolCache.put(key, result);
+        return result;
+    }
+
+    /**
+     * Runs a tool that changes data; earlier read results may be stale afterwards, so they are dropped.
+     */
+    public String mutatingTool(Supplier<String> call) {
+        try {
+            return timedTool(call);
+        } finally {
+            toolCache.clear();
+        }
+    }
+
+    private String timedTool(Supplier<String> call) {
+        long start = System.nanoTime();
+        try {
+            return call.get();
+        } finally {
+            toolCalls.incrementAndGet();
+            toolMillis.addAndGet(Duration.ofNanos(System.nanoTime() - start).toMillis());
+        }
+    }
+
+    public String summary() {
+        return String.format("%d model calls (%d prompt tokens), %d tool calls (%d cached, %d ms), %d ms total",
+                modelCalls.get(), promptTokens.get(), toolCalls.get(), toolCacheHits.get(), toolMillis.get(),
+                Duration.between(startedAt, Instant.now()).toMillis());
+    }
+}
@@ -0,0 +1,122 @@
+package com.agent.financial_advisor.services;
+
+import com.agent.financial_advisor.model.User;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+
+/**
+ * Runs agent conversations on a bounded pool, off the WebSocket and servlet threads.
+ * Runs for the same user execute one at a time in submission order; different users run in parallel.
+ */
+@Service
+@Slf4j
+public class AgentRunExecutor {
+
+    @Value("${app.agent.run.concurrency:8}")
+    private int concurrency;
+
+    @Value("${app.agent.run.queue-capacity:100}")
+    private int queueCapacity;
+
+    @Value("${app.agent.run.max-pending-per-user:5}")
+    private int maxPendingPerUser;
+
+    private ThreadPoolExecutor executor;
+
+    // Per-user FIFO of runs; the head is the run currently queued on or running in the pool
+    private final Map<Long, Deque<Runnable>> userRuns = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        this.executor = new ThreadPoolExecutor(concurrency, concurrency, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), new CustomizableThreadFactory("agent-run-"));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Queues an agent run for the user and returns its run ID, which is also passed to the task.
+     * Uses the caller's run ID when one is given, so a client can correlate replies with its own request.
+     *
+     * @throws RejectedExecutionException if the user already has too many runs pending or the pool is saturated
+     */
+    public String submit(User user, String requestedRunId, Consumer<String> task) {
+        String runId = requestedRunId != null && !requestedRunId.isBlank()
+                ? requestedRunId
+                : UUID.randomUUID().toString();
+        Runnable run = () -> task.accept(runId);
+
+        userRuns.compute(user.getId(), (userId, runs) -> {
+            if (runs == null) {
+                runs = new ArrayDeque<>();
+            }
+            if (runs.size() >= maxPendingPerUser) {
+                throw new RejectedExecutionException("Too many pending requests, please wait for the current ones to finish");
+            }
+            runs.add(run);
+            if (runs.size() == 1) {
+                // Started while holding the user's entry, so no run can be queued behind one the pool rejects.
+                // Throwing leaves the entry as it was, i.e. absent, as this is the user's only run.
+                try {
+                    executor.execute(() -> drain(userId, run));
+                } catch (RejectedExecutionException e) {
+                    throw new RejectedExecutionException("The assistant is busy, please try again shortly", e);
+                }
+            }
+            return runs;
+        });
+
+        log.debug("Queued agent run {} for user {}", runId, user.getEmail());
+        return runId;
+    }
+
+    private void drain(Long userId, Runnable run) {
+        while (run != null) {
+            Runnable next;
+            try {
+                run.run();
+            } catch (Throwable t) {
+                // Errors too: this thread has to advance the user's queue, or their later runs never start
+                log.error("❌ Agent run failed for user {}: ", userId, t);
+            } finally {
+                next = advance(userId);
+            }
+
+            if (next == null) {
+                return;
+            }
+            // Hand the next run back to the pool so other users get a turn; keep going here if it is full
+            try {
+                Runnable queued = next;
+                executor.execute(() -> drain(userId, queued));
+                return;
+            } catch (RejectedExecutionException e) {
+                run = next;
+            }
+        }
+    }
+
+    private Runnable advance(Long userId) {
+        Runnable[] next = new Runnable[1];
+        userRuns.computeIfPresent(userId, (id, runs) -> {
+            runs.poll();
+            next[0] = runs.peek();
+            return runs.isEmpty() ? null : runs;
+        });
+        return next[0];
+    }
+}
@@ -0,0 +1,17 @@
+package com.agent.financial_advisor.services;
+
+/**
+ * Receives progress from an agent run while it is still working: answer tokens as the model
+ * produces them, and a notice each time a tool is invoked.
+ */
+public interface AgentStreamListener {
+
+    AgentStreamListener NONE = new AgentStreamListener() {
+    };
+
+    default void onToken(String token) {
+    }
+
+    default void onToolCall(String functionName, String description) {
+    }
+}
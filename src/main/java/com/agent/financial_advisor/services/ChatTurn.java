@@ -0,0 +1,62 @@
+package com.agent.financial_advisor.services;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One assistant reply from the chat completions API: either answer text, or one or more tool calls to run
+ * before asking the model again.
+ */
+public record ChatTurn(String content, List<ToolCall> toolCalls) {
+
+    /**
+     * @param arguments the call arguments as the raw JSON string the model produced
+     */
+    public record ToolCall(String id, String name, String arguments) {
+    }
+
+    public boolean hasToolCalls() {
+        return !toolCalls.isEmpty();
+    }
+
+    static ChatTurn fromMessage(JsonNode message) {
+        List<ToolCall> toolCalls = new ArrayList<>();
+        for (JsonNode call : message.path("tool_calls")) {
+            JsonNode function = call.path("function");
+            toolCalls.add(new ToolCall(call.path("id").asText(), function.path("name").asText(),
+                    function.path("arguments").asText("{}")));
+        }
+        String content = message.hasNonNull("content") ? message.get("content").asText() : null;
+        return new ChatTurn(content, toolCalls);
+    }
+
+    /**
+     * The assistant message to put back into the conversation so the model can match tool results to its calls.
+     */
+    public ObjectNode toMessage() {
+        ObjectNode message = JsonNodeFactory.instance.objectNode();
+        message.put("role", "assistant");
+        if (content != null) {
+            message.put("content", content);
+        } else {
+            message.putNull("content");
+        }
+        if (hasToolCalls()) {
+            ArrayNode calls = message.putArray("tool_calls");
+            for (ToolCall call : toolCalls) {
+                ObjectNode node = calls.addObject();
+                node.put("id", call.id());
+                node.put("type", "function");
+                ObjectNode function = node.putObject("function");
+                function.put("name", call.name());
+                function.put("arguments", call.arguments());
+            }
+        }
+        return message;
+    }
+}
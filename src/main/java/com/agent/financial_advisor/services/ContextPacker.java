@@ -0,0 +1,232 @@
+package com.agent.financial_advisor.services;
+
+import com.agent.financial_advisor.model.ContactSearchHit;
+import com.agent.financial_advisor.model.EmailSearchHit;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Turns ranked search hits into the context text handed to the agent, within a token budget.
+ * Chunks of the same email are merged back into one entry, each entry keeps only its passages that best
+ * match the query, and entries that repeat what is already in the context are skipped.
+ */
+@Component
+public class ContextPacker {
+
+    private static final Pattern CHUNK_ID = Pattern.compile("^(.*)_chunk_(\\d+)$");
+    private static final Pattern CHUNK_SUBJECT = Pattern.compile(" \\[Part \\d+]$");
+    private static final Pattern PASSAGE_BREAK = Pattern.compile("\\n\\s*\\n|(?<=[.!?])\\s+");
+    private static final Pattern WORD = Pattern.compile("[\\p{L}\\p{N}]+");
+
+    private static final int MAX_PASSAGE_CHARS = 600;
+    // Entries whose word shingles overlap this much with an earlier entry add nothing new
+    private static final double DUPLICATE_SIMILARITY = 0.8;
+    // Stop once less than this is left; a smaller entry would be little more than its header
+    private static final int MIN_ENTRY_TOKENS = 40;
+
+    private final PromptAssembler promptAssembler;
+
+    @Value("${app.rag.context.passages-per-document:3}")
+    private int passagesPerDocument;
+
+    public ContextPacker(PromptAssembler promptAssembler) {
+        this.promptAssembler = promptAssembler;
+    }
+
+    /**
+     * Packs the best emails and contacts into at most maxTokens tokens. Hits are taken in rank order,
+     * alternating between the two lists so neither crowds out the other.
+     */
+    public String pack(String query, List<EmailSearchHit> emails, List<ContactSearchHit> contacts, int maxTokens) {
+        Set<String> queryTerms = terms(query);
+        List<String> emailEntries = mergeChunks(emails).stream()
+                .map(email -> String.format("From: %s (%s)\nSubject: %s\nDate: %s\nBody: %s\n\n",
+                        email.fromName(), email.fromEmail(), email.subject(), email.emailDate(),
+                        snippet(email.body(), queryTerms)))
+                .toList();
+        List<String> contactEntries = contacts.stream()
+                .map(contact -> String.format("Contact: %s %s\nEmail: %s\nNotes: %s\n\n",
+                        contact.firstName(), contact.lastName(), contact.email(),
+                        snippet(contact.notes(), queryTerms)))
+                .toList();
+
+        String emailHeader = "=== Relevant Emails ===\n";
+        String contactHeader = "\n=== Relevant Contacts ===\n";
+        int remaining = maxTokens - count(emailHeader) - count(contactHeader);
+
+        StringBuilder emailSection = new StringBuilder(emailHeader);
+        StringBuilder contactSection = new StringBuilder(contactHeader);
+        List<Set<String>> packedShingles = new ArrayList<>();
+
+        for (int i = 0; i < Math.max(emailEntries.size(), contactEntries.size()) && remaining >= MIN_ENTRY_TOKENS; i++) {
+            if (i < emailEntries.size()) {
+                remaining -= append(emailSection, emailEntries.get(i), remaining, packedShingles);
+            }
+            if (i < contactEntries.size() && remaining >= MIN_ENTRY_TOKENS) {
+                remaining -= append(contactSection, contactEntries.get(i), remaining, packedShingles);
+            }
+        }
+
+        return emailSection.append(contactSection).toString();
+    }
+
+    /**
+     * Appends the entry if it fits and is not a near-duplicate, returning the tokens it used.
+     */
+    private int append(StringBuilder section, String entry, int remaining, List<Set<String>> packedShingles) {
+        Set<String> shingles = shingles(entry);
+        for (Set<String> packed : packedShingles) {
+            if (jaccard(shingles, packed) >= DUPLICATE_SIMILARITY) {
+                return 0;
+            }
+        }
+
+        int tokens = count(entry);
+        if (tokens > remaining) {
+            return 0;
+        }
+        section.append(entry);
+        packedShingles.add(shingles);
+        return tokens;
+    }
+
+    /**
+     * Large emails indexed before EmailChunk existed were stored as several "_chunk_N" documents. Hits for chunks of the same email become one hit,
+     * at the rank of its best chunk, with the chunk bodies in their original order.
+     */
+    private List<EmailSearchHit> mergeChunks(List<EmailSearchHit> emails) {
+        Map<String, List<EmailSearchHit>> byMessage = new LinkedHashMap<>();
+        for (EmailSearchHit email : emails) {
+            Matcher chunk = CHUNK_ID.matcher(email.gmailMessageId() != null ? email.gmailMessageId() : "");
+            String messageId = chunk.matches() ? chunk.group(1) : String.valueOf(email.gmailMessageId());
+            byMessage.computeIfAbsent(messageId, id -> new ArrayList<>()).add(email);
+        }
+
+        List<EmailSearchHit> merged = new ArrayList<>();
+        for (List<EmailSearchHit> parts : byMessage.values()) {
+            if (parts.size() == 1) {
+                merged.add(parts.get(0));
+                continue;
+            }
+            parts.sort(Comparator.comparingInt(this::chunkIndex));
+            EmailSearchHit first = parts.get(0);
+            String body = parts.stream().map(EmailSearchHit::body).collect(Collectors.joining("\n\n"));
+            double distance = parts.stream().mapToDouble(EmailSearchHit::distance).min().orElse(first.distance());
+            merged.add(new EmailSearchHit(first.id(), first.gmailMessageId(), first.fromEmail(), first.fromName(),
+                    CHUNK_SUBJECT.matcher(first.subject() != null ? first.subject() : "").replaceAll(""),
+                    body, first.emailDate(), distance));
+        }
+        return merged;
+    }
+
+    private int chunkIndex(EmailSearchHit email) {
+        Matcher chunk = CHUNK_ID.matcher(email.gmailMessageId() != null ? email.gmailMessageId() : "");
+        return chunk.matches() ? Integer.parseInt(chunk.group(2)) : 0;
+    }
+
+    /**
+     * The passages sharing the most words with the query, in document order, joined with an ellipsis
+     * where text was left out. Short texts are returned whole.
+     */
+    String snippet(String text, Set<String> queryTerms) {
+        if (text == null || text.isBlank()) {
+            return "";
+        }
+
+        List<String> passages = new ArrayList<>();
+        for (String part : PASSAGE_BREAK.split(text.trim())) {
+            String passage = part.trim();
+            while (passage.length() > MAX_PASSAGE_CHARS) {
+                passages.add(passage.substring(0, MAX_PASSAGE_CHARS));
+                passage = passage.substring(MAX_PASSAGE_CHARS);
+            }
+            if (!passage.isEmpty()) {
+                passages.add(passage);
+            }
+        }
+        if (passages.size() <= passagesPerDocument) {
+            return String.join(" ", passages);
+        }
+
+        // Ties keep document order, so a text with no matching words still yields its opening passages
+        List<Integer> best = new ArrayList<>();
+        for (int i = 0; i < passages.size(); i++) {
+            best.add(i);
+        }
+        best.sort(Comparator.comparingInt((Integer i) -> -overlap(passages.get(i), queryTerms))
+                .thenComparingInt(i -> i));
+        List<Integer> chosen = best.subList(0, passagesPerDocument).stream().sorted().toList();
+
+        StringBuilder snippet = new StringBuilder();
+        int previous = -1;
+        for (int index : chosen) {
+            if (index != previous + 1) {
+                snippet.append(snippet.length() == 0 ? "… " : " … ");
+            } else if (snippet.length() > 0) {
+                snippet.append(" ");
+            }
+            snippet.append(passages.get(index));
+            previous = index;
+        }
+        if (previous < passages.size() - 1) {
+            snippet.append(" …");
+        }
+        return snippet.toString();
+    }
+
+    private int overlap(String passage, Set<String> queryTerms) {
+        int matches = 0;
+        for (String term : terms(passage)) {
+            if (queryTerms.contains(term)) {
+                matches++;
+            }
+        }
+        return matches;
+    }
+
+    private Set<String> terms(String text) {
+        Set<String> terms = new HashSet<>();
+        Matcher word = WORD.matcher(text.toLowerCase());
+        while (word.find()) {
+            if (word.group().length() > 2) {
+                terms.add(word.group());
+            }
+        }
+        return terms;
+    }
+
+    private Set<String> shingles(String text) {
+        List<String> words = new ArrayList<>();
+        Matcher word = WORD.matcher(text.toLowerCase());
+        while (word.find()) {
+            words.add(word.group());
+        }
+        Set<String> shingles = new HashSet<>();
+        for (int i = 0; i + 3 <= words.size(); i++) {
+            shingles.add(words.get(i) + " " + words.get(i + 1) + " " + words.get(i + 2));
+        }
+        return shingles;
+    }
+
+    private double jaccard(Set<String> a, Set<String> b) {
+        if (a.isEmpty() || b.isEmpty()) {
+            return 0;
+        }
+        int intersection = 0;
+        for (String shingle : a) {
+            if (b.contains(shingle)) {
+                intersection++;
+            }
+        }
+        return (double) intersection / (a.size() + b.size() - intersection);
+    }
+
+    private int count(String text) {
+        return promptAssembler.countTokens(OpenAIService.CHAT_MODEL, text);
+    }
+}
@@ -0,0 +1,194 @@
+package com.agent.financial_advisor.services;
+
+import com.agent.financial_advisor.model.ConversationSummary;
+import com.agent.financial_advisor.model.Message;
+import com.agent.financial_advisor.model.MessageSearchHit;
+import com.agent.financial_advisor.model.User;
+import com.agent.financial_advisor.repository.ConversationSummaryRepository;
+import com.agent.financial_advisor.repository.MessageRepository;
+import com.agent.financial_advisor.repository.UserRepository;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.pgvector.PGvector;
+import com.theokanning.openai.completion.chat.ChatMessageRole;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Long-term chat memory. Only the most recent messages are sent to the model verbatim; older ones are folded
+ * into a per-user rolling summary in the background and embedded, so they can still be recalled by meaning.
+ */
+@Service
+@Slf4j
+public class ConversationMemoryService {
+
+    private static final String SUMMARY_PROMPT = """
+            You maintain the long-term memory of a financial advisor's AI assistant.
+            Update the summary with the new conversation messages. Keep facts about clients, decisions,
+            commitments, preferences and open follow-ups; drop small talk. Answer with the updated summary only,
+            in at most 300 words.""";
+
+    private static final int RECALLED_MESSAGE_CHARS = 500;
+    // Keeps a single long message under the embedding model's input limit
+    private static final int MAX_EMBEDDED_CHARS = 24_000;
+
+    private final MessageRepository messageRepository;
+    private final ConversationSummaryRepository summaryRepository;
+    private final UserRepository userRepository;
+    private final OpenAIService openAIService;
+    private final EmbeddingModelRegistry embeddingModels;
+
+    @Value("${app.chat.memory.recent-messages:10}")
+    private int recentMessages;
+
+    @Value("${app.chat.memory.summary-batch:40}")
+    private int summaryBatch;
+
+    @Value("${app.chat.memory.recall-limit:3}")
+    private int recallLimit;
+
+    public ConversationMemoryService(MessageRepository messageRepository,
+                                     ConversationSummaryRepository summaryRepository,
+                                     UserRepository userRepository, OpenAIService openAIService,
+                                     EmbeddingModelRegistry embeddingModels) {
+        this.messageRepository = messageRepository;
+        this.summaryRepository = summaryRepository;
+        this.userRepository = userRepository;
+        this.openAIService = openAIService;
+        this.embeddingModels = embeddingModels;
+    }
+
+    /**
+     * The messages to send verbatim, oldest first.
+     */
+    public List<Message> recentHistory(User user) {
+        List<Message> history = new ArrayList<>(
+                messageRepository.findByUserOrderByCreatedAtDesc(user, PageRequest.of(0, recentMessages)));
+        Collections.reverse(history);
+        return history;
+    }
+
+    /**
+     * The summary of everything before the recent window together with the earlier messages most relevant
+     * to the new message, ready to put into the prompt. Empty when nothing has been summarized yet.
+     */
+    public String longTermContext(User user, String userMessage) {
+        Optional<ConversationSummary> summary = summaryRepository.findByUser(user);
+        if (summary.isEmpty()) {
+            return "";
+        }
+
+        StringBuilder context = new StringBuilder();
+        context.append("SUMMARY OF EARLIER CONVERSATION:\n").append(summary.get().getSummary());
+
+        try {
+            // Messages not yet re-embedded after a model switch are left out until the migration reaches them
+            EmbeddingModel model = embeddingModels.active();
+            List<MessageSearchHit> recalled = messageRepository.findSimilar(user.getId(), model,
+                    openAIService.createEmbedding(model, userMessage), summary.get().getSummarizedThroughId(), recallLimit);
+            if (!recalled.isEmpty()) {
+                context.append("\n\nEARLIER MESSAGES THAT MAY BE RELEVANT:\n");
+                for (MessageSearchHit hit : recalled) {
+                    String content = hit.content().length() > RECALLED_MESSAGE_CHARS
+                            ? hit.content().substring(0, RECALLED_MESSAGE_CHARS) + "..."
+                            : hit.content();
+                    context.append("- [").append(hit.createdAt()).append("] ")
+                            .append(hit.role()).append(": ").append(content).append("\n");
+                }
+            }
+        } catch (Exception e) {
+            // The summary alone is still useful if recall fails
+            log.warn("Chat memory recall failed for user {}: {}", user.getEmail(), e.getMessage());
+        }
+
+        return context.toString();
+    }
+
+    @Scheduled(fixedDelayString = "${app.chat.memory.summarize-interval:60000}")
+    public void summarizeConversations() {
+        for (User user : userRepository.findAll()) {
+            try {
+                summarize(user);
+            } catch (Exception e) {
+                log.error("❌ Error summarizing conversation for user {}: ", user.getEmail(), e);
+            }
+        }
+    }
+
+    /**
+     * Folds messages that have left the recent window into the summary and embeds them, a batch at a time.
+     */
+    void summarize(User user) {
+        ConversationSummary summary = summaryRepository.findByUser(user).orElseGet(() -> {
+            ConversationSummary fresh = new ConversationSummary();
+            fresh.setUser(user);
+            fresh.setSummary("");
+            fresh.setSummarizedThroughId(0L);
+            return fresh;
+        });
+
+        List<Message> unsummarized = messageRepository.findByUserAndIdGreaterThanOrderByIdAsc(
+                user, summary.getSummarizedThroughId());
+        if (unsummarized.size() <= recentMessages) {
+            return;
+        }
+        List<Message> batch = unsummarized.subList(0, Math.min(unsummarized.size() - recentMessages, summaryBatch));
+
+        StringBuilder transcript = new StringBuilder();
+        if (!summary.getSummary().isEmpty()) {
+            transcript.append("CURRENT SUMMARY:\n").append(summary.getSummary()).append("\n\n");
+        }
+        transcript.append("NEW MESSAGES:\n");
+        for (Message message : batch) {
+            transcript.append(message.getRole()).append(": ").append(message.getContent()).append("\n");
+        }
+
+        List<ObjectNode> prompt = List.of(
+                OpenAIService.message(ChatMessageRole.SYSTEM.value(), SUMMARY_PROMPT),
+                OpenAIService.message(ChatMessageRole.USER.value(), transcript.toString()));
+        String updated = openAIService.chat(prompt, null, null).content();
+        if (updated == null || updated.isBlank()) {
+            return;
+        }
+
+        embed(batch);
+        messageRepository.saveAll(batch);
+
+        summary.setSummary(updated.trim());
+        summary.setSummarizedThroughId(batch.get(batch.size() - 1).getId());
+        summaryRepository.save(summary);
+        log.info("🧠 Folded {} messages into the conversation summary for user {}", batch.size(), user.getEmail());
+    }
+
+    /**
+     * Re-embeds a batch of messages whose vectors are of another model than the active one.
+     * Returns how many were re-embedded; 0 means none are left.
+     */
+    public int reembedMessages(int batchSize) {
+        List<Message> messages = messageRepository.findByEmbeddingModelNot(
+                embeddingModels.active().key(), PageRequest.of(0, batchSize));
+        if (!messages.isEmpty()) {
+            embed(messages);
+            messageRepository.saveAll(messages);
+        }
+        return messages.size();
+    }
+
+    private void embed(List<Message> messages) {
+        EmbeddingModel model = embeddingModels.active();
+        List<float[]> embeddings = openAIService.createEmbeddings(model, messages.stream()
+                .map(m -> m.getContent().length() > MAX_EMBEDDED_CHARS ? m.getContent().substring(0, MAX_EMBEDDED_CHARS) : m.getContent())
+                .toList());
+        for (int i = 0; i < messages.size(); i++) {
+            messages.get(i).setEmbedding(new PGvector(embeddings.get(i)));
+            messages.get(i).setEmbeddingModel(model.key());
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.agent.financial_advisor.services;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Coalesces concurrent single-text embedding calls into one batched request.
+ * A batch is sent once the linger time expires or it reaches its input or token limit.
+ */
+@Slf4j
+public class EmbeddingBatcher {
+
+    private static final int CHARS_PER_TOKEN = 4;
+    private static final int DISPATCH_THREADS = 4;
+
+    private final Function<List<String>, List<float[]>> batchEmbedder;
+    private final int maxInputs;
+    private final int maxTokens;
+    private final long lingerMillis;
+
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService dispatcher;
+
+    private final Object lock = new Object();
+    private List<PendingEmbedding> pending = new ArrayList<>();
+    private int pendingTokens;
+    private ScheduledFuture<?> scheduledFlush;
+
+    public EmbeddingBatcher(Function<List<String>, List<float[]>> batchEmbedder,
+                            int maxInputs, int maxTokens, Duration linger) {
+        this.batchEmbedder = batchEmbedder;
+        this.maxInputs = maxInputs;
+        this.maxTokens = maxTokens;
+        this.lingerMillis = linger.toMillis();
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(daemonThreads("embedding-batch-timer"));
+        this.dispatcher = Executors.newFixedThreadPool(DISPATCH_THREADS, daemonThreads("embedding-batch-send"));
+    }
+
+    public static int estimateTokens(String text) {
+        return text == null ? 0 : text.length() / CHARS_PER_TOKEN + 1;
+    }
+
+    public float[] embed(String text) {
+        // Batching disabled, go straight to the API
+        if (lingerMillis <= 0) {
+            return batchEmbedder.apply(List.of(text)).get(0);
+        }
+
+        CompletableFuture<float[]> future = new CompletableFuture<>();
+        int tokens = estimateTokens(text);
+
+        synchronized (lock) {
+            // Don't let this text push the open batch over the token limit
+            if (!pending.isEmpty() && pendingTokens + tokens > maxTokens) {
+                dispatchLocked();
+            }
+
+            pending.add(new PendingEmbedding(text, future));
+            pendingTokens += tokens;
+
+            if (pending.size() >= maxInputs || pendingTokens >= maxTokens) {
+                dispatchLocked();
+            } else if (scheduledFlush == null) {
+                scheduledFlush = scheduler.schedule(this::flush, lingerMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for embedding", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IllegalStateException("Embedding request failed", e.getCause());
+        }
+    }
+
+    public void shutdown() {
+        synchronized (lock) {
+            if (!pending.isEmpty()) {
+                dispatchLocked();
+            }
+        }
+        scheduler.shutdown();
+        dispatcher.shutdown();
+    }
+
+    private void flush() {
+        synchronized (lock) {
+            scheduledFlush = null;
+            if (!pending.isEmpty()) {
+                dispatchLocked();
+            }
+        }
+    }
+
+    private void dispatchLocked() {
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+
+        List<PendingEmbedding> batch = pending;
+        pending = new ArrayList<>();
+        pendingTokens = 0;
+
+        dispatcher.execute(() -> send(batch));
+    }
+
+    private void send(List<PendingEmbedding> batch) {
+        try {
+            List<String> texts = batch.stream().map(PendingEmbedding::text).toList();
+            List<float[]> embeddings = batchEmbedder.apply(texts);
+
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).future().complete(embeddings.get(i));
+            }
+            log.debug("Embedded coalesced batch of {} texts", batch.size());
+        } catch (Exception e) {
+            batch.forEach(p -> p.future().completeExceptionally(e));
+        }
+    }
+
+    private static ThreadFactory daemonThreads(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private record PendingEmbedding(String text, CompletableFuture<float[]> future) {
+    }
+}
@@ -0,0 +1,122 @@
+package com.agent.financial_advisor.services;
+
+import com.agent.financial_advisor.model.EmbeddingCacheEntry;
+import com.agent.financial_advisor.repository.EmbeddingCacheRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.Normalizer;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Two-tier embedding cache keyed by model name and a hash of the normalized text.
+ * A bounded in-memory LRU sits in front of the Postgres embedding_cache table.
+ */
+@Service
+@Slf4j
+public class EmbeddingCache {
+
+    private final EmbeddingCacheRepository repository;
+    private final Map<String, float[]> memory;
+
+    private final AtomicLong memoryHits = new AtomicLong();
+    private final AtomicLong databaseHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public EmbeddingCache(EmbeddingCacheRepository repository,
+                          @Value("${app.embedding.cache.max-entries:5000}") int maxEntries) {
+        this.repository = repository;
+        this.memory = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, float[]> eldest) {
+                return size() > maxEntries;
+            }
+        });
+    }
+
+    public static String contentHash(String text) {
+        String normalized = Normalizer.normalize(text == null ? "" : text, Normalizer.Form.NFC)
+                .strip()
+                .replaceAll("\\s+", " ");
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256")
+                    .digest(normalized.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    public float[] get(String model, String contentHash) {
+        return getAll(model, List.of(contentHash)).get(contentHash);
+    }
+
+    /**
+     * Returns the cached embeddings for whichever hashes are known; misses are simply absent.
+     * The returned arrays are shared with the cache and must not be modified.
+     */
+    public Map<String, float[]> getAll(String model, Collection<String> contentHashes) {
+        Map<String, float[]> found = new HashMap<>();
+        Set<String> remaining = new LinkedHashSet<>();
+
+        for (String hash : contentHashes) {
+            float[] vector = memory.get(key(model, hash));
+            if (vector != null) {
+                found.put(hash, vector);
+                memoryHits.incrementAndGet();
+            } else {
+                remaining.add(hash);
+            }
+        }
+
+        if (!remaining.isEmpty()) {
+            try {
+                for (EmbeddingCacheEntry entry : repository.findByModelAndContentHashIn(model, remaining)) {
+                    float[] vector = entry.getEmbedding().toArray();
+                    memory.put(key(model, entry.getContentHash()), vector);
+                    found.put(entry.getContentHash(), vector);
+                    remaining.remove(entry.getContentHash());
+                    databaseHits.incrementAndGet();
+                }
+            } catch (Exception e) {
+                log.warn("Embedding cache lookup failed, falling back to the API: {}", e.getMessage());
+            }
+            misses.addAndGet(remaining.size());
+        }
+
+        return found;
+    }
+
+    public void put(String model, String contentHash, float[] embedding) {
+        putAll(model, Map.of(contentHash, embedding));
+    }
+
+    public void putAll(String model, Map<String, float[]> embeddings) {
+        embeddings.forEach((contentHash, embedding) -> memory.put(key(model, contentHash), embedding));
+        try {
+            repository.insertAllIfAbsent(model, embeddings);
+        } catch (Exception e) {
+            log.warn("Failed to persist {} cached embeddings: {}", embeddings.size(), e.getMessage());
+        }
+    }
+
+    public Stats getStats() {
+        return new Stats(memoryHits.get(), databaseHits.get(), misses.get(), memory.size());
+    }
+
+    private static String key(String model, String contentHash) {
+        return model + ":" + contentHash;
+    }
+
+    public record Stats(long memoryHits, long databaseHits, long misses, int memoryEntries) {
+        public double hitRate() {
+            long total = memoryHits + databaseHits + misses;
+            return total == 0 ? 0.0 : (double) (memoryHits + databaseHits) / total;
+        }
+    }
+}
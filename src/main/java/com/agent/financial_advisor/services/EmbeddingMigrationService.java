@@ -0,0 +1,61 @@
+package com.agent.financial_advisor.services;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Re-embeds stored vectors after the embedding model changes, a few batches at a time so the API rate limit
+ * and the database are not swamped. Searches keep working throughout: vectors of the previous model are
+ * searched with a query of that model until all of them have been replaced.
+ */
+@Service
+@Slf4j
+public class EmbeddingMigrationService {
+
+    private final RAGService ragService;
+    private final ConversationMemoryService conversationMemory;
+    private final VectorIndexService vectorIndexService;
+    private final EmbeddingModelRegistry embeddingModels;
+
+    // Rows re-embedded per table on each run
+    @Value("${app.embedding.migration.batch-size:200}")
+    private int batchSize;
+
+    public EmbeddingMigrationService(RAGService ragService, ConversationMemoryService conversationMemory,
+                                     VectorIndexService vectorIndexService, EmbeddingModelRegistry embeddingModels) {
+        this.ragService = ragService;
+        this.conversationMemory = conversationMemory;
+        this.vectorIndexService = vectorIndexService;
+        this.embeddingModels = embeddingModels;
+    }
+
+    @Scheduled(fixedDelayString = "${app.embedding.migration.interval:10000}",
+            initialDelayString = "${app.embedding.migration.interval:10000}")
+    public void migrate() {
+        if (!embeddingModels.isMigrating()) {
+            return;
+        }
+
+        int reembedded = 0;
+        try {
+            reembedded += ragService.reembedEmailChunks(batchSize);
+            reembedded += ragService.reembedHubspotContacts(batchSize);
+            reembedded += conversationMemory.reembedMessages(batchSize);
+        } catch (Exception e) {
+            log.error("❌ Error re-embedding vectors with {}: ", embeddingModels.active().key(), e);
+            return;
+        }
+
+        if (reembedded > 0) {
+            log.info("🔁 Re-embedded {} vectors with {}", reembedded, embeddingModels.active().key());
+        } else if (vectorIndexService.refreshModelsInUse()) {
+            // The previous model's partial indexes are no longer searched
+            log.info("✅ All vectors are embedded with {}", embeddingModels.active().key());
+            CompletableFuture.runAsync(vectorIndexService::ensureIndexes);
+        }
+    }
+}
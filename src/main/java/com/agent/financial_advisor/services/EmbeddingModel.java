@@ -0,0 +1,45 @@
+package com.agent.financial_advisor.services;
+
+import java.util.regex.Pattern;
+
+/**
+ * An embedding model at a given output size. Stored vectors are tagged with {@link #key()}, and only vectors
+ * with the same key as the query embedding are compared with it.
+ *
+ * @param name       model name sent to the embeddings API
+ * @param dimensions length of the vectors; below the model's native size for Matryoshka truncation
+ * @param version    bumped to re-embed the corpus when the text that is embedded changes
+ */
+public record EmbeddingModel(String name, int dimensions, int version) {
+
+    // Keys are inlined into SQL so partial indexes can match them, so keep them to a safe alphabet
+    private static final Pattern SAFE_KEY = Pattern.compile("[A-Za-z0-9._:-]+");
+
+    public EmbeddingModel {
+        if (!SAFE_KEY.matcher(name).matches()) {
+            throw new IllegalArgumentException("Unsupported embedding model name: " + name);
+        }
+        if (dimensions <= 0) {
+            throw new IllegalArgumentException("Embedding dimensions must be positive: " + dimensions);
+        }
+    }
+
+    public String key() {
+        return name + ":" + dimensions + ":v" + version;
+    }
+
+    public static EmbeddingModel fromKey(String key) {
+        String[] parts = key.split(":");
+        if (parts.length != 3 || !parts[2].startsWith("v")) {
+            throw new IllegalArgumentException("Not an embedding model key: " + key);
+        }
+        return new EmbeddingModel(parts[0], Integer.parseInt(parts[1]), Integer.parseInt(parts[2].substring(1)));
+    }
+
+    /**
+     * The key as a quoted SQL string literal.
+     */
+    public String sqlLiteral() {
+        return "'" + key() + "'";
+    }
+}
@@ -0,0 +1,117 @@
+package com.agent.financial_advisor.services;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * The embedding models the app knows, across all providers, and which one new vectors are written with.
+ * Vectors written with an earlier model stay searchable, with a query embedded by that same model, until
+ * EmbeddingMigrationService has re-embedded them.
+ */
+@Component
+@Slf4j
+public class EmbeddingModelRegistry {
+
+    // What every vector stored before models were recorded was embedded with
+    public static final EmbeddingModel LEGACY_MODEL = new EmbeddingModel("text-embedding-ada-002", 1536, 1);
+
+    // pgvector's limit for HNSW and IVFFlat indexes on the vector type
+    private static final int MAX_INDEXED_DIMENSIONS = 2000;
+
+    private final List<EmbeddingProvider> providers;
+
+    // Which provider's configured model new vectors are written with
+    @Value("${app.embedding.provider:" + OpenAIEmbeddingProvider.NAME + "}")
+    private String providerName;
+
+    @Value("${app.embedding.version:${openai.embedding.version:1}}")
+    private int version;
+
+    private EmbeddingModel active;
+
+    // Models other than the active one that stored vectors still use, kept up to date by VectorIndexService
+    private volatile List<String> previousModelKeys = List.of();
+
+    public EmbeddingModelRegistry(List<EmbeddingProvider> providers) {
+        this.providers = providers;
+    }
+
+    @PostConstruct
+    public void init() {
+        EmbeddingProvider provider = providers.stream()
+                .filter(p -> p.name().equals(providerName))
+                .findFirst()
+                .orElseThrow(() -> new IllegalStateException("Unknown embedding provider " + providerName +
+                        ", expected one of " + providers.stream().map(EmbeddingProvider::name).toList()));
+        String modelName = provider.configuredModel();
+        EmbeddingProvider.ModelSpec spec = provider.models().get(modelName);
+        if (spec == null) {
+            throw new IllegalStateException("Unknown " + providerName + " embedding model " + modelName +
+                    ", expected one of " + provider.models().keySet());
+        }
+        int dimensions = provider.configuredDimensions();
+        int size = dimensions > 0 ? dimensions : spec.nativeDimensions();
+        if (size > spec.nativeDimensions() || (size < spec.nativeDimensions() && !spec.truncatable())) {
+            throw new IllegalStateException("Embedding model " + modelName + " cannot produce " + size + " dimensions");
+        }
+        if (size > MAX_INDEXED_DIMENSIONS) {
+            throw new IllegalStateException("Vector indexes support at most " + MAX_INDEXED_DIMENSIONS +
+                    " dimensions, configure fewer dimensions for " + modelName);
+        }
+        active = new EmbeddingModel(modelName, size, version);
+        log.info("Embedding with {}", active.key());
+    }
+
+    /**
+     * The model new vectors are written with.
+     */
+    public EmbeddingModel active() {
+        return active;
+    }
+
+    /**
+     * The provider that runs the model, whichever provider is selected for new vectors.
+     */
+    public EmbeddingProvider provider(EmbeddingModel model) {
+        return providers.stream()
+                .filter(p -> p.models().containsKey(model.name()))
+                .findFirst()
+                .orElseThrow(() -> new IllegalStateException("No embedding provider runs " + model.name()));
+    }
+
+    /**
+     * Every model stored vectors are in, active first. A search embeds the query once per model.
+     */
+    public List<EmbeddingModel> searchModels() {
+        List<EmbeddingModel> models = new ArrayList<>();
+        models.add(active);
+        for (String key : previousModelKeys) {
+            models.add(EmbeddingModel.fromKey(key));
+        }
+        return models;
+    }
+
+    public boolean isMigrating() {
+        return !previousModelKeys.isEmpty();
+    }
+
+    /**
+     * Records which models stored vectors are in. Returns whether that changed.
+     */
+    boolean setModelKeysInUse(Collection<String> keys) {
+        List<String> previous = keys.stream()
+                .filter(key -> !key.equals(active.key()))
+                .distinct()
+                .sorted()
+                .toList();
+        boolean changed = !previous.equals(previousModelKeys);
+        previousModelKeys = previous;
+        return changed;
+    }
+}
@@ -0,0 +1,54 @@
+package com.agent.financial_advisor.services;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Computes embeddings with the models it runs. Each deployment selects the provider new vectors are written
+ * with through app.embedding.provider; vectors of another provider's model are still embedded, for queries and
+ * re-embedding, by the provider that runs that model.
+ */
+public interface EmbeddingProvider {
+
+    /**
+     * Native output size of a model and whether it can be truncated to fewer dimensions (Matryoshka).
+     */
+    record ModelSpec(int nativeDimensions, boolean truncatable) {
+    }
+
+    /**
+     * The value of app.embedding.provider that selects this provider.
+     */
+    String name();
+
+    /**
+     * The models this provider runs, by model name.
+     */
+    Map<String, ModelSpec> models();
+
+    /**
+     * The model new vectors are written with when this provider is selected.
+     */
+    String configuredModel();
+
+    /**
+     * The configured output size of {@link #configuredModel()}; 0 means the model's native size.
+     */
+    int configuredDimensions();
+
+    /**
+     * The most tokens of one input text this provider's models take; longer texts are cut off or rejected.
+     */
+    int maxInputTokens();
+
+    /**
+     * How many tokens the text counts for against {@link #maxInputTokens()}, with this provider's tokenizer.
+     */
+    int countTokens(String text);
+
+    /**
+     * Embeds the texts with one of this provider's models, returning the vectors in input order.
+     * Splits the texts into as many requests or inference batches as its backend needs.
+     */
+    List<float[]> embed(EmbeddingModel model, List<String> texts);
+}
@@ -13,6 +13,7 @@ import lombok.RequiredArgsConstructor;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
+import java.math.BigInteger;
 import java.security.GeneralSecurityException;
 import java.util.*;
 
@@ -58,6 +59,76 @@ public class GmailService {
         return messages;
     }
 
+    /**
+     * Lists inbox message IDs only, so callers can skip already indexed mail before fetching bodies
+     */
+    public List<String> listMessageIds(User user, int maxResults) throws Exception {
+        Gmail service = getGmailService(user);
+
+        ListMessagesResponse response = service.users().messages()
+                .list("me")
+                .setMaxResults((long) maxResults)
+                .setQ("in:inbox -from:me")
+                .execute();
+
+        List<String> messageIds = new ArrayList<>();
+        if (response.getMessages() != null) {
+            for (Message message : response.getMessages()) {
+                messageIds.add(message.getId());
+            }
+        }
+        return messageIds;
+    }
+
+    public BigInteger getCurrentHistoryId(User user) throws Exception {
+        Gmail service = getGmailService(user);
+        return service.users().getProfile("me").execute().getHistoryId();
+    }
+
+    /**
+     * Returns the inbox messages added since the given historyId.
+     * Gmail answers 404 when the historyId is too old, in which case the caller must resync.
+     */
+    public HistoryChanges listAddedMessagesSince(User user, BigInteger startHistoryId) throws Exception {
+        Gmail service = getGmailService(user);
+
+        Set<String> messageIds = new LinkedHashSet<>();
+        BigInteger latestHistoryId = startHistoryId;
+        String pageToken = null;
+
+        do {
+            ListHistoryResponse response = service.users().history()
+                    .list("me")
+                    .setStartHistoryId(startHistoryId)
+                    .setHistoryTypes(List.of("messageAdded"))
+                    .setLabelId("INBOX")
+                    .setPageToken(pageToken)
+                    .execute();
+
+            if (response.getHistory() != null) {
+                for (History history : response.getHistory()) {
+                    if (history.getMessagesAdded() == null) continue;
+                    for (HistoryMessageAdded added : history.getMessagesAdded()) {
+                        Message message = added.getMessage();
+                        // Same rule as listMessages: skip mail the user sent
+                        if (message.getLabelIds() != null && message.getLabelIds().contains("SENT")) continue;
+                        messageIds.add(message.getId());
+                    }
+                }
+            }
+
+            if (response.getHistoryId() != null) {
+                latestHistoryId = response.getHistoryId();
+            }
+            pageToken = response.getNextPageToken();
+        } while (pageToken != null);
+
+        return new HistoryChanges(new ArrayList<>(messageIds), latestHistoryId);
+    }
+
+    public record HistoryChanges(List<String> addedMessageIds, BigInteger historyId) {
+    }
+
     public Message getMessage(User user, String messageId) throws Exception {
         Gmail service = getGmailService(user);
         return service.users().messages()
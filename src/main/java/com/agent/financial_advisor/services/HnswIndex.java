@@ -0,0 +1,358 @@
+package com.agent.financial_advisor.services;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.SplittableRandom;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory HNSW graph (Malkov & Yashunin) over L2 distance. Vectors live in a direct buffer outside the Java
+ * heap, so a large index adds no GC scanning work; the graph links and payloads stay on the heap.
+ * Nodes are only appended; removing one hides it from results but keeps it as a stepping stone in the graph.
+ * Searches run concurrently with each other and exclusively with writes.
+ */
+final class HnswIndex<T> {
+
+    record Result<T>(T payload, double distance) {
+    }
+
+    private record Candidate(int node, float distance) {
+    }
+
+    private static final Comparator<Candidate> NEAREST_FIRST = Comparator.comparingDouble(Candidate::distance);
+
+    private final int dimensions;
+    private final int m;
+    private final int efConstruction;
+    private final double levelMultiplier;
+    private final SplittableRandom random = new SplittableRandom(42);
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private FloatBuffer vectors;
+    // Per node and level: [count, neighbour ids...]; level 0 holds 2m links, higher levels m
+    private final List<int[][]> links = new ArrayList<>();
+    private final List<T> payloads = new ArrayList<>();
+    private final BitSet removed = new BitSet();
+    private int size;
+    private int entryPoint = -1;
+    private int topLevel = -1;
+    private long linkBytes;
+
+    HnswIndex(int dimensions, int m, int efConstruction) {
+        this.dimensions = dimensions;
+        this.m = m;
+        this.efConstruction = efConstruction;
+        this.levelMultiplier = 1 / Math.log(m);
+        this.vectors = allocate(16);
+    }
+
+    /**
+     * Adds a vector and returns its node id.
+     */
+    int add(float[] vector, T payload) {
+        if (vector.length != dimensions) {
+            throw new IllegalArgumentException("Expected " + dimensions + " dimensions, got " + vector.length);
+        }
+        lock.writeLock().lock();
+        try {
+            int node = size;
+            if ((long) (node + 1) * dimensions > vectors.capacity()) {
+                FloatBuffer grown = allocate(Math.max(16, node * 2));
+                grown.put(vectors.duplicate().position(0).limit(node * dimensions));
+                vectors = grown;
+            }
+            vectors.put(node * dimensions, vector);
+
+            int level = (int) (-Math.log(1 - random.nextDouble()) * levelMultiplier);
+            int[][] nodeLinks = new int[level + 1][];
+            for (int l = 0; l <= level; l++) {
+                nodeLinks[l] = new int[1 + maxLinks(l)];
+                linkBytes += nodeLinks[l].length * (long) Integer.BYTES;
+            }
+            links.add(nodeLinks);
+            payloads.add(payload);
+            size++;
+
+            if (entryPoint < 0) {
+                entryPoint = node;
+                topLevel = level;
+                return node;
+            }
+
+            int current = entryPoint;
+            for (int l = topLevel; l > level; l--) {
+                current = greedyClosest(vector, current, l);
+            }
+            for (int l = Math.min(level, topLevel); l >= 0; l--) {
+                List<Candidate> nearest = searchLayer(vector, current, efConstruction, l);
+                for (Candidate neighbour : selectNeighbours(nearest, m)) {
+                    link(node, neighbour.node(), l);
+                    link(neighbour.node(), node, l);
+                }
+                current = nearest.get(0).node();
+            }
+            if (level > topLevel) {
+                topLevel = level;
+                entryPoint = node;
+            }
+            return node;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    void remove(int node) {
+        lock.writeLock().lock();
+        try {
+            removed.set(node);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * The k nearest live nodes, nearest first, with their Euclidean distance like pgvector's {@code <->}.
+     *
+     * @param ef candidate list size; larger finds the true neighbours more often and takes longer
+     */
+    List<Result<T>> search(float[] query, int k, int ef) {
+        lock.readLock().lock();
+        try {
+            List<Result<T>> results = new ArrayList<>();
+            if (entryPoint < 0) {
+                return results;
+            }
+            int current = entryPoint;
+            for (int l = topLevel; l > 0; l--) {
+                current = greedyClosest(query, current, l);
+            }
+            // Removed nodes still occupy candidate slots, so widen the search by how many there are
+            int width = Math.max(ef, k) + Math.min(removed.cardinality(), Math.max(ef, k));
+            for (Candidate candidate : searchLayer(query, current, width, 0)) {
+                if (!removed.get(candidate.node())) {
+                    results.add(new Result<>(payloads.get(candidate.node()), Math.sqrt(candidate.distance())));
+                    if (results.size() == k) {
+                        break;
+                    }
+                }
+            }
+            return results;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Approximate memory used: the vectors added plus the link arrays, excluding payloads. The vector buffer
+     * grows by doubling, so until {@link #trim()} it may reserve up to twice the vectors' size.
+     */
+    long bytes() {
+        lock.readLock().lock();
+        try {
+            return (long) size * dimensions * Float.BYTES + linkBytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Shrinks the vector buffer to the vectors it holds, releasing the room left by growing it.
+     */
+    void trim() {
+        lock.writeLock().lock();
+        try {
+            if (vectors.capacity() > size * dimensions) {
+                FloatBuffer trimmed = allocate(Math.max(1, size));
+                trimmed.put(vectors.duplicate().position(0).limit(size * dimensions));
+                vectors = trimmed;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private int greedyClosest(float[] query, int entry, int level) {
+        int best = entry;
+        float bestDistance = distance(query, entry);
+        boolean improved = true;
+        while (improved) {
+            improved = false;
+            int[] neighbours = links.get(best)[level];
+            for (int i = 1; i <= neighbours[0]; i++) {
+                float d = distance(query, neighbours[i]);
+                if (d < bestDistance) {
+                    bestDistance = d;
+                    best = neighbours[i];
+                    improved = true;
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Best-first search of one level from the entry node, returning up to ef nodes nearest first.
+     */
+    private List<Candidate> searchLayer(float[] query, int entry, int ef, int level) {
+        BitSet visited = new BitSet(size);
+        PriorityQueue<Candidate> toVisit = new PriorityQueue<>(NEAREST_FIRST);
+        PriorityQueue<Candidate> found = new PriorityQueue<>(NEAREST_FIRST.reversed());
+
+        Candidate start = new Candidate(entry, distance(query, entry));
+        visited.set(entry);
+        toVisit.add(start);
+        found.add(start);
+
+        while (!toVisit.isEmpty()) {
+            Candidate candidate = toVisit.poll();
+            if (found.size() >= ef && candidate.distance() > found.peek().distance()) {
+                break;
+            }
+            int[][] nodeLinks = links.get(candidate.node());
+            if (level >= nodeLinks.length) {
+                continue;
+            }
+            int[] neighbours = nodeLinks[level];
+            for (int i = 1; i <= neighbours[0]; i++) {
+                int neighbour = neighbours[i];
+                if (visited.get(neighbour)) {
+                    continue;
+                }
+                visited.set(neighbour);
+                float d = distance(query, neighbour);
+                if (found.size() < ef || d < found.peek().distance()) {
+                    Candidate next = new Candidate(neighbour, d);
+                    toVisit.add(next);
+                    found.add(next);
+                    if (found.size() > ef) {
+                        found.poll();
+                    }
+                }
+            }
+        }
+
+        List<Candidate> nearest = new ArrayList<>(found);
+        nearest.sort(NEAREST_FIRST);
+        return nearest;
+    }
+
+    /**
+     * Adds a directed link. A full neighbour list is re-selected from its entries plus the new one.
+     */
+    private void link(int from, int to, int level) {
+        int[] neighbours = links.get(from)[level];
+        int count = neighbours[0];
+        for (int i = 1; i <= count; i++) {
+            if (neighbours[i] == to) {
+                return;
+            }
+        }
+        if (count < neighbours.length - 1) {
+            neighbours[count + 1] = to;
+            neighbours[0] = count + 1;
+            return;
+        }
+
+        List<Candidate> candidates = new ArrayList<>(count + 1);
+        candidates.add(new Candidate(to, distance(from, to)));
+        for (int i = 1; i <= count; i++) {
+            candidates.add(new Candidate(neighbours[i], distance(from, neighbours[i])));
+        }
+        candidates.sort(NEAREST_FIRST);
+        List<Candidate> kept = selectNeighbours(candidates, neighbours.length - 1);
+        neighbours[0] = kept.size();
+        for (int i = 0; i < kept.size(); i++) {
+            neighbours[i + 1] = kept.get(i).node();
+        }
+    }
+
+    /**
+     * The paper's neighbour selection heuristic: going from nearest to farthest, a candidate is kept only if it
+     * is closer to the base than to every candidate kept so far. Links then point in diverse directions instead
+     * of all into the same cluster, which keeps clustered data navigable.
+     *
+     * @param candidates sorted nearest first, with distances to the base node or vector
+     */
+    private List<Candidate> selectNeighbours(List<Candidate> candidates, int max) {
+        List<Candidate> selected = new ArrayList<>(max);
+        for (Candidate candidate : candidates) {
+            if (selected.size() == max) {
+                break;
+            }
+            boolean diverse = true;
+            for (Candidate kept : selected) {
+                if (distance(candidate.node(), kept.node()) < candidate.distance()) {
+                    diverse = false;
+                    break;
+                }
+            }
+            if (diverse) {
+                selected.add(candidate);
+            }
+        }
+        return selected;
+    }
+
+    private int maxLinks(int level) {
+        return level == 0 ? 2 * m : m;
+    }
+
+    /**
+     * Squared L2 distance; the square root is only taken for reported results. Four independent sums let the
+     * CPU overlap the additions instead of waiting on one running total.
+     */
+    private float distance(float[] query, int node) {
+        int base = node * dimensions;
+        float s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int i = 0;
+        for (; i + 3 < dimensions; i += 4) {
+            float d0 = query[i] - vectors.get(base + i);
+            float d1 = query[i + 1] - vectors.get(base + i + 1);
+            float d2 = query[i + 2] - vectors.get(base + i + 2);
+            float d3 = query[i + 3] - vectors.get(base + i + 3);
+            s0 += d0 * d0;
+            s1 += d1 * d1;
+            s2 += d2 * d2;
+            s3 += d3 * d3;
+        }
+        for (; i < dimensions; i++) {
+            float d = query[i] - vectors.get(base + i);
+            s0 += d * d;
+        }
+        return s0 + s1 + s2 + s3;
+    }
+
+    private float distance(int a, int b) {
+        int baseA = a * dimensions;
+        int baseB = b * dimensions;
+        float s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int i = 0;
+        for (; i + 3 < dimensions; i += 4) {
+            float d0 = vectors.get(baseA + i) - vectors.get(baseB + i);
+            float d1 = vectors.get(baseA + i + 1) - vectors.get(baseB + i + 1);
+            float d2 = vectors.get(baseA + i + 2) - vectors.get(baseB + i + 2);
+            float d3 = vectors.get(baseA + i + 3) - vectors.get(baseB + i + 3);
+            s0 += d0 * d0;
+            s1 += d1 * d1;
+            s2 += d2 * d2;
+            s3 += d3 * d3;
+        }
+        for (; i < dimensions; i++) {
+            float d = vectors.get(baseA + i) - vectors.get(baseB + i);
+            s0 += d * d;
+        }
+        return s0 + s1 + s2 + s3;
+    }
+
+    private FloatBuffer allocate(int nodes) {
+        return ByteBuffer.allocateDirect(nodes * dimensions * Float.BYTES)
+                .order(ByteOrder.nativeOrder())
+                .asFloatBuffer();
+    }
+}
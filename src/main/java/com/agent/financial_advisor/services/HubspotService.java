@@ -7,23 +7,35 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import jakarta.annotation.PreDestroy;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
 import okhttp3.*;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
 import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.stream.StreamSupport;
 
 @Service
+@Slf4j
 public class HubspotService {
 
     private final OkHttpClient httpClient = new OkHttpClient();
     private final ObjectMapper objectMapper = new ObjectMapper();
     private final UserRepository userRepository;
 
+    // Resolves notes for one page of contacts while the next page is being fetched
+    private final ExecutorService notesExecutor =
+            Executors.newFixedThreadPool(4, new CustomizableThreadFactory("hubspot-notes-"));
+
     @Value("${app.hubspot.client-id}")
     private String clientId;
 
@@ -32,20 +44,30 @@ public class HubspotService {
 
     private static final String HUBSPOT_API_BASE = "https://api.hubapi.com";
     private static final String TOKEN_REFRESH_URL = "https://api.hubapi.com/oauth/v1/token";
+    private static final int BATCH_READ_LIMIT = 100;
+    private static final int SEARCH_RESULT_LIMIT = 10000;
+    private static final List<String> CONTACT_PROPERTIES = List.of(
+            "firstname", "lastname", "email", "phone", "company", "notes", "createdate", "lastmodifieddate");
 
     public HubspotService(UserRepository userRepository) {
         this.userRepository = userRepository;
     }
 
+    @PreDestroy
+    public void shutdown() {
+        notesExecutor.shutdownNow();
+    }
+
     public List<JsonNode> getAllContacts(User user) throws IOException {
         List<JsonNode> allContacts = new ArrayList<>();
+        List<CompletableFuture<Void>> pendingNotes = new ArrayList<>();
         String after = null;
         boolean tokenRefreshed = false;
 
         do {
             String url = HUBSPOT_API_BASE + "/crm/v3/objects/contacts?limit=100" +
                     (after != null ? "&after=" + after : "") +
-                    "&properties=firstname,lastname,email,phone,company,notes,createdate,lastmodifieddate";
+                    "&properties=" + String.join(",", CONTACT_PROPERTIES);
 
             Request request = new Request.Builder()
                     .url(url)
@@ -71,21 +93,146 @@ public class HubspotService {
                             throw new IOException("Failed after token refresh. Code: " + retryResponse.code() +
                                     ", Body: " + errorBody);
                         }
-                        after = processResponse(retryResponse, allContacts, user);
+                        after = processResponse(retryResponse, allContacts, pendingNotes, user);
                     }
                 } else if (!response.isSuccessful()) {
                     String errorBody = response.body() != null ? response.body().string() : "No error body";
                     throw new IOException("HubSpot API error. Code: " + response.code() + ", Body: " + errorBody);
                 } else {
-                    after = processResponse(response, allContacts, user);
+                    after = processResponse(response, allContacts, pendingNotes, user);
                     tokenRefreshed = false; // Reset for next iteration
                 }
             }
         } while (after != null);
 
+        awaitNotes(pendingNotes);
         return allContacts;
     }
 
+    /**
+     * Returns contacts whose lastmodifieddate is at or after the given watermark, oldest first,
+     * using the CRM search API instead of paging through the whole portal.
+     */
+    public List<JsonNode> getContactsModifiedSince(User user, Instant since) throws IOException {
+        Map<String, JsonNode> contacts = new LinkedHashMap<>();
+        List<CompletableFuture<Void>> pendingNotes = new ArrayList<>();
+        Instant from = since;
+        String after = null;
+
+        while (true) {
+            ObjectNode search = buildContactSearch("lastmodifieddate", after);
+            addFilter(search, "lastmodifieddate", "GTE", String.valueOf(from.toEpochMilli()));
+            JsonNode root = postJson(user, HUBSPOT_API_BASE + "/crm/v3/objects/contacts/search", search);
+            JsonNode results = collectPage(user, root, contacts, pendingNotes);
+
+            after = nextPageCursor(root);
+            if (after == null) {
+                break;
+            }
+
+            // Search results can't be paged past 10,000, so continue from the last timestamp seen
+            if (Integer.parseInt(after) >= SEARCH_RESULT_LIMIT && results != null && results.size() > 0) {
+                JsonNode last = results.get(results.size() - 1);
+                Instant lastModified = Instant.parse(last.get("properties").get("lastmodifieddate").asText());
+                if (lastModified.equals(from)) {
+                    // The whole window shares one timestamp (a bulk import or workflow), so restarting from it
+                    // would return the same window forever. Page through that timestamp by id, then move past it.
+                    collectContactsModifiedAt(user, from, contacts, pendingNotes);
+                    from = from.plusMillis(1);
+                } else {
+                    from = lastModified;
+                }
+                after = null;
+            }
+        }
+
+        awaitNotes(pendingNotes);
+        return new ArrayList<>(contacts.values());
+    }
+
+    /**
+     * Collects every contact modified exactly at the given instant, by ascending id, restarting past the last
+     * id seen whenever the 10,000 result limit is reached.
+     */
+    private void collectContactsModifiedAt(User user, Instant at, Map<String, JsonNode> contacts,
+                                           List<CompletableFuture<Void>> pendingNotes) throws IOException {
+        String afterId = "0";
+        String after = null;
+        while (true) {
+            ObjectNode search = buildContactSearch("hs_object_id", after);
+            addFilter(search, "lastmodifieddate", "EQ", String.valueOf(at.toEpochMilli()));
+            addFilter(search, "hs_object_id", "GT", afterId);
+            JsonNode root = postJson(user, HUBSPOT_API_BASE + "/crm/v3/objects/contacts/search", search);
+            JsonNode results = collectPage(user, root, contacts, pendingNotes);
+
+            after = nextPageCursor(root);
+            if (after == null) {
+                return;
+            }
+            if (Integer.parseInt(after) >= SEARCH_RESULT_LIMIT && results != null && results.size() > 0) {
+                afterId = results.get(results.size() - 1).get("id").asText();
+                after = null;
+            }
+        }
+    }
+
+    /**
+     * Adds the page's contacts that weren't seen yet and starts loading their notes. Returns the raw results.
+     */
+    private JsonNode collectPage(User user, JsonNode root, Map<String, JsonNode> contacts,
+                                 List<CompletableFuture<Void>> pendingNotes) {
+        List<JsonNode> page = new ArrayList<>();
+        JsonNode results = root.get("results");
+        if (results != null) {
+            for (JsonNode contact : results) {
+                // Restarting from a timestamp can return the boundary contacts again
+                if (contacts.putIfAbsent(contact.get("id").asText(), contact) == null) {
+                    page.add(contact);
+                }
+            }
+        }
+        if (!page.isEmpty()) {
+            pendingNotes.add(CompletableFuture.runAsync(() -> attachNotes(user, page), notesExecutor));
+        }
+        return results;
+    }
+
+    private void addFilter(ObjectNode search, String property, String operator, String value) {
+        ObjectNode filter = ((ArrayNode) search.get("filterGroups").get(0).get("filters")).addObject();
+        filter.put("propertyName", property);
+        filter.put("operator", operator);
+        filter.put("value", value);
+    }
+
+    /**
+     * A contact search sorted ascending on one property, with filters added by {@link #addFilter}.
+     */
+    private ObjectNode buildContactSearch(String sortProperty, String after) {
+        ObjectNode search = objectMapper.createObjectNode();
+        search.putArray("filterGroups").addObject().putArray("filters");
+
+        ObjectNode sort = search.putArray("sorts").addObject();
+        sort.put("propertyName", sortProperty);
+        sort.put("direction", "ASCENDING");
+
+        ArrayNode properties = search.putArray("properties");
+        CONTACT_PROPERTIES.forEach(properties::add);
+
+        search.put("limit", 100);
+        if (after != null) {
+            search.put("after", after);
+        }
+        return search;
+    }
+
+    private void awaitNotes(List<CompletableFuture<Void>> pendingNotes) throws IOException {
+        try {
+            CompletableFuture.allOf(pendingNotes.toArray(new CompletableFuture[0])).join();
+        } catch (CompletionException e) {
+            throw new IOException("Failed to load HubSpot notes", e.getCause());
+        }
+    }
+
     public JsonNode getContact(User user, String contactId) throws IOException {
         String url = HUBSPOT_API_BASE + "/crm/v3/objects/contacts/" + contactId;
         boolean tokenRefreshed = false;
@@ -397,24 +544,27 @@ public class HubspotService {
         }
     }
 
-    private String processResponse(Response response, List<JsonNode> allContacts, User user) throws IOException {
+    private String processResponse(Response response, List<JsonNode> allContacts,
+                                   List<CompletableFuture<Void>> pendingNotes, User user) throws IOException {
         String responseBody = response.body().string();
         JsonNode root = objectMapper.readTree(responseBody);
 
         JsonNode results = root.get("results");
         if (results != null && results.isArray()) {
-            for (JsonNode contact : results) {
-                ((ObjectNode) contact).set("notes", objectMapper.valueToTree(getNotesForContact(user, contact.get("id").asText())));
-                allContacts.add(contact);
-            }
+            List<JsonNode> page = new ArrayList<>();
+            results.forEach(page::add);
+            allContacts.addAll(page);
+            pendingNotes.add(CompletableFuture.runAsync(() -> attachNotes(user, page), notesExecutor));
         }
 
-        // Extract pagination cursor
+        return nextPageCursor(root);
+    }
+
+    private String nextPageCursor(JsonNode root) {
         JsonNode paging = root.get("paging");
         if (paging != null && paging.has("next") && paging.get("next").has("after")) {
             return paging.get("next").get("after").asText();
         }
-
         return null;
     }
 
@@ -460,38 +610,116 @@ public class HubspotService {
             return user;
         }
     }
-    private List<JsonNode> getNotesForContact(User user, String contactId) throws IOException {
-        List<JsonNode> notes = new ArrayList<>();
+    /**
+     * Loads the notes for a page of contacts with one batch association lookup
+     * and one batch read per 100 notes, instead of calls per contact and per note.
+     */
+    private void attachNotes(User user, List<JsonNode> contacts) {
+        Map<String, List<String>> noteIdsByContact = new HashMap<>();
+        Map<String, JsonNode> notesById = new HashMap<>();
+
+        try {
+            List<String> contactIds = contacts.stream().map(c -> c.get("id").asText()).toList();
+            noteIdsByContact = getNoteIdsForContacts(user, contactIds);
+
+            List<String> noteIds = noteIdsByContact.values().stream()
+                    .flatMap(List::stream)
+                    .distinct()
+                    .toList();
+            for (int i = 0; i < noteIds.size(); i += BATCH_READ_LIMIT) {
+                notesById.putAll(getNotesByIds(user, noteIds.subList(i, Math.min(i + BATCH_READ_LIMIT, noteIds.size()))));
+            }
+        } catch (IOException e) {
+            log.warn("Failed to load HubSpot notes for {} contacts: {}", contacts.size(), e.getMessage());
+        }
+
+        for (JsonNode contact : contacts) {
+            ArrayNode notes = objectMapper.createArrayNode();
+            for (String noteId : noteIdsByContact.getOrDefault(contact.get("id").asText(), List.of())) {
+                JsonNode note = notesById.get(noteId);
+                if (note != null) {
+                    notes.add(note);
+                }
+            }
+            ((ObjectNode) contact).set("notes", notes);
+        }
+    }
 
-        String assocUrl = HUBSPOT_API_BASE + "/crm/v4/objects/contacts/" + contactId + "/associations/notes";
-        Request assocRequest = new Request.Builder()
-                .url(assocUrl)
-                .header("Authorization", "Bearer " + user.getHubspotAccessToken())
-                .build();
+    private Map<String, List<String>> getNoteIdsForContacts(User user, List<String> contactIds) throws IOException {
+        ObjectNode payload = objectMapper.createObjectNode();
+        ArrayNode inputs = payload.putArray("inputs");
+        contactIds.forEach(id -> inputs.addObject().put("id", id));
+
+        JsonNode root = postJson(user, HUBSPOT_API_BASE + "/crm/v4/associations/contacts/notes/batch/read", payload);
+
+        Map<String, List<String>> noteIdsByContact = new HashMap<>();
+        JsonNode results = root.get("results");
+        if (results != null) {
+            for (JsonNode result : results) {
+                List<String> noteIds = new ArrayList<>();
+                for (JsonNode to : result.get("to")) {
+                    noteIds.add(to.get("toObjectId").asText());
+                }
+                noteIdsByContact.put(result.get("from").get("id").asText(), noteIds);
+            }
+        }
+        return noteIdsByContact;
+    }
+
+    private Map<String, JsonNode> getNotesByIds(User user, List<String> noteIds) throws IOException {
+        ObjectNode payload = objectMapper.createObjectNode();
+        payload.putArray("properties").add("hs_note_body").add("hs_timestamp");
+        ArrayNode inputs = payload.putArray("inputs");
+        noteIds.forEach(id -> inputs.addObject().put("id", id));
 
-        try (Response assocResponse = httpClient.newCall(assocRequest).execute()) {
-            if (!assocResponse.isSuccessful()) return notes;
+        JsonNode root = postJson(user, HUBSPOT_API_BASE + "/crm/v3/objects/notes/batch/read", payload);
 
-            JsonNode assocRoot = objectMapper.readTree(assocResponse.body().string());
-            for (JsonNode assoc : assocRoot.get("results")) {
-                String noteId = assoc.get("toObjectId").asText();
-                notes.add(getNoteById(user, noteId));
+        Map<String, JsonNode> notesById = new HashMap<>();
+        JsonNode results = root.get("results");
+        if (results != null) {
+            for (JsonNode note : results) {
+                notesById.put(note.get("id").asText(), note.get("properties"));
             }
         }
+        return notesById;
+    }
+
+    /**
+     * POSTs a JSON payload, refreshing the access token and retrying once on 401
+     */
+    private JsonNode postJson(User user, String url, JsonNode payload) throws IOException {
+        RequestBody body = RequestBody.create(
+                objectMapper.writeValueAsString(payload),
+                MediaType.parse("application/json")
+        );
+
+        try (Response response = httpClient.newCall(jsonPost(user, url, body)).execute()) {
+            if (response.code() == 401) {
+                log.info("HubSpot access token expired for user {}, refreshing", user.getEmail());
+                user = refreshAccessToken(user);
 
-        return notes;
+                try (Response retryResponse = httpClient.newCall(jsonPost(user, url, body)).execute()) {
+                    return readSuccessfulBody(retryResponse);
+                }
+            }
+            return readSuccessfulBody(response);
+        }
     }
 
-    private JsonNode getNoteById(User user, String noteId) throws IOException {
-        String noteUrl = HUBSPOT_API_BASE + "/crm/v3/objects/notes/" + noteId + "?properties=hs_note_body,hs_timestamp";
-        Request noteRequest = new Request.Builder()
-                .url(noteUrl)
+    private Request jsonPost(User user, String url, RequestBody body) {
+        return new Request.Builder()
+                .url(url)
+                .post(body)
                 .header("Authorization", "Bearer " + user.getHubspotAccessToken())
+                .header("Content-Type", "application/json")
                 .build();
+    }
 
-        try (Response noteResponse = httpClient.newCall(noteRequest).execute()) {
-            if (!noteResponse.isSuccessful()) return null;
-            return objectMapper.readTree(noteResponse.body().string()).get("properties");
+    private JsonNode readSuccessfulBody(Response response) throws IOException {
+        String responseBody = response.body() != null ? response.body().string() : "";
+        if (!response.isSuccessful()) {
+            throw new IOException("HubSpot API error. Code: " + response.code() + ", Body: " + responseBody);
         }
+        return objectMapper.readTree(responseBody);
     }
 }
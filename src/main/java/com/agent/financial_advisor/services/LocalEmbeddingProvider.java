@@ -0,0 +1,239 @@
+package com.agent.financial_advisor.services;
+
+import ai.onnxruntime.OnnxTensor;
+import ai.onnxruntime.OnnxValue;
+import ai.onnxruntime.OrtEnvironment;
+import ai.onnxruntime.OrtException;
+import ai.onnxruntime.OrtSession;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.FloatBuffer;
+import java.nio.LongBuffer;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Embeddings computed in-process on the CPU with ONNX Runtime, for bulk indexing without API calls and for
+ * deployments without OpenAI access. Runs a sentence-transformers MiniLM model exported to ONNX: its token
+ * vectors are mean pooled and normalized, as sentence-transformers does.
+ * The model is loaded on first use, so deployments that never embed locally don't need its files.
+ */
+@Component
+@Slf4j
+public class LocalEmbeddingProvider implements EmbeddingProvider {
+
+    public static final String NAME = "local";
+
+    private static final Map<String, ModelSpec> MODELS = Map.of(
+            "all-MiniLM-L6-v2", new ModelSpec(384, false),
+            "all-MiniLM-L12-v2", new ModelSpec(384, false)
+    );
+
+    private static final String MODEL_FILE = "model.onnx";
+    private static final String VOCABULARY_FILE = "vocab.txt";
+    private static final String HIDDEN_STATE_OUTPUT = "last_hidden_state";
+    private static final String TOKEN_TYPES_INPUT = "token_type_ids";
+
+    @Value("${app.embedding.local.model:all-MiniLM-L6-v2}")
+    private String modelName;
+
+    // Directory holding the model's model.onnx and vocab.txt
+    @Value("${app.embedding.local.model-dir:models/all-MiniLM-L6-v2}")
+    private Path modelDir;
+
+    // Word pieces per text including [CLS] and [SEP]; the MiniLM models were trained on at most 256
+    @Value("${app.embedding.local.max-tokens:256}")
+    private int maxTokens;
+
+    @Value("${app.embedding.local.batch-size:32}")
+    private int batchSize;
+
+    // Threads per inference; 0 lets ONNX Runtime use one per physical core
+    @Value("${app.embedding.local.threads:0}")
+    private int threads;
+
+    private OrtEnvironment environment;
+    private OrtSession session;
+    private WordPieceTokenizer tokenizer;
+    private boolean takesTokenTypes;
+
+    @PreDestroy
+    public synchronized void shutdown() {
+        if (session != null) {
+            try {
+                session.close();
+            } catch (OrtException e) {
+                log.warn("Failed to close the local embedding model: {}", e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public Map<String, ModelSpec> models() {
+        return MODELS;
+    }
+
+    @Override
+    public String configuredModel() {
+        return modelName;
+    }
+
+    @Override
+    public int configuredDimensions() {
+        return 0;
+    }
+
+    /**
+     * Word pieces per text besides [CLS] and [SEP]; anything beyond is cut off before inference.
+     */
+    @Override
+    public int maxInputTokens() {
+        return maxTokens - 2;
+    }
+
+    @Override
+    public int countTokens(String text) {
+        return tokenizer().count(text);
+    }
+
+    /**
+     * Embeds the texts in batches of similar length, so little of each batch is padding.
+     */
+    @Override
+    public List<float[]> embed(EmbeddingModel model, List<String> texts) {
+        if (!model.name().equals(modelName)) {
+            throw new IllegalStateException("Local embedding model " + modelName + " is loaded, not " + model.name());
+        }
+        load();
+        WordPieceTokenizer tokenizer = tokenizer();
+
+        int[][] tokens = new int[texts.size()][];
+        Integer[] order = new Integer[texts.size()];
+        for (int i = 0; i < texts.size(); i++) {
+            tokens[i] = tokenizer.encode(texts.get(i), maxTokens);
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingInt(i -> tokens[i].length));
+
+        float[][] embeddings = new float[texts.size()][];
+        for (int start = 0; start < order.length; start += batchSize) {
+            int end = Math.min(order.length, start + batchSize);
+            int[][] batch = new int[end - start][];
+            for (int i = start; i < end; i++) {
+                batch[i - start] = tokens[order[i]];
+            }
+            float[][] vectors = infer(batch);
+            for (int i = start; i < end; i++) {
+                embeddings[order[i]] = vectors[i - start];
+            }
+        }
+        return Arrays.asList(embeddings);
+    }
+
+    private float[][] infer(int[][] batch) {
+        int length = Arrays.stream(batch).mapToInt(ids -> ids.length).max().orElse(0);
+        long[] shape = {batch.length, length};
+        long[] inputIds = new long[batch.length * length];
+        long[] attentionMask = new long[batch.length * length];
+        for (int b = 0; b < batch.length; b++) {
+            for (int t = 0; t < batch[b].length; t++) {
+                inputIds[b * length + t] = batch[b][t];
+                attentionMask[b * length + t] = 1;
+            }
+        }
+
+        try (OnnxTensor ids = OnnxTensor.createTensor(environment, LongBuffer.wrap(inputIds), shape);
+             OnnxTensor mask = OnnxTensor.createTensor(environment, LongBuffer.wrap(attentionMask), shape);
+             OnnxTensor types = takesTokenTypes
+                     ? OnnxTensor.createTensor(environment, LongBuffer.wrap(new long[batch.length * length]), shape)
+                     : null) {
+            Map<String, OnnxTensor> inputs = new HashMap<>();
+            inputs.put("input_ids", ids);
+            inputs.put("attention_mask", mask);
+            if (types != null) {
+                inputs.put(TOKEN_TYPES_INPUT, types);
+            }
+            try (OrtSession.Result result = session.run(inputs)) {
+                OnnxValue output = result.get(HIDDEN_STATE_OUTPUT).orElse(result.get(0));
+                return meanPool(((OnnxTensor) output).getFloatBuffer(), batch, length);
+            }
+        } catch (OrtException e) {
+            throw new IllegalStateException("Local embedding inference failed", e);
+        }
+    }
+
+    /**
+     * Averages each text's token vectors, leaving out padding, and scales the average to unit length.
+     */
+    private float[][] meanPool(FloatBuffer hidden, int[][] batch, int length) {
+        int dimensions = hidden.remaining() / (batch.length * length);
+        float[][] vectors = new float[batch.length][dimensions];
+        for (int b = 0; b < batch.length; b++) {
+            float[] vector = vectors[b];
+            for (int t = 0; t < batch[b].length; t++) {
+                int offset = (b * length + t) * dimensions;
+                for (int d = 0; d < dimensions; d++) {
+                    vector[d] += hidden.get(offset + d);
+                }
+            }
+            double norm = 0;
+            for (int d = 0; d < dimensions; d++) {
+                vector[d] /= batch[b].length;
+                norm += vector[d] * vector[d];
+            }
+            norm = Math.max(Math.sqrt(norm), 1e-12);
+            for (int d = 0; d < dimensions; d++) {
+                vector[d] /= (float) norm;
+            }
+        }
+        return vectors;
+    }
+
+    /**
+     * The model's tokenizer, loaded on its own so chunking can count tokens without loading the model.
+     */
+    private synchronized WordPieceTokenizer tokenizer() {
+        if (tokenizer == null) {
+            try {
+                tokenizer = WordPieceTokenizer.load(modelDir.resolve(VOCABULARY_FILE));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to read the local embedding vocabulary from " + modelDir, e);
+            }
+        }
+        return tokenizer;
+    }
+
+    private synchronized void load() {
+        if (session != null) {
+            return;
+        }
+        try {
+            long start = System.currentTimeMillis();
+            environment = OrtEnvironment.getEnvironment();
+            try (OrtSession.SessionOptions options = new OrtSession.SessionOptions()) {
+                options.setOptimizationLevel(OrtSession.SessionOptions.OptLevel.ALL_OPT);
+                if (threads > 0) {
+                    options.setIntraOpNumThreads(threads);
+                }
+                OrtSession loaded = environment.createSession(modelDir.resolve(MODEL_FILE).toString(), options);
+                // Some exports drop the segment ids input, which is all zeros for single texts anyway
+                takesTokenTypes = loaded.getInputNames().contains(TOKEN_TYPES_INPUT);
+                session = loaded;
+            }
+            log.info("🧩 Loaded local embedding model {} from {} in {} ms", modelName, modelDir,
+                    System.currentTimeMillis() - start);
+        } catch (OrtException e) {
+            throw new IllegalStateException("Failed to load the local embedding model from " + modelDir, e);
+        }
+    }
+}
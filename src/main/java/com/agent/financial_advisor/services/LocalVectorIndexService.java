@@ -0,0 +1,295 @@
+package com.agent.financial_advisor.services;
+
+import com.agent.financial_advisor.model.ContactSearchHit;
+import com.agent.financial_advisor.model.EmailChunk;
+import com.agent.financial_advisor.model.EmailChunkEntry;
+import com.agent.financial_advisor.model.EmailDocument;
+import com.agent.financial_advisor.model.EmailSearchHit;
+import com.agent.financial_advisor.model.HubspotDocument;
+import com.agent.financial_advisor.repository.EmailDocumentRepository;
+import com.agent.financial_advisor.repository.HubspotDocumentRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.support.JdbcTransactionManager;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.unit.DataSize;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * Keeps the vectors of the most active users in memory, so their vector searches skip the database.
+ * A user becomes hot after enough searches within an hour; their index is then loaded in the background and
+ * searches go to Postgres until it is ready. Loaded indexes are evicted least recently searched first to stay
+ * under the memory cap. Writes from the indexing path are applied once their transaction commits; a write
+ * arriving while a user's index is loading discards that load, as it may have missed the write.
+ * Nothing is held while the corpus is being re-embedded with a new model.
+ */
+@Service
+@Slf4j
+public class LocalVectorIndexService {
+
+    private static final long HOUR_MILLIS = 3_600_000L;
+
+    private record SearchCount(long hour, int count) {
+    }
+
+    private static class IndexTooLargeException extends RuntimeException {
+    }
+
+    private final EmailDocumentRepository emailDocumentRepository;
+    private final HubspotDocumentRepository hubspotDocumentRepository;
+    private final EmbeddingModelRegistry embeddingModels;
+    private final TransactionTemplate loadTransaction;
+
+    @Value("${app.rag.local-index.enabled:false}")
+    private boolean enabled;
+
+    // Searches within a clock hour that make a user's index worth holding
+    @Value("${app.rag.local-index.hot-searches-per-hour:10}")
+    private int hotSearchesPerHour;
+
+    @Value("${app.rag.local-index.max-memory:256MB}")
+    private DataSize maxMemory;
+
+    // How long a user whose index exceeded the cap is searched in the database before a load is tried again
+    @Value("${app.rag.local-index.too-large-retry:6h}")
+    private Duration tooLargeRetry;
+
+    @Value("${app.rag.local-index.hnsw.m:16}")
+    private int m;
+
+    @Value("${app.rag.local-index.hnsw.ef-construction:64}")
+    private int efConstruction;
+
+    @Value("${app.rag.local-index.hnsw.ef-search:40}")
+    private int efSearch;
+
+    // One load at a time, so loading never competes with searches for more than one connection
+    private ExecutorService loader;
+
+    // Access-ordered, least recently searched first; guarded by this
+    private final LinkedHashMap<Long, UserVectorIndex> loaded = new LinkedHashMap<>(16, 0.75f, true);
+    // Users whose index is loading, mapped to whether a write arrived meanwhile; guarded by this
+    private final Map<Long, Boolean> loading = new HashMap<>();
+    // Users whose index alone would exceed the memory cap, mapped to when loading may be tried again; guarded by this
+    private final Map<Long, Long> tooLarge = new HashMap<>();
+    private final Map<Long, SearchCount> searchCounts = new ConcurrentHashMap<>();
+
+    public LocalVectorIndexService(EmailDocumentRepository emailDocumentRepository,
+                                   HubspotDocumentRepository hubspotDocumentRepository,
+                                   EmbeddingModelRegistry embeddingModels,
+                                   DataSource dataSource) {
+        this.emailDocumentRepository = emailDocumentRepository;
+        this.hubspotDocumentRepository = hubspotDocumentRepository;
+        this.embeddingModels = embeddingModels;
+        // Streaming the vectors needs a transaction, so the driver fetches rows in batches
+        this.loadTransaction = new TransactionTemplate(new JdbcTransactionManager(dataSource));
+        this.loadTransaction.setReadOnly(true);
+    }
+
+    @PostConstruct
+    public void init() {
+        this.loader = Executors.newSingleThreadExecutor(new CustomizableThreadFactory("local-index-loader-"));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        loader.shutdownNow();
+    }
+
+    /**
+     * Counts a search by the user and returns their in-memory index, or null if the search should go to the
+     * database. Schedules a load when the user has just become hot.
+     */
+    UserVectorIndex forSearch(Long userId) {
+        if (!enabled) {
+            return null;
+        }
+        if (embeddingModels.isMigrating()) {
+            clear();
+            return null;
+        }
+
+        long hour = System.currentTimeMillis() / HOUR_MILLIS;
+        int searches = searchCounts.compute(userId, (id, count) -> count == null || count.hour() != hour
+                ? new SearchCount(hour, 1)
+                : new SearchCount(hour, count.count() + 1)).count();
+
+        synchronized (this) {
+            UserVectorIndex index = loaded.get(userId);
+            Long retryAt = tooLarge.get(userId);
+            if (retryAt != null && retryAt <= System.currentTimeMillis()) {
+                // Their data or the cap may have changed since
+                tooLarge.remove(userId);
+            }
+            if (index != null || searches < hotSearchesPerHour
+                    || loading.containsKey(userId) || tooLarge.containsKey(userId)) {
+                return index;
+            }
+            loading.put(userId, false);
+        }
+        loader.execute(() -> load(userId));
+        return null;
+    }
+
+    int efSearch() {
+        return efSearch;
+    }
+
+    /**
+     * Adds newly saved email chunks to the user's index, if it is held, after the transaction commits.
+     */
+    public void onEmailChunksSaved(Long userId, List<EmailChunk> chunks) {
+        if (!enabled || chunks.isEmpty()) {
+            return;
+        }
+        afterCommit(() -> apply(userId, index -> {
+            Map<Long, EmailSearchHit> emails = new HashMap<>();
+            for (EmailChunk chunk : chunks) {
+                EmailDocument doc = chunk.getEmailDocument();
+                EmailSearchHit email = emails.computeIfAbsent(doc.getId(), id -> new EmailSearchHit(id,
+                        doc.getGmailMessageId(), doc.getFromEmail(), doc.getFromName(), doc.getSubject(), null,
+                        doc.getEmailDate(), 0));
+                index.addEmailChunk(new EmailChunkEntry(email, chunk.getChunkIndex(), chunk.getContent()),
+                        chunk.getEmbedding().toArray());
+            }
+        }));
+    }
+
+    /**
+     * Adds new or replaces updated contacts in the user's index, if it is held, after the transaction commits.
+     */
+    public void onContactsSaved(Long userId, List<HubspotDocument> docs) {
+        if (!enabled || docs.isEmpty()) {
+            return;
+        }
+        afterCommit(() -> apply(userId, index -> {
+            for (HubspotDocument doc : docs) {
+                index.addContact(new ContactSearchHit(doc.getId(), doc.getHubspotContactId(), doc.getFirstName(),
+                        doc.getLastName(), doc.getEmail(), doc.getNotes(), doc.getLastModified(), 0),
+                        doc.getEmbedding().toArray());
+            }
+        }));
+    }
+
+    /**
+     * Drops the user's index after the transaction commits, for changes it can't apply such as deletions.
+     * It is loaded again on a later search.
+     */
+    public void invalidate(Long userId) {
+        if (!enabled) {
+            return;
+        }
+        afterCommit(() -> {
+            synchronized (this) {
+                loaded.remove(userId);
+                loading.replace(userId, true);
+            }
+        });
+    }
+
+    private void load(Long userId) {
+        EmbeddingModel model = embeddingModels.active();
+        UserVectorIndex index = new UserVectorIndex(model, m, efConstruction);
+        long maxBytes = maxMemory.toBytes();
+        long start = System.currentTimeMillis();
+        try {
+            loadTransaction.executeWithoutResult(status -> {
+                emailDocumentRepository.forEachChunkVector(userId, model, (chunk, vector) -> {
+                    index.addEmailChunk(chunk, vector);
+                    if (index.bytes() > maxBytes) {
+                        throw new IndexTooLargeException();
+                    }
+                });
+                hubspotDocumentRepository.forEachContactVector(userId, model, index::addContact);
+            });
+        } catch (IndexTooLargeException e) {
+            log.warn("Vector index of user {} exceeds the {} in-memory cap, searching it in the database", userId, maxMemory);
+            synchronized (this) {
+                loading.remove(userId);
+                tooLarge.put(userId, System.currentTimeMillis() + tooLargeRetry.toMillis());
+            }
+            return;
+        } catch (Exception e) {
+            log.error("❌ Error loading vector index for user {}: ", userId, e);
+            synchronized (this) {
+                loading.remove(userId);
+            }
+            return;
+        }
+        index.trim();
+
+        synchronized (this) {
+            if (Boolean.TRUE.equals(loading.remove(userId)) || !model.equals(embeddingModels.active())) {
+                // A write may have committed after the vectors were read; the next search loads again
+                return;
+            }
+            loaded.put(userId, index);
+            evictOverCap();
+        }
+        log.info("🧮 Loaded vector index for user {}: {} MB in {} ms", userId,
+                index.bytes() / (1024 * 1024), System.currentTimeMillis() - start);
+    }
+
+    private void apply(Long userId, Consumer<UserVectorIndex> write) {
+        UserVectorIndex index;
+        synchronized (this) {
+            if (loading.containsKey(userId)) {
+                loading.put(userId, true);
+                return;
+            }
+            index = loaded.get(userId);
+        }
+        if (index == null) {
+            return;
+        }
+        write.accept(index);
+        synchronized (this) {
+            evictOverCap();
+        }
+    }
+
+    /**
+     * Evicts least recently searched indexes until the total is within the cap. Guarded by this.
+     */
+    private void evictOverCap() {
+        long total = loaded.values().stream().mapToLong(UserVectorIndex::bytes).sum();
+        Iterator<Map.Entry<Long, UserVectorIndex>> eldest = loaded.entrySet().iterator();
+        while (total > maxMemory.toBytes() && eldest.hasNext()) {
+            Map.Entry<Long, UserVectorIndex> entry = eldest.next();
+            total -= entry.getValue().bytes();
+            eldest.remove();
+            log.info("Evicted vector index of user {} from memory", entry.getKey());
+        }
+    }
+
+    private synchronized void clear() {
+        loaded.clear();
+        loading.replaceAll((userId, stale) -> true);
+    }
+
+    private void afterCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+}
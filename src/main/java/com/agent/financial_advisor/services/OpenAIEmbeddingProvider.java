@@ -0,0 +1,178 @@
+package com.agent.financial_advisor.services;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.knuddels.jtokkit.Encodings;
+import com.knuddels.jtokkit.api.Encoding;
+import com.knuddels.jtokkit.api.EncodingType;
+import okhttp3.*;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.time.Duration;
+import java.util.*;
+
+/**
+ * Embeddings from the OpenAI embeddings API.
+ */
+@Component
+public class OpenAIEmbeddingProvider implements EmbeddingProvider {
+
+    public static final String NAME = "openai";
+
+    private static final String OPENAI_API_BASE = "https://api.openai.com/v1";
+    private static final MediaType JSON = MediaType.parse("application/json");
+
+    // Input limit of every OpenAI embedding model, which all tokenize with cl100k_base
+    private static final int MAX_INPUT_TOKENS = 8191;
+
+    private static final Map<String, ModelSpec> MODELS = Map.of(
+            "text-embedding-ada-002", new ModelSpec(1536, false),
+            "text-embedding-3-small", new ModelSpec(1536, true),
+            "text-embedding-3-large", new ModelSpec(3072, true)
+    );
+
+    @Value("${app.openai.api-key}")
+    private String apiKey;
+
+    @Value("${openai.embedding.model:text-embedding-ada-002}")
+    private String modelName;
+
+    // 0 means the model's native size
+    @Value("${openai.embedding.dimensions:0}")
+    private int dimensions;
+
+    @Value("${openai.embedding.batch.max-inputs:256}")
+    private int batchMaxInputs;
+
+    @Value("${openai.embedding.batch.max-tokens:100000}")
+    private int batchMaxTokens;
+
+    private final OkHttpClient httpClient = new OkHttpClient.Builder()
+            .readTimeout(Duration.ofSeconds(60))
+            .build();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Encoding encoding = Encodings.newDefaultEncodingRegistry().getEncoding(EncodingType.CL100K_BASE);
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public Map<String, ModelSpec> models() {
+        return MODELS;
+    }
+
+    @Override
+    public String configuredModel() {
+        return modelName;
+    }
+
+    @Override
+    public int configuredDimensions() {
+        return dimensions;
+    }
+
+    @Override
+    public int maxInputTokens() {
+        return MAX_INPUT_TOKENS;
+    }
+
+    @Override
+    public int countTokens(String text) {
+        return encoding.countTokens(text);
+    }
+
+    /**
+     * Sends the texts in as few requests as the API's input and token limits allow.
+     */
+    @Override
+    public List<float[]> embed(EmbeddingModel model, List<String> texts) {
+        List<float[]> embeddings = new ArrayList<>(texts.size());
+
+        int start = 0;
+        while (start < texts.size()) {
+            int end = start;
+            int batchTokens = 0;
+            while (end < texts.size() && end - start < batchMaxInputs) {
+                int tokens = EmbeddingBatcher.estimateTokens(texts.get(end));
+                if (end > start && batchTokens + tokens > batchMaxTokens) {
+                    break;
+                }
+                batchTokens += tokens;
+                end++;
+            }
+
+            embeddings.addAll(requestEmbeddings(model, texts.subList(start, end)));
+            start = end;
+        }
+
+        return embeddings;
+    }
+
+    /**
+     * Calls the embeddings endpoint directly and asks for base64-encoded float32 vectors,
+     * so each embedding is decoded straight into a float[] instead of parsed as boxed decimals.
+     * Models that support it return vectors already truncated to the configured dimensions.
+     */
+    private List<float[]> requestEmbeddings(EmbeddingModel model, List<String> batch) {
+        ObjectNode payload = objectMapper.createObjectNode();
+        payload.put("model", model.name());
+        if (isTruncated(model)) {
+            payload.put("dimensions", model.dimensions());
+        }
+        payload.put("encoding_format", "base64");
+        ArrayNode input = payload.putArray("input");
+        batch.forEach(input::add);
+
+        try {
+            Request request = new Request.Builder()
+                    .url(OPENAI_API_BASE + "/embeddings")
+                    .header("Authorization", "Bearer " + apiKey)
+                    .post(RequestBody.create(objectMapper.writeValueAsBytes(payload), JSON))
+                    .build();
+
+            try (Response response = httpClient.newCall(request).execute()) {
+                if (!response.isSuccessful()) {
+                    String errorBody = response.body() != null ? response.body().string() : "No error body";
+                    throw new IllegalStateException("OpenAI embeddings error. Code: " + response.code() +
+                            ", Body: " + errorBody);
+                }
+
+                JsonNode root = objectMapper.readTree(response.body().byteStream());
+                float[][] embeddings = new float[batch.size()][];
+                for (JsonNode item : root.get("data")) {
+                    embeddings[item.get("index").asInt()] = decodeEmbedding(item.get("embedding").asText());
+                }
+                return Arrays.asList(embeddings);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("OpenAI embeddings request failed", e);
+        }
+    }
+
+    /**
+     * Whether the dimensions parameter has to be sent to the API to get this model's vectors.
+     */
+    private boolean isTruncated(EmbeddingModel model) {
+        ModelSpec spec = MODELS.get(model.name());
+        return spec != null && spec.truncatable() && model.dimensions() < spec.nativeDimensions();
+    }
+
+    /**
+     * Decodes a base64 embedding of little-endian float32 values, as the API returns with encoding_format=base64.
+     */
+    public static float[] decodeEmbedding(String base64) {
+        ByteBuffer buffer = ByteBuffer.wrap(Base64.getDecoder().decode(base64)).order(ByteOrder.LITTLE_ENDIAN);
+        float[] embedding = new float[buffer.remaining() / Float.BYTES];
+        buffer.asFloatBuffer().get(embedding);
+        return embedding;
+    }
+}
@@ -1,50 +1,236 @@
 package com.agent.financial_advisor.services;
 
-import com.theokanning.openai.completion.chat.*;
-import com.theokanning.openai.embedding.EmbeddingRequest;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.theokanning.openai.completion.chat.ChatFunction;
 import com.theokanning.openai.service.OpenAiService;
+import okhttp3.*;
+import okio.BufferedSource;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.time.Duration;
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Consumer;
 
 @Service
 public class OpenAIService {
 
+    public static final String CHAT_MODEL = "gpt-3.5-turbo";
+    private static final String OPENAI_API_BASE = "https://api.openai.com/v1";
+    private static final MediaType JSON = MediaType.parse("application/json");
+
+    private final EmbeddingCache embeddingCache;
+    private final EmbeddingModelRegistry embeddingModels;
+
     @Value("${app.openai.api-key}")
     private String apiKey;
 
-    private OpenAiService openAiService;
+    @Value("${openai.embedding.batch.max-inputs:256}")
+    private int embeddingBatchMaxInputs;
+
+    @Value("${openai.embedding.batch.max-tokens:100000}")
+    private int embeddingBatchMaxTokens;
+
+    @Value("${openai.embedding.batch.linger-ms:10}")
+    private long embeddingBatchLingerMs;
+
+    // Coalesces single embeddings, one batcher per model key so a batch is always sent with the model it was queued for
+    private final ConcurrentMap<String, EmbeddingBatcher> embeddingBatchers = new ConcurrentHashMap<>();
 
-    @PostConstruct
-    public void init() {
-        this.openAiService = new OpenAiService(apiKey, Duration.ofSeconds(60));
+    private final OkHttpClient httpClient = new OkHttpClient.Builder()
+            .readTimeout(Duration.ofSeconds(60))
+            .build();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    // Serializes ChatFunction parameter classes into JSON schema the same way the client library does
+    private final ObjectMapper functionMapper = OpenAiService.defaultObjectMapper();
+
+    public OpenAIService(EmbeddingCache embeddingCache, EmbeddingModelRegistry embeddingModels) {
+        this.embeddingCache = embeddingCache;
+        this.embeddingModels = embeddingModels;
     }
 
-    public ChatCompletionResult chat(List<ChatMessage> messages, List<ChatFunction> functions) {
-        ChatCompletionRequest.ChatCompletionRequestBuilder builder = ChatCompletionRequest.builder()
-                .model("gpt-3.5-turbo")
-                .messages(messages)
-                .temperature(0.7);
+    @PreDestroy
+    public void shutdown() {
+        embeddingBatchers.values().forEach(EmbeddingBatcher::shutdown);
+    }
 
-        if (functions != null && !functions.isEmpty()) {
-            builder.functions(functions);
-            builder.functionCall(ChatCompletionRequest.ChatCompletionRequestFunctionCall.of("auto"));
+    /**
+     * Sends one chat completion with the given tools. The model may answer or ask for several tool calls at once.
+     * When onToken is not null the response is streamed and each content delta is passed to it as it arrives.
+     * Messages use the chat completions wire format; see {@link #message(String, String)}.
+     */
+    public ChatTurn chat(List<ObjectNode> messages, ArrayNode tools, Consumer<String> onToken) {
+        ObjectNode payload = objectMapper.createObjectNode();
+        payload.put("model", CHAT_MODEL);
+        payload.put("temperature", 0.7);
+        payload.put("stream", onToken != null);
+        payload.putArray("messages").addAll(messages);
+        if (tools != null && !tools.isEmpty()) {
+            payload.set("tools", tools);
+            payload.put("tool_choice", "auto");
         }
 
-        return openAiService.createChatCompletion(builder.build());
+        try {
+            Request request = new Request.Builder()
+                    .url(OPENAI_API_BASE + "/chat/completions")
+                    .header("Authorization", "Bearer " + apiKey)
+                    .post(RequestBody.create(objectMapper.writeValueAsBytes(payload), JSON))
+                    .build();
+
+            try (Response response = httpClient.newCall(request).execute()) {
+                if (!response.isSuccessful()) {
+                    String errorBody = response.body() != null ? response.body().string() : "No error body";
+                    throw new IllegalStateException("OpenAI chat error. Code: " + response.code() +
+                            ", Body: " + errorBody);
+                }
+
+                if (onToken == null) {
+                    JsonNode message = objectMapper.readTree(response.body().byteStream())
+                            .path("choices").path(0).path("message");
+                    return ChatTurn.fromMessage(message);
+                }
+                return readStream(response.body().source(), onToken);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("OpenAI chat request failed", e);
+        }
     }
 
-    public List<Double> createEmbedding(String text) {
-        EmbeddingRequest request = EmbeddingRequest.builder()
-                .model("text-embedding-ada-002")
-                .input(List.of(text))
-                .build();
+    /**
+     * Accumulates a server-sent event stream into one turn. Tool call fragments arrive keyed by index,
+     * with the id and name in the first fragment and the arguments split across the rest.
+     */
+    ChatTurn readStream(BufferedSource source, Consumer<String> onToken) throws IOException {
+        StringBuilder content = new StringBuilder();
+        Map<Integer, String[]> toolCalls = new TreeMap<>();
+
+        String line;
+        while ((line = source.readUtf8Line()) != null) {
+            if (!line.startsWith("data:")) {
+                continue;
+            }
+            String data = line.substring(5).trim();
+            if (data.equals("[DONE]")) {
+                break;
+            }
+
+            JsonNode delta = objectMapper.readTree(data).path("choices").path(0).path("delta");
+            String token = delta.path("content").asText("");
+            if (!token.isEmpty()) {
+                content.append(token);
+                onToken.accept(token);
+            }
+            for (JsonNode fragment : delta.path("tool_calls")) {
+                String[] call = toolCalls.computeIfAbsent(fragment.path("index").asInt(), i -> new String[]{"", "", ""});
+                if (fragment.hasNonNull("id")) call[0] = fragment.get("id").asText();
+                JsonNode function = fragment.path("function");
+                if (function.hasNonNull("name")) call[1] = function.get("name").asText();
+                if (function.hasNonNull("arguments")) call[2] += function.get("arguments").asText();
+            }
+        }
+
+        List<ChatTurn.ToolCall> calls = toolCalls.values().stream()
+                .map(call -> new ChatTurn.ToolCall(call[0], call[1], call[2]))
+                .toList();
+        return new ChatTurn(content.length() > 0 ? content.toString() : null, calls);
+    }
+
+    public static ObjectNode message(String role, String content) {
+        ObjectNode message = JsonNodeFactory.instance.objectNode();
+        message.put("role", role);
+        message.put("content", content);
+        return message;
+    }
+
+    /**
+     * Converts function declarations into the tools array of a chat request.
+     */
+    public ArrayNode toTools(List<ChatFunction> functions) {
+        ArrayNode tools = objectMapper.createArrayNode();
+        for (ChatFunction function : functions) {
+            ObjectNode tool = tools.addObject();
+            tool.put("type", "function");
+            tool.set("function", functionMapper.valueToTree(function));
+        }
+        return tools;
+    }
+
+    /**
+     * Embeds a single text with the active model. Cache misses from concurrent callers are coalesced into one
+     * call to the embedding provider.
+     */
+    public float[] createEmbedding(String text) {
+        return createEmbedding(embeddingModels.active(), text);
+    }
+
+    /**
+     * Embeds a single text with the given model, for searching vectors that have not been re-embedded yet.
+     */
+    public float[] createEmbedding(EmbeddingModel model, String text) {
+        String contentHash = EmbeddingCache.contentHash(text);
+        float[] cached = embeddingCache.get(model.key(), contentHash);
+        if (cached != null) {
+            return cached;
+        }
+
+        float[] embedding = embeddingBatcher(model).embed(text);
+        embeddingCache.put(model.key(), contentHash, embedding);
+        return embedding;
+    }
+
+    /**
+     * Embeds all texts with the active model, serving what it can from the cache and sending only the rest.
+     * Results are returned in the same order as the input.
+     */
+    public List<float[]> createEmbeddings(List<String> texts) {
+        return createEmbeddings(embeddingModels.active(), texts);
+    }
+
+    public List<float[]> createEmbeddings(EmbeddingModel model, List<String> texts) {
+        List<String> contentHashes = texts.stream().map(EmbeddingCache::contentHash).toList();
+        Map<String, float[]> embeddings = embeddingCache.getAll(model.key(), contentHashes);
+
+        // Identical texts within the same call are only sent once
+        Map<String, String> missing = new LinkedHashMap<>();
+        for (int i = 0; i < texts.size(); i++) {
+            if (!embeddings.containsKey(contentHashes.get(i))) {
+                missing.putIfAbsent(contentHashes.get(i), texts.get(i));
+            }
+        }
+
+        if (!missing.isEmpty()) {
+            List<float[]> fresh = embed(model, new ArrayList<>(missing.values()));
+            Map<String, float[]> freshByHash = new HashMap<>();
+            int i = 0;
+            for (String contentHash : missing.keySet()) {
+                freshByHash.put(contentHash, fresh.get(i++));
+            }
+            embeddingCache.putAll(model.key(), freshByHash);
+            embeddings.putAll(freshByHash);
+        }
+
+        return contentHashes.stream().map(embeddings::get).toList();
+    }
+
+    private EmbeddingBatcher embeddingBatcher(EmbeddingModel model) {
+        return embeddingBatchers.computeIfAbsent(model.key(), key -> new EmbeddingBatcher(texts -> embed(model, texts),
+                embeddingBatchMaxInputs, embeddingBatchMaxTokens, Duration.ofMillis(embeddingBatchLingerMs)));
+    }
 
-        return openAiService.createEmbeddings(request)
-                .getData().get(0).getEmbedding();
+    /**
+     * Computes embeddings with the provider that runs the model, bypassing the cache
+     */
+    private List<float[]> embed(EmbeddingModel model, List<String> texts) {
+        return embeddingModels.provider(model).embed(model, texts);
     }
 }
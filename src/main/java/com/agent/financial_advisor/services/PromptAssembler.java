@@ -0,0 +1,172 @@
+package com.agent.financial_advisor.services;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.knuddels.jtokkit.Encodings;
+import com.knuddels.jtokkit.api.Encoding;
+import com.knuddels.jtokkit.api.EncodingRegistry;
+import com.knuddels.jtokkit.api.EncodingType;
+import com.theokanning.openai.completion.chat.ChatMessageRole;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Fits the agent's conversation into the model's context window, counting tokens with the model's tokenizer.
+ * System messages and the current request with its tool exchange are always sent; older history is dropped
+ * oldest first once it no longer fits. Tool results are capped when added and cut down further once the
+ * model has read them, so a long tool loop doesn't resend whole email bodies on every call.
+ */
+@Component
+public class PromptAssembler {
+
+    // Extra tokens the API adds around every message for its role and separators
+    private static final int TOKENS_PER_MESSAGE = 4;
+
+    private static final Map<String, Integer> CONTEXT_WINDOWS = Map.of(
+            "gpt-3.5-turbo", 16_385,
+            "gpt-4o-mini", 128_000,
+            "gpt-4o", 128_000
+    );
+    private static final int DEFAULT_CONTEXT_WINDOW = 8_192;
+
+    private static final String TRUNCATED_MARKER = "\n…[truncated]";
+    private static final String COMPACTED_MARKER = "\n…[trimmed after use, call the tool again for the full result]";
+
+    private final EncodingRegistry encodingRegistry = Encodings.newDefaultEncodingRegistry();
+
+    @Value("${app.agent.prompt.max-tokens:12000}")
+    private int maxPromptTokens;
+
+    @Value("${app.agent.prompt.completion-reserve:1024}")
+    private int completionReserve;
+
+    @Value("${app.agent.prompt.tool-result-tokens:1500}")
+    private int toolResultTokens;
+
+    @Value("${app.agent.prompt.compacted-tool-result-tokens:150}")
+    private int compactedToolResultTokens;
+
+    /**
+     * Returns the messages to send for this model call. The input list is left as is.
+     *
+     * @param fixedTokens tokens already taken by the request outside the messages, such as the tool schema
+     */
+    public List<ObjectNode> assemble(String model, List<ObjectNode> messages, int fixedTokens) {
+        Encoding encoding = encodingFor(model);
+        int budget = Math.min(maxPromptTokens, contextWindow(model) - completionReserve) - fixedTokens;
+
+        int systemEnd = 0;
+        while (systemEnd < messages.size() && isRole(messages.get(systemEnd), ChatMessageRole.SYSTEM.value())) {
+            systemEnd++;
+        }
+        int currentStart = messages.size();
+        for (int i = messages.size() - 1; i >= systemEnd; i--) {
+            if (isRole(messages.get(i), ChatMessageRole.USER.value())) {
+                currentStart = i;
+                break;
+            }
+        }
+        // Per-request system context sits right before the new message and belongs with it
+        while (currentStart > systemEnd && isRole(messages.get(currentStart - 1), ChatMessageRole.SYSTEM.value())) {
+            currentStart--;
+        }
+
+        List<ObjectNode> system = messages.subList(0, systemEnd);
+        List<ObjectNode> current = messages.subList(currentStart, messages.size());
+        int used = countTokens(encoding, system) + countTokens(encoding, current);
+
+        // Walk history back from the newest message and keep what still fits
+        int historyStart = currentStart;
+        while (historyStart > systemEnd) {
+            int tokens = countTokens(encoding, messages.get(historyStart - 1));
+            if (used + tokens > budget) {
+                break;
+            }
+            used += tokens;
+            historyStart--;
+        }
+
+        List<ObjectNode> prompt = new ArrayList<>(system);
+        int omitted = historyStart - systemEnd;
+        if (omitted > 0) {
+            prompt.add(OpenAIService.message(ChatMessageRole.SYSTEM.value(),
+                    omitted + " earlier messages of this conversation were left out to fit the context window."));
+        }
+        prompt.addAll(messages.subList(historyStart, currentStart));
+        prompt.addAll(current);
+        return prompt;
+    }
+
+    /**
+     * Caps a fresh tool result before it goes into the conversation.
+     */
+    public String capToolResult(String model, String result) {
+        return truncate(encodingFor(model), result, toolResultTokens, TRUNCATED_MARKER);
+    }
+
+    /**
+     * Cuts down tool results the model has already read. Safe to call repeatedly; short results are left alone.
+     */
+    public void compactToolResults(String model, List<ObjectNode> messages) {
+        Encoding encoding = encodingFor(model);
+        for (ObjectNode message : messages) {
+            String content = message.path("content").asText("");
+            if (isRole(message, "tool") && !content.endsWith(COMPACTED_MARKER)) {
+                message.put("content", truncate(encoding, content, compactedToolResultTokens, COMPACTED_MARKER));
+            }
+        }
+    }
+
+    public int countTokens(String model, String text) {
+        return countTokens(encodingFor(model), text);
+    }
+
+    public int countTokens(String model, List<ObjectNode> messages) {
+        return countTokens(encodingFor(model), messages);
+    }
+
+    private int countTokens(Encoding encoding, List<ObjectNode> messages) {
+        int tokens = 0;
+        for (ObjectNode message : messages) {
+            tokens += countTokens(encoding, message);
+        }
+        return tokens;
+    }
+
+    private int countTokens(Encoding encoding, ObjectNode message) {
+        int tokens = TOKENS_PER_MESSAGE + countTokens(encoding, message.path("content").asText(""));
+        for (JsonNode call : message.path("tool_calls")) {
+            tokens += countTokens(encoding, call.path("function").path("name").asText(""))
+                    + countTokens(encoding, call.path("function").path("arguments").asText(""));
+        }
+        return tokens;
+    }
+
+    private int countTokens(Encoding encoding, String text) {
+        return text.isEmpty() ? 0 : encoding.countTokens(text);
+    }
+
+    private String truncate(Encoding encoding, String text, int maxTokens, String marker) {
+        if (countTokens(encoding, text) <= maxTokens) {
+            return text;
+        }
+        int keep = Math.max(0, maxTokens - countTokens(encoding, marker));
+        return encoding.decode(encoding.encode(text, keep).getTokens()) + marker;
+    }
+
+    private Encoding encodingFor(String model) {
+        return encodingRegistry.getEncoding(model.startsWith("gpt-4o") ? EncodingType.O200K_BASE : EncodingType.CL100K_BASE);
+    }
+
+    private int contextWindow(String model) {
+        return CONTEXT_WINDOWS.getOrDefault(model, DEFAULT_CONTEXT_WINDOW);
+    }
+
+    private boolean isRole(ObjectNode message, String role) {
+        return role.equals(message.path("role").asText());
+    }
+}
@@ -1,46 +1,178 @@
 package com.agent.financial_advisor.services;
 
+import com.agent.financial_advisor.model.ContactSearchHit;
+import com.agent.financial_advisor.model.EmailChunk;
 import com.agent.financial_advisor.model.EmailDocument;
+import com.agent.financial_advisor.model.EmailSearchHit;
 import com.agent.financial_advisor.model.HubspotDocument;
+import com.agent.financial_advisor.model.SearchFilters;
 import com.agent.financial_advisor.model.User;
+import com.agent.financial_advisor.repository.EmailChunkRepository;
 import com.agent.financial_advisor.repository.EmailDocumentRepository;
+import com.agent.financial_advisor.repository.EmailDocumentRepositoryCustom;
 import com.agent.financial_advisor.repository.HubspotDocumentRepository;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.google.api.services.gmail.model.Message;
 import com.google.api.services.gmail.model.MessagePartHeader;
 import com.pgvector.PGvector;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.jdbc.support.JdbcTransactionManager;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import javax.sql.DataSource;
+import java.time.Duration;
 import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.stream.StreamSupport;
 
 @Service
+@Slf4j
 public class RAGService {
 
     private final EmailDocumentRepository emailDocumentRepository;
+    private final EmailChunkRepository emailChunkRepository;
     private final HubspotDocumentRepository hubspotDocumentRepository;
     private final OpenAIService openAIService;
     private final GmailService gmailService;
+    private final VectorIndexService vectorIndexService;
+    private final ContextPacker contextPacker;
+    private final TextChunker textChunker;
+    private final EmbeddingModelRegistry embeddingModels;
+    private final LocalVectorIndexService localVectorIndex;
+    private final TransactionTemplate searchTransaction;
+    private final TransactionTemplate contactSaveTransaction;
+
+    @Value("${app.rag.search.concurrency:8}")
+    private int searchConcurrency;
+
+    @Value("${app.rag.search.source-timeout:1500ms}")
+    private Duration searchSourceTimeout;
+
+    @Value("${app.rag.search.latency-budget:2s}")
+    private Duration searchLatencyBudget;
+
+    // Candidates fetched from each of the vector and full-text searches, as a multiple of the final limit
+    @Value("${app.rag.search.candidate-multiplier:4}")
+    private int candidateMultiplier;
+
+    // Reciprocal rank fusion constant; larger values flatten the advantage of the top ranks
+    @Value("${app.rag.search.rrf-k:60}")
+    private int rrfK;
+
+    // Token budget for the context text a search returns to the agent
+    @Value("${app.rag.context.max-tokens:1200}")
+    private int contextMaxTokens;
+
+    @Value("${app.rag.chunk.backfill-batch:50}")
+    private int chunkBackfillBatch;
+
+    // Contacts saved per transaction when indexing; a failed save is retried one contact at a time
+    @Value("${app.rag.contacts.save-batch:100}")
+    private int contactSaveBatch;
+
+    // Each source query runs on its own pooled connection
+    private ExecutorService searchExecutor;
 
     // Conservative limits for token handling
     private static final int CHARS_PER_TOKEN = 4;
     private static final int MAX_TOKENS = 7000; // Leave buffer below 8192 limit
     private static final int MAX_CHARS = MAX_TOKENS * CHARS_PER_TOKEN;
 
+    // What the old indexer appended to the Gmail id and subject of each part of a long email
+    private static final Pattern LEGACY_PART_ID = Pattern.compile("_chunk_(\\d+)$");
+    private static final Pattern LEGACY_PART_SUBJECT = Pattern.compile(" \\[Part \\d+]$");
+    // The old indexer stored the embedded text, which put the body after this header line
+    private static final String LEGACY_BODY_PREFIX = "\nBody: ";
+
     public RAGService(EmailDocumentRepository emailDocumentRepository,
+                      EmailChunkRepository emailChunkRepository,
                       HubspotDocumentRepository hubspotDocumentRepository,
                       OpenAIService openAIService,
-                      GmailService gmailService) {
+                      GmailService gmailService,
+                      VectorIndexService vectorIndexService,
+                      ContextPacker contextPacker,
+                      TextChunker textChunker,
+                      EmbeddingModelRegistry embeddingModels,
+                      LocalVectorIndexService localVectorIndex,
+                      DataSource dataSource,
+                      PlatformTransactionManager transactionManager) {
         this.emailDocumentRepository = emailDocumentRepository;
+        this.emailChunkRepository = emailChunkRepository;
         this.hubspotDocumentRepository = hubspotDocumentRepository;
         this.openAIService = openAIService;
         this.gmailService = gmailService;
+        this.vectorIndexService = vectorIndexService;
+        this.contextPacker = contextPacker;
+        this.textChunker = textChunker;
+        this.embeddingModels = embeddingModels;
+        this.localVectorIndex = localVectorIndex;
+        // Searches only read projections over JDBC, so they don't need a JPA EntityManager / persistence context
+        this.searchTransaction = new TransactionTemplate(new JdbcTransactionManager(dataSource));
+        this.searchTransaction.setReadOnly(true);
+        // Each batch of contacts commits on its own, even when called from within another transaction
+        this.contactSaveTransaction = new TransactionTemplate(transactionManager);
+        this.contactSaveTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    @PostConstruct
+    public void init() {
+        this.searchExecutor = Executors.newFixedThreadPool(searchConcurrency, new CustomizableThreadFactory("rag-search-"));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        searchExecutor.shutdownNow();
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        // Rewriting old rows can take a while on a large mailbox, don't hold up startup
+        CompletableFuture.runAsync(this::normalizeSenderAddresses);
+    }
+
+    /**
+     * Lower-cases the sender of emails indexed before addresses were normalized, which exact sender and
+     * contact filters would otherwise miss. A no-op once every row has been rewritten.
+     */
+    public void normalizeSenderAddresses() {
+        try {
+            int updated = emailDocumentRepository.lowerCaseSenderAddresses();
+            if (updated > 0) {
+                log.info("Lower-cased the sender address of {} indexed emails", updated);
+            }
+        } catch (Exception e) {
+            log.error("❌ Failed to lower-case indexed sender addresses: ", e);
+        }
+    }
+
+    public boolean isEmailIndexed(String gmailMessageId) {
+        return emailDocumentRepository.existsByGmailMessageId(gmailMessageId);
     }
 
     @Transactional
@@ -60,10 +192,11 @@ public class RAGService {
                 if (header.getName().equalsIgnoreCase("From")) {
                     String from = header.getValue();
                     if (from.contains("<")) {
-                        doc.setFromEmail(from.substring(from.indexOf("<") + 1, from.indexOf(">")));
+                        // Stored lower-case so sender filters can match the indexed column exactly
+                        doc.setFromEmail(from.substring(from.indexOf("<") + 1, from.indexOf(">")).toLowerCase());
                         doc.setFromName(from.substring(0, from.indexOf("<")).trim());
                     } else {
-                        doc.setFromEmail(from);
+                        doc.setFromEmail(from.trim().toLowerCase());
                         doc.setFromName(from);
                     }
                 }
@@ -82,189 +215,524 @@ public class RAGService {
                 }
             }
 
-            String body = gmailService.extractBody(message);
-            doc.setBody(body);
-
-            // Create the text to embed
-            String textToEmbed = String.format("From: %s (%s)\nSubject: %s\nBody: %s",
-                    doc.getFromName(), doc.getFromEmail(), doc.getSubject(), body);
-
-            // Check if text is too long
-            if (textToEmbed.length() > MAX_CHARS) {
-                // Split into chunks and save multiple documents
-                List<String> chunks = chunkText(textToEmbed, MAX_CHARS);
+            doc.setBody(gmailService.extractBody(message));
+
+            // The email keeps its full body; the embeddings live on its chunks
+            List<EmailChunk> chunks = buildChunks(doc);
+            emailDocumentRepository.save(doc);
+            emailChunkRepository.saveAll(chunks);
+            localVectorIndex.onEmailChunksSaved(user.getId(), chunks);
+        } catch (RuntimeException e) {
+            // Rethrown so the sync keeps its cursor and indexes the email again on the next run
+            log.error("❌ Error indexing email {} for user {}: ", message.getId(), user.getEmail(), e);
+            throw e;
+        }
+    }
 
-                for (int i = 0; i < chunks.size(); i++) {
-                    EmailDocument chunkDoc = createChunkDocument(doc, chunks.get(i), i);
-                    List<Double> embedding = openAIService.createEmbedding(chunks.get(i));
-                    chunkDoc.setEmbedding(new PGvector(convertToFloatArray(embedding)));
-                    emailDocumentRepository.save(chunkDoc);
-                }
-            } else {
-                // Text is within limits, process normally
-                List<Double> embedding = openAIService.createEmbedding(textToEmbed);
-                doc.setEmbedding(new PGvector(convertToFloatArray(embedding)));
+    /**
+     * Chunks and embeds emails indexed before chunking, which were embedded whole or split into
+     * "_chunk_N" documents. Split emails are first merged back into one; the old whole-email embedding is
+     * dropped once the chunks exist.
+     */
+    @Scheduled(fixedDelayString = "${app.rag.chunk.backfill-interval:300000}")
+    public void backfillEmailChunks() {
+        mergeLegacyEmailParts();
+
+        List<EmailDocument> docs = emailDocumentRepository.findWithoutChunks(PageRequest.of(0, chunkBackfillBatch));
+        for (EmailDocument doc : docs) {
+            try {
+                List<EmailChunk> chunks = buildChunks(doc);
+                doc.setEmbedding(null);
                 emailDocumentRepository.save(doc);
+                emailChunkRepository.saveAll(chunks);
+                localVectorIndex.onEmailChunksSaved(doc.getUser().getId(), chunks);
+            } catch (Exception e) {
+                log.error("❌ Error chunking email {}: ", doc.getGmailMessageId(), e);
             }
-        } catch (Exception e) {
-            e.printStackTrace();
+        }
+        if (!docs.isEmpty()) {
+            log.info("✂️ Chunked {} previously indexed emails", docs.size());
         }
     }
 
-    @Transactional
-    public void indexHubspotContact(User user, JsonNode contact) {
-        try {
-            String contactId = contact.get("id").asText();
-            JsonNode properties = contact.get("properties");
-            JsonNode notes = contact.get("notes");
+    /**
+     * Replaces the "_chunk_N" documents the old indexer split long emails into with one email under the
+     * real Gmail id, with the original subject and body, which the backfill then chunks like any other.
+     * The merged email is saved before the parts are deleted, so a run interrupted in between only has the
+     * parts left to delete.
+     */
+    private void mergeLegacyEmailParts() {
+        List<String> messageIds = emailDocumentRepository.findLegacyPartMessageIds(PageRequest.of(0, chunkBackfillBatch));
+        for (String messageId : messageIds) {
+            try {
+                List<EmailDocument> parts = emailDocumentRepository.findByGmailMessageIdStartingWith(messageId + "_chunk_")
+                        .stream()
+                        .filter(part -> legacyPartIndex(part) >= 0)
+                        .sorted(Comparator.comparingInt(RAGService::legacyPartIndex))
+                        .toList();
+                if (parts.isEmpty()) {
+                    continue;
+                }
+                if (!emailDocumentRepository.existsByGmailMessageId(messageId)) {
+                    emailDocumentRepository.save(mergeLegacyParts(messageId, parts));
+                }
+                emailDocumentRepository.deleteAll(parts);
+                // The parts may have been chunked already, and their chunks are gone with them
+                localVectorIndex.invalidate(parts.get(0).getUser().getId());
+            } catch (Exception e) {
+                log.error("❌ Error merging the parts of email {}: ", messageId, e);
+            }
+        }
+        if (!messageIds.isEmpty()) {
+            log.info("🧩 Merged the parts of {} emails split by the old indexer", messageIds.size());
+        }
+    }
 
-            HubspotDocument doc = hubspotDocumentRepository
-                    .findByUserAndHubspotContactId(user, contactId)
-                    .orElse(new HubspotDocument());
+    private static int legacyPartIndex(EmailDocument part) {
+        Matcher matcher = LEGACY_PART_ID.matcher(part.getGmailMessageId());
+        return matcher.find() ? Integer.parseInt(matcher.group(1)) : -1;
+    }
 
-            doc.setUser(user);
-            doc.setHubspotContactId(contactId);
-            doc.setFirstName(properties.has("firstname") ? properties.get("firstname").asText() : "");
-            doc.setLastName(properties.has("lastname") ? properties.get("lastname").asText() : "");
-            doc.setEmail(properties.has("email") ? properties.get("email").asText() : "");
-            // join all note texts into one string, or store as JSON
-            if (notes != null && notes.isArray()) {
-                String allNotes = StreamSupport.stream(notes.spliterator(), false)
-                        .map(n -> n.get("hs_note_body").asText())
-                        .collect(Collectors.joining("\n---\n"));
-                doc.setNotes(allNotes);
-            } else {
-                doc.setNotes("");
+    /**
+     * Each part held a trimmed piece of "From: ...\nSubject: ...\nBody: ...", cut after a sentence or a
+     * line break, so the pieces are rejoined with the separator they were most likely cut at and the header
+     * lines dropped.
+     */
+    private static EmailDocument mergeLegacyParts(String messageId, List<EmailDocument> parts) {
+        StringBuilder text = new StringBuilder();
+        for (EmailDocument part : parts) {
+            if (part.getBody() == null || part.getBody().isEmpty()) {
+                continue;
+            }
+            if (!text.isEmpty()) {
+                char last = text.charAt(text.length() - 1);
+                text.append(last == '.' || last == '!' || last == '?' ? ' ' : '\n');
             }
-            doc.setAllProperties(properties.toString());
+            text.append(part.getBody());
+        }
+        String body = text.toString();
+        int bodyStart = body.indexOf(LEGACY_BODY_PREFIX);
+        if (body.startsWith("From: ") && bodyStart >= 0) {
+            body = body.substring(bodyStart + LEGACY_BODY_PREFIX.length());
+        }
 
-            if (properties.has("lastmodifieddate")) {
-                doc.setLastModified(LocalDateTime.ofInstant(
-                        Instant.parse(properties.get("lastmodifieddate").asText()),
-                        ZoneId.systemDefault()
-                ));
+        EmailDocument first = parts.get(0);
+        String subject = first.getSubject() != null
+                ? LEGACY_PART_SUBJECT.matcher(first.getSubject()).replaceFirst("")
+                : null;
+
+        EmailDocument doc = new EmailDocument();
+        doc.setUser(first.getUser());
+        doc.setGmailMessageId(messageId);
+        doc.setFromEmail(first.getFromEmail() != null ? first.getFromEmail().toLowerCase() : null);
+        doc.setFromName(first.getFromName());
+        // The old indexer formatted a missing subject as "null"
+        doc.setSubject("null".equals(subject) ? null : subject);
+        doc.setBody(body);
+        doc.setEmailDate(first.getEmailDate());
+        return doc;
+    }
+
+    /**
+     * Splits the email body into overlapping token-sized chunks and embeds each one together with the
+     * sender and subject, so a chunk on its own still says which email it comes from.
+     * An email without a body gets a single chunk of its subject.
+     */
+    private List<EmailChunk> buildChunks(EmailDocument doc) {
+        List<String> texts = textChunker.chunk(doc.getBody(), textChunker.countTokens(buildChunkHeader(doc)));
+        if (texts.isEmpty()) {
+            texts = List.of(doc.getSubject() != null ? doc.getSubject() : "");
+        }
+
+        List<EmailChunk> chunks = new ArrayList<>();
+        for (int i = 0; i < texts.size(); i++) {
+            EmailChunk chunk = new EmailChunk();
+            chunk.setEmailDocument(doc);
+            chunk.setUser(doc.getUser());
+            chunk.setChunkIndex(i);
+            chunk.setContent(texts.get(i));
+            chunks.add(chunk);
+        }
+        embedChunks(chunks);
+        return chunks;
+    }
+
+    private void embedChunks(List<EmailChunk> chunks) {
+        EmbeddingModel model = embeddingModels.active();
+        List<float[]> embeddings = openAIService.createEmbeddings(model,
+                chunks.stream().map(this::buildChunkEmbeddingText).toList());
+        for (int i = 0; i < chunks.size(); i++) {
+            chunks.get(i).setEmbedding(new PGvector(embeddings.get(i)));
+            chunks.get(i).setEmbeddingModel(model.key());
+        }
+    }
+
+    private String buildChunkEmbeddingText(EmailChunk chunk) {
+        return buildChunkHeader(chunk.getEmailDocument()) + chunk.getContent();
+    }
+
+    private String buildChunkHeader(EmailDocument doc) {
+        return String.format("From: %s (%s)\nSubject: %s\n", doc.getFromName(), doc.getFromEmail(), doc.getSubject());
+    }
+
+    /**
+     * Re-embeds a batch of chunks whose vectors are of another model than the active one.
+     * Returns how many were re-embedded; 0 means none are left.
+     */
+    @Transactional
+    public int reembedEmailChunks(int batchSize) {
+        List<EmailChunk> chunks = emailChunkRepository.findByEmbeddingModelNot(
+                embeddingModels.active().key(), PageRequest.of(0, batchSize));
+        if (!chunks.isEmpty()) {
+            embedChunks(chunks);
+            emailChunkRepository.saveAll(chunks);
+        }
+        return chunks.size();
+    }
+
+    /**
+     * Re-embeds a batch of contacts whose vectors are of another model than the active one.
+     * Returns how many were re-embedded; 0 means none are left.
+     */
+    @Transactional
+    public int reembedHubspotContacts(int batchSize) {
+        EmbeddingModel model = embeddingModels.active();
+        List<HubspotDocument> docs = hubspotDocumentRepository.findByEmbeddingModelNot(
+                model.key(), PageRequest.of(0, batchSize));
+        if (!docs.isEmpty()) {
+            List<float[]> embeddings = openAIService.createEmbeddings(model,
+                    docs.stream().map(this::buildHubspotEmbeddingText).toList());
+            for (int i = 0; i < docs.size(); i++) {
+                docs.get(i).setEmbedding(new PGvector(embeddings.get(i)));
+                docs.get(i).setEmbeddingModel(model.key());
             }
+            hubspotDocumentRepository.saveAll(docs);
+        }
+        return docs.size();
+    }
+
+    public void indexHubspotContact(User user, JsonNode contact) {
+        indexHubspotContacts(user, List.of(contact));
+    }
 
-            String textToEmbed = String.format("Contact: %s %s\nEmail: %s\nNotes: %s\nAll Properties: %s",
-                    doc.getFirstName(), doc.getLastName(), doc.getEmail(), doc.getNotes(), doc.getAllProperties());
+    /**
+     * Indexes contacts, embedding them all in as few API requests as possible.
+     * Contacts whose lastmodifieddate matches the stored document are skipped. The embedding requests run
+     * outside any transaction, and the contacts are saved in batches that each commit on their own. A batch
+     * that fails to embed or to save is retried one contact at a time, so a single bad contact only loses itself.
+     */
+    public void indexHubspotContacts(User user, List<JsonNode> contacts) {
+        List<HubspotDocument> docs = new ArrayList<>();
+
+        List<String> contactIds = contacts.stream().map(c -> c.get("id").asText()).toList();
+        Map<String, HubspotDocument> existing = hubspotDocumentRepository
+                .findByUserAndHubspotContactIdIn(user, contactIds).stream()
+                .collect(Collectors.toMap(HubspotDocument::getHubspotContactId, d -> d, (a, b) -> a));
+
+        for (JsonNode contact : contacts) {
+            try {
+                HubspotDocument doc = existing.get(contact.get("id").asText());
+                if (doc != null && isUnchanged(doc, contact)) {
+                    continue;
+                }
 
-            // Check if text is too long for HubSpot contacts too
-            if (textToEmbed.length() > MAX_CHARS) {
-                // Truncate or summarize the properties field
-                String truncatedProperties = doc.getAllProperties().substring(0,
-                        Math.min(doc.getAllProperties().length(), MAX_CHARS / 2));
-                textToEmbed = String.format("Contact: %s %s\nEmail: %s\nNotes: %s\nProperties: %s",
-                        doc.getFirstName(), doc.getLastName(), doc.getEmail(), doc.getNotes(), truncatedProperties);
+                docs.add(buildHubspotDocument(user, contact, doc != null ? doc : new HubspotDocument()));
+            } catch (Exception e) {
+                log.error("❌ Skipping HubSpot contact {} for user {}: ", contact.path("id").asText(), user.getEmail(), e);
             }
+        }
 
-            List<Double> embedding = openAIService.createEmbedding(textToEmbed);
-            doc.setEmbedding(new PGvector(convertToFloatArray(embedding)));
-            hubspotDocumentRepository.save(doc);
-        } catch (Exception e) {
-            e.printStackTrace();
+        if (docs.isEmpty()) {
+            return;
         }
-    }
 
-    public String search(User user, String query, int limit) {
+        List<HubspotDocument> embedded = new ArrayList<>(docs.size());
         try {
-            List<Double> queryEmbedding = openAIService.createEmbedding(query);
-            String embeddingStr = "[" + queryEmbedding.stream()
-                    .map(String::valueOf)
-                    .collect(Collectors.joining(",")) + "]";
-
-            List<EmailDocument> emails = emailDocumentRepository.findSimilar(
-                    user.getId(), embeddingStr, limit
-            );
-
-            List<HubspotDocument> contacts = hubspotDocumentRepository.findSimilar(
-                    user.getId(), embeddingStr, limit
-            );
-
-            StringBuilder context = new StringBuilder();
-            context.append("=== Relevant Emails ===\n");
-            for (EmailDocument email : emails) {
-                context.append(String.format("From: %s (%s)\nSubject: %s\nDate: %s\nBody: %s\n\n",
-                        email.getFromName(), email.getFromEmail(), email.getSubject(),
-                        email.getEmailDate(), email.getBody()));
+            embedContacts(docs);
+            embedded.addAll(docs);
+        } catch (Exception e) {
+            log.error("❌ Error embedding {} HubSpot contacts for user {}, retrying one at a time: ",
+                    docs.size(), user.getEmail(), e);
+            for (HubspotDocument doc : docs) {
+                try {
+                    embedContacts(List.of(doc));
+                    embedded.add(doc);
+                } catch (Exception contactError) {
+                    log.error("❌ Skipping HubSpot contact {} for user {}: ",
+                            doc.getHubspotContactId(), user.getEmail(), contactError);
+                }
             }
+        }
 
-            context.append("\n=== Relevant Contacts ===\n");
-            for (HubspotDocument contact : contacts) {
-                context.append(String.format("Contact: %s %s\nEmail: %s\nNotes: %s\n\n",
-                        contact.getFirstName(), contact.getLastName(),
-                        contact.getEmail(), contact.getNotes()));
+        for (int start = 0; start < embedded.size(); start += contactSaveBatch) {
+            List<HubspotDocument> batch = embedded.subList(start, Math.min(embedded.size(), start + contactSaveBatch));
+            try {
+                saveContacts(user, batch);
+            } catch (Exception e) {
+                log.error("❌ Error saving {} HubSpot contacts for user {}, retrying one at a time: ",
+                        batch.size(), user.getEmail(), e);
+                for (HubspotDocument doc : batch) {
+                    try {
+                        saveContacts(user, List.of(doc));
+                    } catch (Exception contactError) {
+                        log.error("❌ Skipping HubSpot contact {} for user {}: ",
+                                doc.getHubspotContactId(), user.getEmail(), contactError);
+                    }
+                }
             }
+        }
+    }
 
-            return context.toString();
-        } catch (Exception e) {
-            e.printStackTrace();
-            return "";
+    private void embedContacts(List<HubspotDocument> docs) {
+        EmbeddingModel model = embeddingModels.active();
+        List<float[]> embeddings = openAIService.createEmbeddings(model,
+                docs.stream().map(this::buildHubspotEmbeddingText).toList());
+        for (int i = 0; i < docs.size(); i++) {
+            docs.get(i).setEmbedding(new PGvector(embeddings.get(i)));
+            docs.get(i).setEmbeddingModel(model.key());
         }
     }
 
     /**
-     * Splits text into chunks at sentence boundaries
+     * Saves the contacts in a transaction of their own. The in-memory index only sees them once it commits.
      */
-    private List<String> chunkText(String text, int maxChunkSize) {
-        List<String> chunks = new ArrayList<>();
+    private void saveContacts(User user, List<HubspotDocument> docs) {
+        List<HubspotDocument> created = docs.stream().filter(doc -> doc.getId() == null).toList();
+        try {
+            contactSaveTransaction.executeWithoutResult(status -> {
+                List<HubspotDocument> saved = hubspotDocumentRepository.saveAll(docs);
+                localVectorIndex.onContactsSaved(user.getId(), saved);
+            });
+        } catch (RuntimeException e) {
+            // The inserts were rolled back, so new contacts must be inserted again rather than merged on a retry
+            created.forEach(doc -> doc.setId(null));
+            throw e;
+        }
+    }
 
-        if (text == null || text.isEmpty()) {
-            return chunks;
+    /**
+     * Deletes indexed contacts that no longer exist in HubSpot
+     */
+    @Transactional
+    public void removeHubspotContactsNotIn(User user, Set<String> contactIds) {
+        List<String> stale = hubspotDocumentRepository.findContactIdsByUser(user).stream()
+                .filter(id -> !contactIds.contains(id))
+                .toList();
+        if (!stale.isEmpty()) {
+            hubspotDocumentRepository.deleteByUserAndHubspotContactIdIn(user, stale);
+            localVectorIndex.invalidate(user.getId());
         }
+    }
+
+    private boolean isUnchanged(HubspotDocument doc, JsonNode contact) {
+        LocalDateTime lastModified = parseLastModified(contact.get("properties"));
+        return doc.getEmbedding() != null
+                && embeddingModels.active().key().equals(doc.getEmbeddingModel())
+                && lastModified != null
+                && lastModified.equals(doc.getLastModified());
+    }
 
-        int start = 0;
-        while (start < text.length()) {
-            int end = Math.min(start + maxChunkSize, text.length());
-
-            // Try to break at sentence boundary if not at the end
-            if (end < text.length()) {
-                int lastPeriod = text.lastIndexOf(". ", end);
-                int lastExclamation = text.lastIndexOf("! ", end);
-                int lastQuestion = text.lastIndexOf("? ", end);
-                int lastNewline = text.lastIndexOf("\n", end);
-
-                int breakPoint = Math.max(
-                        Math.max(lastPeriod, lastExclamation),
-                        Math.max(lastQuestion, lastNewline)
-                );
-
-                // Use break point if it's reasonable (at least 70% of max size)
-                if (breakPoint > start && breakPoint > start + (maxChunkSize * 0.7)) {
-                    end = breakPoint + 1;
+    private LocalDateTime parseLastModified(JsonNode properties) {
+        if (properties == null || !properties.hasNonNull("lastmodifieddate")) {
+            return null;
+        }
+        return LocalDateTime.ofInstant(
+                Instant.parse(properties.get("lastmodifieddate").asText()),
+                ZoneId.systemDefault()
+        );
+    }
+
+    private HubspotDocument buildHubspotDocument(User user, JsonNode contact, HubspotDocument doc) {
+        String contactId = contact.get("id").asText();
+        JsonNode properties = contact.get("properties");
+        JsonNode notes = contact.get("notes");
+
+        doc.setUser(user);
+        doc.setHubspotContactId(contactId);
+        doc.setFirstName(properties.has("firstname") ? properties.get("firstname").asText() : "");
+        doc.setLastName(properties.has("lastname") ? properties.get("lastname").asText() : "");
+        doc.setEmail(properties.has("email") ? properties.get("email").asText() : "");
+        // join all note texts into one string, or store as JSON
+        if (notes != null && notes.isArray()) {
+            String allNotes = StreamSupport.stream(notes.spliterator(), false)
+                    .map(n -> n.get("hs_note_body").asText())
+                    .collect(Collectors.joining("\n---\n"));
+            doc.setNotes(allNotes);
+        } else {
+            doc.setNotes("");
+        }
+        doc.setAllProperties(properties.toString());
+
+        LocalDateTime lastModified = parseLastModified(properties);
+        if (lastModified != null) {
+            doc.setLastModified(lastModified);
+        }
+
+        return doc;
+    }
+
+    private String buildHubspotEmbeddingText(HubspotDocument doc) {
+        String textToEmbed = String.format("Contact: %s %s\nEmail: %s\nNotes: %s\nAll Properties: %s",
+                doc.getFirstName(), doc.getLastName(), doc.getEmail(), doc.getNotes(), doc.getAllProperties());
+
+        // Check if text is too long for HubSpot contacts too
+        if (textToEmbed.length() > MAX_CHARS) {
+            // Truncate or summarize the properties field
+            String truncatedProperties = doc.getAllProperties().substring(0,
+                    Math.min(doc.getAllProperties().length(), MAX_CHARS / 2));
+            textToEmbed = String.format("Contact: %s %s\nEmail: %s\nNotes: %s\nProperties: %s",
+                    doc.getFirstName(), doc.getLastName(), doc.getEmail(), doc.getNotes(), truncatedProperties);
+        }
+
+        return textToEmbed;
+    }
+
+    public String search(User user, String query, int limit) {
+        return search(user, query, limit, VectorSearchOptions.defaults(), SearchFilters.none());
+    }
+
+    public String search(User user, String query, int limit, SearchFilters filters) {
+        return search(user, query, limit, VectorSearchOptions.defaults(), filters);
+    }
+
+    /**
+     * Searches emails and contacts concurrently, each by vector similarity and by full text, and fuses the
+     * rankings per source with reciprocal rank fusion. During an embedding model migration there is one vector
+     * search per model still in use. ANN settings (ef_search / probes) apply to these queries only.
+     * A query that misses its timeout or the overall latency budget is left out of the result.
+     * The filters are applied in SQL, and a source excluded by them is not queried at all.
+     * For a user whose vectors are held in memory, unfiltered vector searches run there instead of in Postgres.
+     */
+    public String search(User user, String query, int limit, VectorSearchOptions options, SearchFilters filters) {
+        try {
+            // The budget covers embedding the query as well as the source queries
+            long budgetDeadline = System.nanoTime() + searchLatencyBudget.toNanos();
+            // While the corpus is re-embedded, vectors of the previous model are searched with a query of that model
+            List<EmbeddingModel> models = embeddingModels.searchModels();
+            Map<EmbeddingModel, float[]> queryEmbeddings = new LinkedHashMap<>();
+            for (EmbeddingModel model : models) {
+                queryEmbeddings.put(model, openAIService.createEmbedding(model, query));
+            }
+            EmbeddingModel activeModel = models.get(0);
+            float[] queryEmbedding = queryEmbeddings.get(activeModel);
+            long sourceDeadline = Math.min(budgetDeadline, System.nanoTime() + searchSourceTimeout.toNanos());
+            int candidates = limit * candidateMultiplier;
+            String tsQuery = TextSearchIndexService.toAnyWordQuery(query);
+
+            boolean emailsWanted = filters.includesEmails();
+            boolean contactsWanted = filters.includesContacts();
+
+            List<CompletableFuture<List<EmailSearchHit>>> emailFutures = new ArrayList<>();
+            List<CompletableFuture<List<ContactSearchHit>>> contactFutures = new ArrayList<>();
+            UserVectorIndex localIndex = localVectorIndex.forSearch(user.getId());
+            if (localIndex != null && !filters.hasPredicates()) {
+                // Held only outside a migration, so the active model is the only one searched
+                if (emailsWanted) {
+                    emailFutures.add(CompletableFuture.completedFuture(
+                            localIndex.searchEmails(queryEmbedding, candidates, localVectorIndex.efSearch())));
+                }
+                if (contactsWanted) {
+                    contactFutures.add(CompletableFuture.completedFuture(
+                            localIndex.searchContacts(queryEmbedding, candidates, localVectorIndex.efSearch())));
                 }
+                queryEmbeddings.clear();
+            }
+            for (Map.Entry<EmbeddingModel, float[]> entry : queryEmbeddings.entrySet()) {
+                if (emailsWanted) {
+                    // Reads its chunk candidates from the index, several per email
+                    int chunkCandidates = vectorIndexService.annCandidates(
+                            candidates * EmailDocumentRepositoryCustom.CHUNKS_PER_EMAIL);
+                    emailFutures.add(searchSource(options, chunkCandidates, sourceDeadline,
+                            () -> emailDocumentRepository.findSimilar(user.getId(), entry.getKey(), entry.getValue(),
+                                    filters, candidates)));
+                }
+                if (contactsWanted) {
+                    contactFutures.add(searchSource(options, vectorIndexService.annCandidates(candidates), sourceDeadline,
+                            () -> hubspotDocumentRepository.findSimilar(user.getId(), entry.getKey(), entry.getValue(),
+                                    filters, candidates)));
+                }
+            }
+            if (tsQuery != null && emailsWanted) {
+                emailFutures.add(searchSource(options, 0, sourceDeadline,
+                        () -> emailDocumentRepository.findByText(user.getId(), tsQuery, activeModel, queryEmbedding,
+                                filters, candidates)));
+            }
+            if (tsQuery != null && contactsWanted) {
+                contactFutures.add(searchSource(options, 0, sourceDeadline,
+                        () -> hubspotDocumentRepository.findByText(user.getId(), tsQuery, activeModel, queryEmbedding,
+                                filters, candidates)));
             }
 
-            chunks.add(text.substring(start, end).trim());
-            start = end;
-        }
+            List<List<EmailSearchHit>> emailRankings = new ArrayList<>();
+            for (CompletableFuture<List<EmailSearchHit>> future : emailFutures) {
+                emailRankings.add(awaitSource("emails", future, sourceDeadline));
+            }
+            List<List<ContactSearchHit>> contactRankings = new ArrayList<>();
+            for (CompletableFuture<List<ContactSearchHit>> future : contactFutures) {
+                contactRankings.add(awaitSource("contacts", future, sourceDeadline));
+            }
+            List<EmailSearchHit> emails = fuseRankings(limit, EmailSearchHit::id, emailRankings);
+            List<ContactSearchHit> contacts = fuseRankings(limit, ContactSearchHit::id, contactRankings);
 
-        return chunks;
+            return contextPacker.pack(query, emails, contacts, contextMaxTokens);
+        } catch (Exception e) {
+            e.printStackTrace();
+            return "";
+        }
     }
 
     /**
-     * Creates a chunk document with metadata from the original
+     * Reciprocal rank fusion: each hit scores 1 / (k + rank) in every ranking it appears in, and the top scores win.
+     * Rankings are listed best first; a hit found by several searches usually beats one found by only one.
      */
-    private EmailDocument createChunkDocument(EmailDocument original, String chunkText, int chunkIndex) {
-        EmailDocument chunk = new EmailDocument();
-        chunk.setUser(original.getUser());
-        // Make gmailMessageId unique for each chunk
-        chunk.setGmailMessageId(original.getGmailMessageId() + "_chunk_" + chunkIndex);
-        chunk.setFromEmail(original.getFromEmail());
-        chunk.setFromName(original.getFromName());
-        chunk.setSubject(original.getSubject() + " [Part " + (chunkIndex + 1) + "]");
-        chunk.setBody(chunkText); // Store the full chunk including metadata
-        chunk.setEmailDate(original.getEmailDate());
-        return chunk;
+    private <T> List<T> fuseRankings(int limit, Function<T, Long> id, List<List<T>> rankings) {
+        Map<Long, T> hits = new HashMap<>();
+        Map<Long, Double> scores = new HashMap<>();
+        for (List<T> ranking : rankings) {
+            for (int rank = 0; rank < ranking.size(); rank++) {
+                T hit = ranking.get(rank);
+                hits.putIfAbsent(id.apply(hit), hit);
+                scores.merge(id.apply(hit), 1.0 / (rrfK + rank + 1), Double::sum);
+            }
+        }
+        return scores.entrySet().stream()
+                .sorted(Map.Entry.<Long, Double>comparingByValue().reversed())
+                .limit(limit)
+                .map(entry -> hits.get(entry.getKey()))
+                .toList();
     }
 
     /**
-     * Converts List<Double> to float[]
+     * Runs one source query in its own read-only transaction, so the search settings apply to its connection.
+     * annCandidates is how many rows the query reads from a vector index, 0 for one that reads none.
      */
-    private float[] convertToFloatArray(List<Double> embedding) {
-        float[] embeddingArray = new float[embedding.size()];
-        for (int i = 0; i < embedding.size(); i++) {
-            embeddingArray[i] = embedding.get(i).floatValue();
+    private <T> CompletableFuture<List<T>> searchSource(VectorSearchOptions options, int annCandidates, long deadline,
+                                                        Supplier<List<T>> query) {
+        return CompletableFuture.supplyAsync(() -> {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                // Sat in the queue past the deadline, nobody is waiting for this any more
+                return List.of();
+            }
+            return searchTransaction.execute(status -> {
+                vectorIndexService.applySearchSettings(options, annCandidates);
+                vectorIndexService.applyStatementTimeout(Duration.ofNanos(remaining));
+                return query.get();
+            });
+        }, searchExecutor);
+    }
+
+    private <T> List<T> awaitSource(String source, CompletableFuture<List<T>> future, long deadline) {
+        try {
+            return future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(false);
+            log.warn("Search on {} missed the latency budget, continuing without it", source);
+        } catch (ExecutionException e) {
+            log.warn("Search on {} failed: {}", source, e.getCause().getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
-        return embeddingArray;
+        return List.of();
     }
-}
\ No newline at end of file
+}
@@ -1,60 +1,260 @@
 package com.agent.financial_advisor.services;
 
-import com.google.api.services.gmail.model.Message;
+import com.agent.financial_advisor.model.SyncState;
 import com.agent.financial_advisor.model.User;
+import com.agent.financial_advisor.repository.SyncStateRepository;
 import com.agent.financial_advisor.repository.UserRepository;
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.stereotype.Service;
 import com.fasterxml.jackson.databind.JsonNode;
 
+import java.math.BigInteger;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.stream.Collectors;
 
 @Service
+@Slf4j
 public class SyncService {
+    private static final String GMAIL_PROVIDER = "gmail";
+    private static final String HUBSPOT_PROVIDER = "hubspot";
+
     private final UserRepository userRepository;
+    private final SyncStateRepository syncStateRepository;
     private final GmailService gmailService;
     private final HubspotService hubspotService;
     private final RAGService ragService;
 
-    public SyncService(UserRepository userRepository, GmailService gmailService, HubspotService hubspotService, RAGService ragService) {
+    @Value("${app.sync.gmail.full-resync-max-messages:50}")
+    private int gmailFullResyncMaxMessages;
+
+    @Value("${app.sync.hubspot.full-reconcile-interval:6h}")
+    private Duration hubspotFullReconcileInterval;
+
+    @Value("${app.sync.gmail.concurrency:4}")
+    private int gmailConcurrency;
+
+    @Value("${app.sync.hubspot.concurrency:2}")
+    private int hubspotConcurrency;
+
+    // One FIFO pool per provider caps concurrent calls against that provider
+    private ExecutorService gmailExecutor;
+    private ExecutorService hubspotExecutor;
+
+    // provider:userId of every queued or running sync
+    private final Set<String> inFlight = ConcurrentHashMap.newKeySet();
+
+    public SyncService(UserRepository userRepository, SyncStateRepository syncStateRepository,
+                       GmailService gmailService, HubspotService hubspotService, RAGService ragService) {
         this.userRepository = userRepository;
+        this.syncStateRepository = syncStateRepository;
         this.gmailService = gmailService;
         this.hubspotService = hubspotService;
         this.ragService = ragService;
     }
 
+    @PostConstruct
+    public void init() {
+        this.gmailExecutor = Executors.newFixedThreadPool(gmailConcurrency, new CustomizableThreadFactory("sync-gmail-"));
+        this.hubspotExecutor = Executors.newFixedThreadPool(hubspotConcurrency, new CustomizableThreadFactory("sync-hubspot-"));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        gmailExecutor.shutdownNow();
+        hubspotExecutor.shutdownNow();
+    }
+
     @Scheduled(fixedDelay = 60000)
     public void syncAllUsers() {
         List<User> users = userRepository.findAll();
         for (User user : users) {
-            if (user.getGoogleAccessToken() != null) {
-                syncGmail(user);
-            }
-            if (user.getHubspotAccessToken() != null) {
-                syncHubspot(user);
-            }
+            submitSync(user);
         }
     }
 
+    /**
+     * Queues a sync of every connected provider for the user.
+     * A user has at most one pending sync per provider, so the FIFO queues give each user one turn
+     * per round and a slow tenant only holds up its own slot.
+     */
+    public void submitSync(User user) {
+        if (user.getGoogleAccessToken() != null) {
+            submit(user, GMAIL_PROVIDER, gmailExecutor, () -> syncGmail(user));
+        }
+        if (user.getHubspotAccessToken() != null) {
+            submit(user, HUBSPOT_PROVIDER, hubspotExecutor, () -> syncHubspot(user));
+        }
+    }
+
+    private void submit(User user, String provider, ExecutorService executor, Runnable sync) {
+        String key = provider + ":" + user.getId();
+        if (!inFlight.add(key)) {
+            log.debug("{} sync already queued or running for user {}", provider, user.getEmail());
+            return;
+        }
+
+        try {
+            executor.execute(() -> {
+                try {
+                    sync.run();
+                } finally {
+                    inFlight.remove(key);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            inFlight.remove(key);
+            log.warn("Could not queue {} sync for user {}: {}", provider, user.getEmail(), e.getMessage());
+        }
+    }
+
+    /**
+     * Indexes only the mail added since the stored historyId.
+     * Falls back to a bounded full resync when there is no cursor yet or Gmail has expired it.
+     */
     public void syncGmail(User user) {
         try {
-            List<Message> messages = gmailService.listMessages(user, 50);
-            for (Message message : messages) {
-                ragService.indexEmail(user, message);
+            SyncState state = syncStateRepository.findByUserAndProvider(user, GMAIL_PROVIDER)
+                    .orElseGet(() -> newSyncState(user, GMAIL_PROVIDER));
+
+            if (state.getCursor() == null) {
+                fullGmailResync(user, state);
+                return;
+            }
+
+            GmailService.HistoryChanges changes;
+            try {
+                changes = gmailService.listAddedMessagesSince(user, new BigInteger(state.getCursor()));
+            } catch (GoogleJsonResponseException e) {
+                if (e.getStatusCode() != 404) {
+                    throw e;
+                }
+                log.info("Gmail history cursor expired for user {}, running full resync", user.getEmail());
+                fullGmailResync(user, state);
+                return;
             }
+
+            indexNewMessages(user, changes.addedMessageIds());
+            state.setCursor(changes.historyId().toString());
+            syncStateRepository.save(state);
         } catch (Exception e) {
-            e.printStackTrace();
+            log.error("❌ Gmail sync failed for user {}, keeping its cursor: ", user.getEmail(), e);
+        }
+    }
+
+    private void fullGmailResync(User user, SyncState state) throws Exception {
+        // Take the cursor before listing so nothing that arrives meanwhile is skipped
+        BigInteger historyId = gmailService.getCurrentHistoryId(user);
+
+        indexNewMessages(user, gmailService.listMessageIds(user, gmailFullResyncMaxMessages));
+
+        state.setCursor(historyId.toString());
+        state.setLastFullSyncAt(LocalDateTime.now());
+        syncStateRepository.save(state);
+    }
+
+    /**
+     * History still lists messages deleted since; those are skipped so the cursor can move past them.
+     * Any other failure is rethrown once the remaining messages were tried, so the caller keeps its cursor
+     * and the next run lists the failed messages again; the ones indexed meanwhile are skipped then.
+     */
+    private void indexNewMessages(User user, List<String> messageIds) throws Exception {
+        Exception failure = null;
+        for (String messageId : messageIds) {
+            if (ragService.isEmailIndexed(messageId)) {
+                continue;
+            }
+            try {
+                ragService.indexEmail(user, gmailService.getMessage(user, messageId));
+            } catch (GoogleJsonResponseException e) {
+                if (e.getStatusCode() != 404) {
+                    failure = addFailure(failure, e);
+                    continue;
+                }
+                log.info("Gmail message {} of user {} no longer exists, skipping it", messageId, user.getEmail());
+            } catch (Exception e) {
+                failure = addFailure(failure, e);
+            }
+        }
+        if (failure != null) {
+            throw failure;
         }
     }
 
+    private static Exception addFailure(Exception failure, Exception e) {
+        if (failure == null) {
+            return e;
+        }
+        failure.addSuppressed(e);
+        return failure;
+    }
+
+    /**
+     * Indexes only contacts modified since the stored lastmodifieddate watermark.
+     * A periodic full reconcile pages the whole portal so deleted contacts are removed too.
+     */
     public void syncHubspot(User user) {
         try {
-            List<JsonNode> contacts = hubspotService.getAllContacts(user);
-            for (JsonNode contact : contacts) {
-                ragService.indexHubspotContact(user, contact);
+            SyncState state = syncStateRepository.findByUserAndProvider(user, HUBSPOT_PROVIDER)
+                    .orElseGet(() -> newSyncState(user, HUBSPOT_PROVIDER));
+
+            Instant fetchStartedAt = Instant.now();
+            boolean reconcileDue = state.getCursor() == null
+                    || state.getLastFullSyncAt() == null
+                    || state.getLastFullSyncAt().isBefore(LocalDateTime.now().minus(hubspotFullReconcileInterval));
+
+            List<JsonNode> contacts;
+            if (reconcileDue) {
+                contacts = hubspotService.getAllContacts(user);
+                ragService.indexHubspotContacts(user, contacts);
+                ragService.removeHubspotContactsNotIn(user, contacts.stream()
+                        .map(c -> c.get("id").asText())
+                        .collect(Collectors.toSet()));
+                state.setLastFullSyncAt(LocalDateTime.now());
+            } else {
+                contacts = hubspotService.getContactsModifiedSince(user, Instant.parse(state.getCursor()));
+                ragService.indexHubspotContacts(user, contacts);
             }
+
+            state.setCursor(nextHubspotWatermark(state.getCursor(), contacts, fetchStartedAt).toString());
+            syncStateRepository.save(state);
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
+
+    static Instant nextHubspotWatermark(String cursor, List<JsonNode> contacts, Instant fetchStartedAt) {
+        Instant watermark = cursor != null ? Instant.parse(cursor) : null;
+        for (JsonNode contact : contacts) {
+            JsonNode lastModified = contact.get("properties").get("lastmodifieddate");
+            if (lastModified != null && !lastModified.isNull()) {
+                Instant modifiedAt = Instant.parse(lastModified.asText());
+                if (watermark == null || modifiedAt.isAfter(watermark)) {
+                    watermark = modifiedAt;
+                }
+            }
+        }
+        // An empty portal still gets a watermark so the next run can go incremental
+        return watermark != null ? watermark : fetchStartedAt;
+    }
+
+    private SyncState newSyncState(User user, String provider) {
+        SyncState state = new SyncState();
+        state.setUser(user);
+        state.setProvider(provider);
+        return state;
+    }
 }
@@ -0,0 +1,143 @@
+package com.agent.financial_advisor.services;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Splits text into chunks of about a fixed number of tokens, counted with the active embedding model's tokenizer.
+ * Chunks break at paragraph or sentence ends where possible, and each one repeats the last sentences of the
+ * previous chunk so a passage cut at a boundary is still embedded whole once.
+ */
+@Component
+@Slf4j
+public class TextChunker {
+
+    private static final Pattern SENTENCE_BREAK = Pattern.compile("(?<=\\n\\n)|(?<=[.!?])\\s+");
+
+    // Floor for chunks next to an unusually long header, so a long subject doesn't shred the body
+    private static final int MIN_CHUNK_TOKENS = 32;
+
+    private final EmbeddingModelRegistry embeddingModels;
+
+    // Upper bound; chunks are made smaller when the active model takes fewer tokens per input
+    @Value("${app.rag.chunk.tokens:300}")
+    private int chunkTokens;
+
+    @Value("${app.rag.chunk.overlap-tokens:50}")
+    private int overlapTokens;
+
+    public TextChunker(EmbeddingModelRegistry embeddingModels) {
+        this.embeddingModels = embeddingModels;
+    }
+
+    @PostConstruct
+    public void init() {
+        if (overlapTokens >= chunkTokens) {
+            throw new IllegalStateException("app.rag.chunk.overlap-tokens must be less than app.rag.chunk.tokens");
+        }
+        EmbeddingModel model = embeddingModels.active();
+        int limit = embeddingModels.provider(model).maxInputTokens();
+        if (chunkTokens > limit) {
+            log.warn("Chunks of {} tokens exceed the {} token input limit of {}, chunking to fit it instead",
+                    chunkTokens, limit, model.name());
+        }
+    }
+
+    /**
+     * Tokens the text takes up in an input to the active embedding model.
+     */
+    public int countTokens(String text) {
+        return provider().countTokens(text);
+    }
+
+    /**
+     * Chunks the text so that each one, embedded together with reservedTokens of other text such as a header,
+     * fits in the active model's input.
+     */
+    public List<String> chunk(String text, int reservedTokens) {
+        List<String> chunks = new ArrayList<>();
+        if (text == null || text.isBlank()) {
+            return chunks;
+        }
+
+        EmbeddingProvider provider = provider();
+        int maxTokens = Math.min(chunkTokens,
+                Math.max(MIN_CHUNK_TOKENS, provider.maxInputTokens() - reservedTokens));
+        int maxOverlap = Math.min(overlapTokens, maxTokens / 2);
+
+        Deque<String> current = new ArrayDeque<>();
+        int currentTokens = 0;
+        for (String sentence : sentences(text, maxTokens, provider)) {
+            int tokens = provider.countTokens(sentence);
+            if (currentTokens + tokens > maxTokens && !current.isEmpty()) {
+                chunks.add(String.join(" ", current));
+
+                // Carry the tail of this chunk over as the start of the next one
+                Deque<String> overlap = new ArrayDeque<>();
+                int overlapSoFar = 0;
+                while (!current.isEmpty() && overlapSoFar < maxOverlap) {
+                    String last = current.pollLast();
+                    overlapSoFar += provider.countTokens(last);
+                    overlap.addFirst(last);
+                }
+                if (overlapSoFar + tokens > maxTokens) {
+                    overlap.clear();
+                    overlapSoFar = 0;
+                }
+                current = overlap;
+                currentTokens = overlapSoFar;
+            }
+            current.addLast(sentence);
+            currentTokens += tokens;
+        }
+        if (!current.isEmpty()) {
+            chunks.add(String.join(" ", current));
+        }
+        return chunks;
+    }
+
+    private EmbeddingProvider provider() {
+        return embeddingModels.provider(embeddingModels.active());
+    }
+
+    /**
+     * Sentences and paragraphs, with any single piece longer than a chunk cut into chunk-sized token windows.
+     */
+    private List<String> sentences(String text, int maxTokens, EmbeddingProvider provider) {
+        List<String> sentences = new ArrayList<>();
+        for (String part : SENTENCE_BREAK.split(text.trim())) {
+            String sentence = part.trim();
+            if (sentence.isEmpty()) {
+                continue;
+            }
+            if (provider.countTokens(sentence) <= maxTokens) {
+                sentences.add(sentence);
+                continue;
+            }
+            // Cut at whitespace so a window never splits a word or a multi-byte character
+            StringBuilder window = new StringBuilder();
+            for (String word : sentence.split("\\s+")) {
+                if (window.length() > 0 && provider.countTokens(window + " " + word) > maxTokens) {
+                    sentences.add(window.toString());
+                    window.setLength(0);
+                }
+                if (window.length() > 0) {
+                    window.append(' ');
+                }
+                window.append(word);
+            }
+            if (window.length() > 0) {
+                sentences.add(window.toString());
+            }
+        }
+        return sentences;
+    }
+}
@@ -0,0 +1,156 @@
+package com.agent.financial_advisor.services;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.JdbcTransactionManager;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Maintains the full-text search columns and GIN indexes used for lexical retrieval next to the vector search.
+ * The tsvector columns are kept up to date by a trigger, so the JPA entities never write them.
+ * A stored generated column would rewrite the whole table under an exclusive lock when added, so the column is
+ * added as a plain nullable one, which only touches the catalog, and existing rows are filled in small batches.
+ * Tables that already have the column as a generated one keep it.
+ */
+@Service
+@Slf4j
+public class TextSearchIndexService {
+
+    // Text search configuration shared by the search columns and the queries
+    public static final String TEXT_SEARCH_CONFIG = "english";
+
+    /**
+     * Columns of a searchable table, weighted A for who and what and B for the free text.
+     */
+    private record SearchDocument(List<String> titleColumns, String textColumn) {
+
+        String expression(String row) {
+            String title = titleColumns.stream()
+                    .map(column -> "coalesce(" + row + column + ", '')")
+                    .collect(Collectors.joining(" || ' ' || "));
+            return "setweight(to_tsvector('" + TEXT_SEARCH_CONFIG + "', " + title + "), 'A') || " +
+                    "setweight(to_tsvector('" + TEXT_SEARCH_CONFIG + "', coalesce(" + row + textColumn + ", '')), 'B')";
+        }
+
+        String columns() {
+            return Stream.concat(titleColumns.stream(), Stream.of(textColumn)).collect(Collectors.joining(", "));
+        }
+    }
+
+    private static final Map<String, SearchDocument> SEARCH_DOCUMENTS = Map.of(
+            "email_documents", new SearchDocument(List.of("subject", "from_name", "from_email"), "body"),
+            "hubspot_documents", new SearchDocument(List.of("first_name", "last_name", "email"), "notes")
+    );
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate ddlTransaction;
+
+    // How long the schema changes wait for a table lock before giving up until the next startup, so they never
+    // queue the application's own queries behind them
+    @Value("${app.rag.text-search.lock-timeout:5s}")
+    private Duration lockTimeout;
+
+    @Value("${app.rag.text-search.backfill-batch:1000}")
+    private int backfillBatch;
+
+    public TextSearchIndexService(JdbcTemplate jdbcTemplate, DataSource dataSource) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.ddlTransaction = new TransactionTemplate(new JdbcTransactionManager(dataSource));
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        // Filling in the column for existing rows can take a while on large tables, don't hold up startup
+        CompletableFuture.runAsync(this::ensureIndexes);
+    }
+
+    public void ensureIndexes() {
+        SEARCH_DOCUMENTS.forEach((table, document) -> {
+            try {
+                if (!isGenerated(table)) {
+                    addColumnAndTrigger(table, document);
+                    backfill(table, document);
+                }
+                jdbcTemplate.execute(String.format(
+                        "CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_%s_search_tsv ON %s USING gin (search_tsv)",
+                        table, table));
+                log.info("✅ Full-text index on {} is ready", table);
+            } catch (Exception e) {
+                log.error("❌ Failed to maintain full-text index on {}: ", table, e);
+            }
+        });
+    }
+
+    private boolean isGenerated(String table) {
+        List<String> generated = jdbcTemplate.queryForList(
+                "SELECT is_generated FROM information_schema.columns " +
+                        "WHERE table_schema = current_schema() AND table_name = ? AND column_name = 'search_tsv'",
+                String.class, table);
+        return !generated.isEmpty() && "ALWAYS".equals(generated.get(0));
+    }
+
+    /**
+     * Adds the column and the trigger that fills it in on writes, in one transaction that gives up if it can't
+     * get the table lock within the lock timeout.
+     */
+    private void addColumnAndTrigger(String table, SearchDocument document) {
+        ddlTransaction.executeWithoutResult(status -> {
+            jdbcTemplate.execute("SET LOCAL lock_timeout = '" + lockTimeout.toMillis() + "ms'");
+            jdbcTemplate.execute(String.format("ALTER TABLE %s ADD COLUMN IF NOT EXISTS search_tsv tsvector", table));
+            jdbcTemplate.execute(String.format(
+                    "CREATE OR REPLACE FUNCTION %s_search_tsv() RETURNS trigger LANGUAGE plpgsql AS $$ " +
+                            "BEGIN NEW.search_tsv := %s; RETURN NEW; END $$",
+                    table, document.expression("NEW.")));
+            jdbcTemplate.execute(String.format("DROP TRIGGER IF EXISTS %s_search_tsv ON %s", table, table));
+            jdbcTemplate.execute(String.format(
+                    "CREATE TRIGGER %s_search_tsv BEFORE INSERT OR UPDATE OF %s ON %s " +
+                            "FOR EACH ROW EXECUTE FUNCTION %s_search_tsv()",
+                    table, document.columns(), table, table));
+        });
+    }
+
+    /**
+     * Fills in the column for rows written before the trigger existed, one short transaction per batch so
+     * only the rows being updated are locked.
+     */
+    private void backfill(String table, SearchDocument document) {
+        long start = System.currentTimeMillis();
+        long total = 0;
+        int updated;
+        do {
+            updated = jdbcTemplate.update(String.format(
+                    "UPDATE %s SET search_tsv = %s WHERE id IN (SELECT id FROM %s WHERE search_tsv IS NULL LIMIT %d)",
+                    table, document.expression(""), table, backfillBatch));
+            total += updated;
+        } while (updated > 0);
+        if (total > 0) {
+            log.info("Filled in the full-text column of {} rows of {} in {} ms", total, table,
+                    System.currentTimeMillis() - start);
+        }
+    }
+
+    /**
+     * Turns a free-form question into a tsquery string that matches any of its words, so one exact name,
+     * ticker or account number is enough for a hit. Returns null when nothing searchable is left.
+     */
+    public static String toAnyWordQuery(String query) {
+        String words = Arrays.stream(query.split("[^\\p{L}\\p{N}]+"))
+                .filter(word -> word.length() > 1)
+                .distinct()
+                .collect(Collectors.joining(" | "));
+        return words.isEmpty() ? null : words;
+    }
+}
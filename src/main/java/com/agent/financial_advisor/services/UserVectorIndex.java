@@ -0,0 +1,110 @@
+package com.agent.financial_advisor.services;
+
+import com.agent.financial_advisor.model.ContactSearchHit;
+import com.agent.financial_advisor.model.EmailChunkEntry;
+import com.agent.financial_advisor.model.EmailSearchHit;
+import com.agent.financial_advisor.repository.EmailDocumentRepositoryCustom;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * One user's email chunk and contact vectors of a single embedding model, searchable in memory.
+ * Results match what the repository vector searches return for the same data, up to the ANN approximation.
+ */
+final class UserVectorIndex {
+
+    // Nearest chunks fetched per requested email, as the SQL search does
+    private static final int CHUNKS_PER_EMAIL = EmailDocumentRepositoryCustom.CHUNKS_PER_EMAIL;
+    // Rough heap cost of a payload's objects besides its characters
+    private static final int PAYLOAD_OVERHEAD_BYTES = 96;
+
+    private final EmbeddingModel model;
+    private final HnswIndex<EmailChunkEntry> emailChunks;
+    private final HnswIndex<ContactSearchHit> contacts;
+    // Contact document id to its current node; an updated contact's old node is removed
+    private final Map<Long, Integer> contactNodes = new HashMap<>();
+    private final AtomicLong payloadBytes = new AtomicLong();
+
+    UserVectorIndex(EmbeddingModel model, int m, int efConstruction) {
+        this.model = model;
+        this.emailChunks = new HnswIndex<>(model.dimensions(), m, efConstruction);
+        this.contacts = new HnswIndex<>(model.dimensions(), m, efConstruction);
+    }
+
+    EmbeddingModel model() {
+        return model;
+    }
+
+    void addEmailChunk(EmailChunkEntry chunk, float[] vector) {
+        emailChunks.add(vector, chunk);
+        payloadBytes.addAndGet(PAYLOAD_OVERHEAD_BYTES + chars(chunk.content()));
+    }
+
+    synchronized void addContact(ContactSearchHit contact, float[] vector) {
+        Integer previous = contactNodes.put(contact.id(), contacts.add(vector, contact));
+        if (previous != null) {
+            contacts.remove(previous);
+        }
+        payloadBytes.addAndGet(PAYLOAD_OVERHEAD_BYTES + chars(contact.firstName()) + chars(contact.lastName())
+                + chars(contact.email()) + chars(contact.notes()));
+    }
+
+    /**
+     * Nearest emails: the nearest chunks collapsed to their email at the distance of its best chunk, with the
+     * matched chunks in body order as the body.
+     */
+    List<EmailSearchHit> searchEmails(float[] query, int limit, int ef) {
+        Map<Long, List<HnswIndex.Result<EmailChunkEntry>>> byEmail = new LinkedHashMap<>();
+        for (HnswIndex.Result<EmailChunkEntry> hit : emailChunks.search(query, limit * CHUNKS_PER_EMAIL, ef)) {
+            byEmail.computeIfAbsent(hit.payload().email().id(), id -> new ArrayList<>()).add(hit);
+        }
+
+        List<EmailSearchHit> emails = new ArrayList<>();
+        for (List<HnswIndex.Result<EmailChunkEntry>> hits : byEmail.values()) {
+            if (emails.size() == limit) {
+                break;
+            }
+            // Results come nearest first, so the first hit of each email is its best chunk
+            EmailSearchHit email = hits.get(0).payload().email();
+            String body = hits.stream()
+                    .map(HnswIndex.Result::payload)
+                    .sorted(Comparator.comparingInt(EmailChunkEntry::chunkIndex))
+                    .map(EmailChunkEntry::content)
+                    .collect(Collectors.joining("\n…\n"));
+            emails.add(new EmailSearchHit(email.id(), email.gmailMessageId(), email.fromEmail(), email.fromName(),
+                    email.subject(), body, email.emailDate(), hits.get(0).distance()));
+        }
+        return emails;
+    }
+
+    List<ContactSearchHit> searchContacts(float[] query, int limit, int ef) {
+        return contacts.search(query, limit, ef).stream()
+                .map(hit -> {
+                    ContactSearchHit c = hit.payload();
+                    return new ContactSearchHit(c.id(), c.hubspotContactId(), c.firstName(), c.lastName(), c.email(),
+                            c.notes(), c.lastModified(), hit.distance());
+                })
+                .toList();
+    }
+
+    /**
+     * Approximate memory used, on and off the heap.
+     */
+    long bytes() {
+        return emailChunks.bytes() + contacts.bytes() + payloadBytes.get();
+    }
+
+    /**
+     * Releases the vector buffer room left over from loading, so the memory held matches {@link #bytes()}.
+     */
+    void trim() {
+        emailChunks.trim();
+        contacts.trim();
+    }
+
+    private static long chars(String text) {
+        return text != null ? 2L * text.length() : 0;
+    }
+}
@@ -0,0 +1,326 @@
+package com.agent.financial_advisor.services;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.CannotAcquireLockException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.JdbcTransactionManager;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Creates and maintains the ANN indexes on the embedding columns, and applies
+ * per-query search settings for them. With quantization enabled the index holds halfvec or binary
+ * vectors, and nearest-neighbour queries fetch extra candidates from it and rank them by exact distance.
+ *
+ * Embedding columns have no fixed size and each row records the model its vector came from, so vectors of
+ * several models can coexist while the corpus is re-embedded. Each model in use gets its own partial index.
+ */
+@Service
+@Slf4j
+public class VectorIndexService {
+
+    private static final List<String> VECTOR_TABLES = List.of("email_chunks", "hubspot_documents", "messages");
+
+    private final JdbcTemplate jdbcTemplate;
+    private final EmbeddingModelRegistry embeddingModels;
+    private final TransactionTemplate ddlTransaction;
+
+    @Value("${app.vector.index.type:hnsw}")
+    private String indexType; // hnsw, ivfflat or none
+
+    @Value("${app.vector.index.hnsw.m:16}")
+    private int hnswM;
+
+    @Value("${app.vector.index.hnsw.ef-construction:64}")
+    private int hnswEfConstruction;
+
+    @Value("${app.vector.index.ivfflat.lists:100}")
+    private int ivfflatLists;
+
+    // How long a schema change waits for its table lock per attempt, so it never queues live queries behind it
+    @Value("${app.vector.index.lock-timeout:5s}")
+    private Duration lockTimeout;
+
+    @Value("${app.vector.index.lock-attempts:3}")
+    private int lockAttempts;
+
+    @Value("${app.vector.index.quantization:none}")
+    private String quantizationSetting; // none, halfvec or binary
+
+    // Candidates read from a quantized index per requested row, before rescoring with full vectors
+    @Value("${app.vector.search.rescore-multiplier:4}")
+    private int rescoreMultiplier;
+
+    // Falls back to none when the installed pgvector has no halfvec / binary_quantize (before 0.7)
+    private volatile VectorQuantization quantization = VectorQuantization.NONE;
+
+    @Value("${app.vector.search.ef-search:40}")
+    private int defaultEfSearch;
+
+    @Value("${app.vector.search.probes:10}")
+    private int defaultProbes;
+
+    // Lets pgvector 0.8+ keep scanning when the user_id filter removes most ANN candidates
+    @Value("${app.vector.search.iterative-scan:relaxed_order}")
+    private String iterativeScan;
+
+    // Older pgvector versions reject unknown hnsw.* settings, which would abort the search transaction
+    private volatile boolean iterativeScanSupported;
+
+    public VectorIndexService(JdbcTemplate jdbcTemplate, EmbeddingModelRegistry embeddingModels,
+                              DataSource dataSource) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.embeddingModels = embeddingModels;
+        this.ddlTransaction = new TransactionTemplate(new JdbcTransactionManager(dataSource));
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        // Queries depend on the detected features and models, so settle them before serving searches
+        detectPgvectorFeatures();
+        for (String table : VECTOR_TABLES) {
+            try {
+                migrateEmbeddingColumn(table);
+            } catch (Exception e) {
+                log.error("❌ Failed to migrate the embedding column of {}: ", table, e);
+            }
+        }
+        refreshModelsInUse();
+        // Building an index over a large table takes a while, don't hold up startup
+        CompletableFuture.runAsync(this::ensureIndexes);
+    }
+
+    public synchronized void ensureIndexes() {
+        if ("none".equalsIgnoreCase(indexType)) {
+            return;
+        }
+
+        for (String table : VECTOR_TABLES) {
+            try {
+                Set<String> wanted = new LinkedHashSet<>();
+                for (EmbeddingModel model : embeddingModels.searchModels()) {
+                    wanted.add(ensureIndex(table, model));
+                }
+                dropOtherIndexes(table, wanted);
+            } catch (Exception e) {
+                log.error("❌ Failed to maintain vector index on {}: ", table, e);
+            }
+        }
+    }
+
+    /**
+     * Looks up which embedding models stored vectors are in and tells the registry, so searches also cover
+     * vectors not yet re-embedded. Returns whether the set of models changed.
+     */
+    public boolean refreshModelsInUse() {
+        Set<String> keys = new LinkedHashSet<>();
+        for (String table : VECTOR_TABLES) {
+            try {
+                keys.addAll(jdbcTemplate.queryForList(
+                        "SELECT DISTINCT embedding_model FROM " + table + " WHERE embedding_model IS NOT NULL",
+                        String.class));
+            } catch (Exception e) {
+                log.warn("Could not list embedding models in {}: {}", table, e.getMessage());
+            }
+        }
+        return embeddingModels.setModelKeysInUse(keys);
+    }
+
+    /**
+     * Applies ANN search settings for the current transaction only.
+     * Must be called inside the transaction that runs the similarity queries.
+     *
+     * @param candidates rows the query reads from the index, i.e. its inner LIMIT as given by {@link #annCandidates}
+     */
+    public void applySearchSettings(VectorSearchOptions options, int candidates) {
+        int efSearch = options.efSearch() != null ? options.efSearch() : defaultEfSearch;
+        int probes = options.probes() != null ? options.probes() : defaultProbes;
+
+        // ef_search below the LIMIT would silently return fewer rows
+        setLocal("hnsw.ef_search", String.valueOf(Math.max(efSearch, candidates)));
+        setLocal("ivfflat.probes", String.valueOf(probes));
+        if (iterativeScanSupported) {
+            setLocal("hnsw.iterative_scan", iterativeScan);
+            setLocal("ivfflat.iterative_scan", iterativeScan);
+        }
+    }
+
+    /**
+     * Caps how long the current transaction's statements may run, so an abandoned search stops holding its connection.
+     */
+    public void applyStatementTimeout(Duration timeout) {
+        setLocal("statement_timeout", String.valueOf(timeout.toMillis()));
+    }
+
+    /**
+     * The ANN ordering to use for the embedding column against the :embedding parameter.
+     * Only valid together with {@link #modelPredicate} for the same model.
+     */
+    public String nearestOrder(String column, EmbeddingModel model) {
+        return quantization.nearestOrder(column, model.dimensions());
+    }
+
+    /**
+     * Restricts a query to vectors of the given model. The key is inlined so the planner can match the
+     * model's partial index.
+     */
+    public String modelPredicate(String modelColumn, EmbeddingModel model) {
+        return modelColumn + " = " + model.sqlLiteral();
+    }
+
+    /**
+     * How many rows to read from the index for a query that returns limit rows.
+     */
+    public int annCandidates(int limit) {
+        return quantization == VectorQuantization.NONE ? limit : limit * rescoreMultiplier;
+    }
+
+    /**
+     * Wraps a nearest-neighbour query whose inner ORDER BY uses {@link #nearestOrder} with LIMIT :candidates
+     * and which selects the exact distance as "distance". With a quantized index the candidates are ranked
+     * again by that exact distance and cut to :limit; otherwise the query is already exact and is returned as is.
+     */
+    public String rescored(String sql) {
+        if (quantization == VectorQuantization.NONE) {
+            return sql;
+        }
+        return "SELECT * FROM (" + sql + ") candidates ORDER BY distance LIMIT :limit";
+    }
+
+    private void detectPgvectorFeatures() {
+        VectorQuantization requested = VectorQuantization.valueOf(quantizationSetting.toUpperCase());
+        try {
+            String version = jdbcTemplate.queryForObject(
+                    "SELECT extversion FROM pg_extension WHERE extname = 'vector'", String.class);
+            String[] parts = version.split("\\.");
+            int major = Integer.parseInt(parts[0]);
+            int minor = parts.length > 1 ? Integer.parseInt(parts[1]) : 0;
+            iterativeScanSupported = major > 0 || minor >= 8;
+            log.info("pgvector {} detected, iterative index scans {}", version,
+                    iterativeScanSupported ? "enabled" : "not available");
+
+            if (requested != VectorQuantization.NONE && major == 0 && minor < 7) {
+                log.warn("pgvector {} does not support {} quantization, using full vectors", version, quantizationSetting);
+                requested = VectorQuantization.NONE;
+            }
+        } catch (Exception e) {
+            log.warn("Could not detect pgvector version: {}", e.getMessage());
+        }
+        quantization = requested;
+    }
+
+    /**
+     * Drops the fixed vector(1536) size so other models' vectors fit, and tags existing vectors with the model
+     * they were embedded with. Dropping a type modifier doesn't rewrite the table, but indexes on the column
+     * have to go first; ensureIndexes rebuilds them per model.
+     */
+    private void migrateEmbeddingColumn(String table) {
+        Integer typmod = jdbcTemplate.queryForObject(
+                "SELECT atttypmod FROM pg_attribute WHERE attrelid = CAST(? AS regclass) AND attname = 'embedding'",
+                Integer.class, table);
+        if (typmod != null && typmod > 0) {
+            log.info("Removing the fixed size of {}.embedding", table);
+            dropOtherIndexes(table, Set.of());
+            if (!executeWithLockTimeout("ALTER TABLE " + table + " ALTER COLUMN embedding TYPE vector")) {
+                log.warn("Could not lock {} to remove the fixed size of its embedding column, " +
+                        "trying again on the next startup", table);
+            }
+        }
+
+        int tagged = jdbcTemplate.update("UPDATE " + table + " SET embedding_model = ? " +
+                "WHERE embedding IS NOT NULL AND embedding_model IS NULL", EmbeddingModelRegistry.LEGACY_MODEL.key());
+        if (tagged > 0) {
+            log.info("Tagged {} vectors in {} as {}", tagged, table, EmbeddingModelRegistry.LEGACY_MODEL.key());
+        }
+    }
+
+    private String ensureIndex(String table, EmbeddingModel model) {
+        String method = indexType.toLowerCase();
+        // Named by a hash of the model key to stay within Postgres' 63 character limit
+        String indexName = "idx_" + table + "_embedding_" + method + quantization.indexSuffix()
+                + "_" + Integer.toHexString(model.key().hashCode());
+        String withClause = "hnsw".equals(method)
+                ? String.format("m = %d, ef_construction = %d", hnswM, hnswEfConstruction)
+                : String.format("lists = %d", ivfflatLists);
+        String expectedParams = "hnsw".equals(method)
+                ? String.format("m='%d', ef_construction='%d'", hnswM, hnswEfConstruction)
+                : String.format("lists='%d'", ivfflatLists);
+
+        List<Map<String, Object>> existing = jdbcTemplate.queryForList(
+                "SELECT pg_get_indexdef(i.indexrelid) AS definition, i.indisvalid AS valid " +
+                        "FROM pg_index i JOIN pg_class c ON c.oid = i.indexrelid WHERE c.relname = ?",
+                indexName);
+
+        if (!existing.isEmpty()) {
+            String definition = (String) existing.get(0).get("definition");
+            boolean valid = Boolean.TRUE.equals(existing.get(0).get("valid"));
+            if (valid && definition.contains(expectedParams)) {
+                return indexName;
+            }
+            // Left invalid by an interrupted concurrent build, or built with old parameters
+            log.info("Rebuilding vector index {} (valid={}, definition={})", indexName, valid, definition);
+            jdbcTemplate.execute("DROP INDEX CONCURRENTLY IF EXISTS " + indexName);
+        }
+
+        log.info("Building {} vector index {} on {} for {}", method, indexName, table, model.key());
+        jdbcTemplate.execute(String.format(
+                "CREATE INDEX CONCURRENTLY IF NOT EXISTS %s ON %s USING %s (%s) WITH (%s) WHERE %s",
+                indexName, table, method, quantization.indexExpression("embedding", model.dimensions()), withClause,
+                modelPredicate("embedding_model", model)));
+
+        log.info("✅ Vector index {} is ready", indexName);
+        return indexName;
+    }
+
+    /**
+     * Switching index type, quantization or embedding model must not leave old indexes behind to slow down
+     * writes. Rows keep their full vectors, so a switch only means building the new index and dropping the old one.
+     */
+    private void dropOtherIndexes(String table, Set<String> keep) {
+        List<String> existing = new ArrayList<>(jdbcTemplate.queryForList(
+                "SELECT indexname FROM pg_indexes WHERE tablename = ? AND indexname LIKE ?",
+                String.class, table, "idx_" + table + "_embedding_%"));
+        for (String indexName : existing) {
+            if (!keep.contains(indexName)) {
+                log.info("Dropping vector index {}", indexName);
+                jdbcTemplate.execute("DROP INDEX CONCURRENTLY IF EXISTS " + indexName);
+            }
+        }
+    }
+
+    /**
+     * Runs a schema change that needs an exclusive lock on a live table. A change waiting for its lock would queue
+     * every later query on the table behind it, so each attempt gives up after the lock timeout.
+     * Returns false when no attempt got the lock.
+     */
+    private boolean executeWithLockTimeout(String ddl) {
+        for (int attempt = 1; attempt <= lockAttempts; attempt++) {
+            try {
+                ddlTransaction.executeWithoutResult(status -> {
+                    setLocal("lock_timeout", lockTimeout.toMillis() + "ms");
+                    jdbcTemplate.execute(ddl);
+                });
+                return true;
+            } catch (CannotAcquireLockException e) {
+                log.info("Timed out waiting for a table lock for \"{}\", attempt {} of {}", ddl, attempt, lockAttempts);
+            }
+        }
+        return false;
+    }
+
+    private void setLocal(String setting, String value) {
+        jdbcTemplate.queryForObject("SELECT set_config(?, ?, true)", String.class, setting, value);
+    }
+}
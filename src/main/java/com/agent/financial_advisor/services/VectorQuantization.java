@@ -0,0 +1,55 @@
+package com.agent.financial_advisor.services;
+
+/**
+ * How the ANN index stores embeddings. The table always keeps the full-precision vector column; a quantized
+ * index is an expression index over it, and searches rescore the index's candidates with the exact distance.
+ * The embedding column has no fixed size, so every expression first casts it to the model's dimensions.
+ */
+public enum VectorQuantization {
+
+    /** Full 4-byte floats in the index, no rescoring needed */
+    NONE("vector_l2_ops"),
+    /** 2-byte floats, half the index size, near-identical ranking */
+    HALFVEC("halfvec_l2_ops"),
+    /** One bit per dimension compared by Hamming distance, 1/32 of the index size, needs more candidates */
+    BINARY("bit_hamming_ops");
+
+    private final String operatorClass;
+
+    VectorQuantization(String operatorClass) {
+        this.operatorClass = operatorClass;
+    }
+
+    /**
+     * The column expression the index is built on, with its operator class.
+     */
+    String indexExpression(String column, int dimensions) {
+        return "(" + quantize(column, dimensions) + ") " + operatorClass;
+    }
+
+    /**
+     * The ANN ordering for the column against the :embedding parameter. It must repeat the indexed expression
+     * exactly for the planner to use the index.
+     */
+    String nearestOrder(String column, int dimensions) {
+        return switch (this) {
+            case NONE, HALFVEC -> quantize(column, dimensions) + " <-> " + quantize(":embedding", dimensions);
+            case BINARY -> quantize(column, dimensions) + " <~> " + quantize(":embedding", dimensions);
+        };
+    }
+
+    /**
+     * Appended to the index name, so switching quantization builds a new index instead of reusing the old one.
+     */
+    String indexSuffix() {
+        return this == NONE ? "" : "_" + name().toLowerCase();
+    }
+
+    private String quantize(String value, int dimensions) {
+        return switch (this) {
+            case NONE -> "CAST(" + value + " AS vector(" + dimensions + "))";
+            case HALFVEC -> "CAST(" + value + " AS halfvec(" + dimensions + "))";
+            case BINARY -> "CAST(binary_quantize(CAST(" + value + " AS vector(" + dimensions + "))) AS bit(" + dimensions + "))";
+        };
+    }
+}
@@ -0,0 +1,14 @@
+package com.agent.financial_advisor.services;
+
+/**
+ * Per-query ANN settings. A null value falls back to the configured default.
+ *
+ * @param efSearch HNSW candidate list size, higher means better recall and slower queries
+ * @param probes   IVFFlat lists to scan
+ */
+public record VectorSearchOptions(Integer efSearch, Integer probes) {
+
+    public static VectorSearchOptions defaults() {
+        return new VectorSearchOptions(null, null);
+    }
+}
@@ -0,0 +1,178 @@
+package com.agent.financial_advisor.services;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.Normalizer;
+import java.util.*;
+
+/**
+ * BERT's uncased tokenizer, as used by the MiniLM sentence embedding models: lower-cases and strips accents,
+ * splits on whitespace, punctuation and around CJK characters, then splits each word greedily into the
+ * longest word pieces in the vocabulary.
+ */
+final class WordPieceTokenizer {
+
+    // Longer "words" are almost always encoded data, not text
+    private static final int MAX_WORD_CHARS = 100;
+
+    private final Map<String, Integer> vocabulary;
+    private final int cls;
+    private final int sep;
+    private final int unknown;
+
+    private WordPieceTokenizer(Map<String, Integer> vocabulary) {
+        this.vocabulary = vocabulary;
+        this.cls = id("[CLS]");
+        this.sep = id("[SEP]");
+        this.unknown = id("[UNK]");
+    }
+
+    /**
+     * Reads a vocab.txt with one token per line, the line number being its id.
+     */
+    static WordPieceTokenizer load(Path vocabFile) throws IOException {
+        List<String> tokens = Files.readAllLines(vocabFile, StandardCharsets.UTF_8);
+        Map<String, Integer> vocabulary = new HashMap<>(tokens.size() * 2);
+        for (int i = 0; i < tokens.size(); i++) {
+            vocabulary.putIfAbsent(tokens.get(i).strip(), i);
+        }
+        return new WordPieceTokenizer(vocabulary);
+    }
+
+    /**
+     * Token ids of the text between [CLS] and [SEP], truncated to maxTokens ids in all.
+     */
+    int[] encode(String text, int maxTokens) {
+        int[] ids = new int[maxTokens];
+        int count = 0;
+        ids[count++] = cls;
+        List<Integer> pieces = new ArrayList<>();
+        for (String word : words(text)) {
+            pieces.clear();
+            wordPieces(word, pieces);
+            for (int piece : pieces) {
+                if (count == maxTokens - 1) {
+                    break;
+                }
+                ids[count++] = piece;
+            }
+        }
+        ids[count++] = sep;
+        return Arrays.copyOf(ids, count);
+    }
+
+    /**
+     * Number of word pieces in the text, not counting [CLS] and [SEP].
+     */
+    int count(String text) {
+        int count = 0;
+        List<Integer> pieces = new ArrayList<>();
+        for (String word : words(text)) {
+            pieces.clear();
+            wordPieces(word, pieces);
+            count += pieces.size();
+        }
+        return count;
+    }
+
+    private List<String> words(String text) {
+        List<String> words = new ArrayList<>();
+        if (text == null) {
+            return words;
+        }
+        // Decomposed, so accents become separate marks that can be dropped
+        String normalized = Normalizer.normalize(text.toLowerCase(Locale.ROOT), Normalizer.Form.NFD);
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i < normalized.length(); ) {
+            int c = normalized.codePointAt(i);
+            i += Character.charCount(c);
+
+            if (isWhitespace(c)) {
+                flush(word, words);
+            } else if (c == 0 || c == 0xFFFD || isControl(c) || Character.getType(c) == Character.NON_SPACING_MARK) {
+                continue;
+            } else if (isPunctuation(c) || isCjk(c)) {
+                flush(word, words);
+                words.add(new String(Character.toChars(c)));
+            } else {
+                word.appendCodePoint(c);
+            }
+        }
+        flush(word, words);
+        return words;
+    }
+
+    private void wordPieces(String word, List<Integer> pieces) {
+        if (word.length() > MAX_WORD_CHARS) {
+            pieces.add(unknown);
+            return;
+        }
+        int start = 0;
+        while (start < word.length()) {
+            Integer piece = null;
+            int end = word.length();
+            while (start < end) {
+                String candidate = start > 0 ? "##" + word.substring(start, end) : word.substring(start, end);
+                piece = vocabulary.get(candidate);
+                if (piece != null) {
+                    break;
+                }
+                end--;
+            }
+            if (piece == null) {
+                // A word with any part outside the vocabulary is unknown as a whole
+                pieces.clear();
+                pieces.add(unknown);
+                return;
+            }
+            pieces.add(piece);
+            start = end;
+        }
+    }
+
+    private int id(String token) {
+        Integer id = vocabulary.get(token);
+        if (id == null) {
+            throw new IllegalStateException("Vocabulary has no " + token + " token");
+        }
+        return id;
+    }
+
+    private static void flush(StringBuilder word, List<String> words) {
+        if (!word.isEmpty()) {
+            words.add(word.toString());
+            word.setLength(0);
+        }
+    }
+
+    private static boolean isWhitespace(int c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r' || Character.getType(c) == Character.SPACE_SEPARATOR;
+    }
+
+    private static boolean isControl(int c) {
+        int type = Character.getType(c);
+        return type == Character.CONTROL || type == Character.FORMAT;
+    }
+
+    /**
+     * All ASCII non-alphanumerics count as punctuation, like in BERT, so "$" and "^" are split off too.
+     */
+    private static boolean isPunctuation(int c) {
+        if ((c >= 33 && c <= 47) || (c >= 58 && c <= 64) || (c >= 91 && c <= 96) || (c >= 123 && c <= 126)) {
+            return true;
+        }
+        int type = Character.getType(c);
+        return type == Character.CONNECTOR_PUNCTUATION || type == Character.DASH_PUNCTUATION
+                || type == Character.START_PUNCTUATION || type == Character.END_PUNCTUATION
+                || type == Character.INITIAL_QUOTE_PUNCTUATION || type == Character.FINAL_QUOTE_PUNCTUATION
+                || type == Character.OTHER_PUNCTUATION;
+    }
+
+    private static boolean isCjk(int c) {
+        return (c >= 0x4E00 && c <= 0x9FFF) || (c >= 0x3400 && c <= 0x4DBF) || (c >= 0x20000 && c <= 0x2A6DF)
+                || (c >= 0x2A700 && c <= 0x2B81F) || (c >= 0x2B820 && c <= 0x2CEAF)
+                || (c >= 0xF900 && c <= 0xFAFF) || (c >= 0x2F800 && c <= 0x2FA1F);
+    }
+}
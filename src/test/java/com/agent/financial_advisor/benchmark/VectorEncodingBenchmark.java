@@ -0,0 +1,97 @@
+package com.agent.financial_advisor.benchmark;
+
+import com.agent.financial_advisor.services.OpenAIEmbeddingProvider;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.pgvector.PGvector;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Compares the old text path for query embeddings (JSON decimals -> List<Double> -> "[...]" string
+ * parameter) with the float[] path (base64 float32 -> float[] -> binary PGvector parameter).
+ *
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test
+ *   -Dexec.mainClass=com.agent.financial_advisor.benchmark.VectorEncodingBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class VectorEncodingBenchmark {
+
+    private static final int DIMENSIONS = 1536;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private String jsonEmbedding;
+    private String base64Embedding;
+    private List<Double> boxedEmbedding;
+    private float[] embedding;
+
+    @Setup
+    public void setUp() throws Exception {
+        Random random = new Random(42);
+        embedding = new float[DIMENSIONS];
+        boxedEmbedding = new ArrayList<>(DIMENSIONS);
+        for (int i = 0; i < DIMENSIONS; i++) {
+            embedding[i] = (float) random.nextGaussian() * 0.03f;
+            boxedEmbedding.add((double) embedding[i]);
+        }
+
+        jsonEmbedding = objectMapper.writeValueAsString(boxedEmbedding);
+
+        ByteBuffer buffer = ByteBuffer.allocate(DIMENSIONS * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.asFloatBuffer().put(embedding);
+        base64Embedding = Base64.getEncoder().encodeToString(buffer.array());
+    }
+
+    @Benchmark
+    public List<Double> decodeJsonDecimals() throws Exception {
+        return objectMapper.readValue(jsonEmbedding, new TypeReference<List<Double>>() {});
+    }
+
+    @Benchmark
+    public float[] decodeBase64Floats() {
+        return OpenAIEmbeddingProvider.decodeEmbedding(base64Embedding);
+    }
+
+    /**
+     * What RAGService.search used to send: a decimal string the server parses with CAST(... AS vector)
+     */
+    @Benchmark
+    public byte[] encodeStringParameter() {
+        String embeddingStr = "[" + boxedEmbedding.stream()
+                .map(String::valueOf)
+                .collect(Collectors.joining(",")) + "]";
+        return embeddingStr.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * What the driver sends for a PGvector parameter once the vector type is registered on the connection
+     */
+    @Benchmark
+    public byte[] encodeBinaryParameter() {
+        PGvector vector = new PGvector(embedding);
+        byte[] bytes = new byte[vector.lengthInBytes()];
+        vector.toBytes(bytes, 0);
+        return bytes;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(VectorEncodingBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
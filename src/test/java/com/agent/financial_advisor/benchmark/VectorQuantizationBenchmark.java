@@ -0,0 +1,285 @@
+package com.agent.financial_advisor.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Recall/latency trade-off of the vector quantizations VectorIndexService can index with: a scan over full
+ * float vectors against scans over halfvec and binary-quantized copies whose top candidates are rescored with
+ * the full vectors, as the repository queries do. The recall@10 of each quantized search against the exact
+ * result is printed at setup for the rescore multiplier being measured.
+ *
+ * This measures the distance computations over an in-memory brute-force scan, not pgvector's index traversal,
+ * but the per-vector cost and bytes read scale the same way: 6 KB, 3 KB and 192 bytes per 1536-dimension vector.
+ *
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test
+ *   -Dexec.mainClass=com.agent.financial_advisor.benchmark.VectorQuantizationBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class VectorQuantizationBenchmark {
+
+    private static final int DIMENSIONS = 1536;
+    private static final int DOCUMENTS = 10_000;
+    private static final int QUERIES = 50;
+    private static final int TOPICS = 100;
+    private static final int K = 10;
+
+    // Decoding halves bit by bit would dominate the scan; pgvector converts in native code
+    private static final float[] HALF_TO_FLOAT = new float[1 << 16];
+
+    static {
+        for (int i = 0; i < HALF_TO_FLOAT.length; i++) {
+            HALF_TO_FLOAT[i] = fromHalf((short) i);
+        }
+    }
+
+    @Param({"1", "4", "10"})
+    private int rescoreMultiplier;
+
+    private float[][] vectors;
+    private short[][] halfVectors;
+    private long[][] binaryVectors;
+    private float[][] queries;
+    private short[][] halfQueries;
+    private long[][] binaryQueries;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+
+        // Real embeddings cluster by topic, which is what lets binary quantization keep useful recall
+        float[][] topics = new float[TOPICS][];
+        for (int t = 0; t < TOPICS; t++) {
+            topics[t] = gaussian(random, 1.0f);
+        }
+        vectors = new float[DOCUMENTS][];
+        for (int i = 0; i < DOCUMENTS; i++) {
+            vectors[i] = normalize(add(topics[random.nextInt(TOPICS)], gaussian(random, 0.7f)));
+        }
+        queries = new float[QUERIES][];
+        for (int i = 0; i < QUERIES; i++) {
+            queries[i] = normalize(add(topics[random.nextInt(TOPICS)], gaussian(random, 0.7f)));
+        }
+
+        halfVectors = Arrays.stream(vectors).map(VectorQuantizationBenchmark::toHalf).toArray(short[][]::new);
+        binaryVectors = Arrays.stream(vectors).map(VectorQuantizationBenchmark::toBits).toArray(long[][]::new);
+        halfQueries = Arrays.stream(queries).map(VectorQuantizationBenchmark::toHalf).toArray(short[][]::new);
+        binaryQueries = Arrays.stream(queries).map(VectorQuantizationBenchmark::toBits).toArray(long[][]::new);
+
+        double halfRecall = 0;
+        double binaryRecall = 0;
+        for (int q = 0; q < QUERIES; q++) {
+            Set<Integer> exact = toSet(exactSearch(q));
+            halfRecall += overlap(exact, halfvecSearch(q)) / (double) K;
+            binaryRecall += overlap(exact, binarySearch(q)) / (double) K;
+        }
+        System.out.printf("%nrecall@%d with rescore multiplier %d: halfvec %.3f, binary %.3f%n",
+                K, rescoreMultiplier, halfRecall / QUERIES, binaryRecall / QUERIES);
+    }
+
+    @Benchmark
+    public int[] exact() {
+        return exactSearch(nextQuery());
+    }
+
+    @Benchmark
+    public int[] halfvecRescored() {
+        return halfvecSearch(nextQuery());
+    }
+
+    @Benchmark
+    public int[] binaryRescored() {
+        return binarySearch(nextQuery());
+    }
+
+    private int nextQuery() {
+        next = (next + 1) % QUERIES;
+        return next;
+    }
+
+    private int[] exactSearch(int q) {
+        double[] distances = new double[DOCUMENTS];
+        for (int i = 0; i < DOCUMENTS; i++) {
+            distances[i] = l2(queries[q], vectors[i]);
+        }
+        return nearest(distances, K);
+    }
+
+    private int[] halfvecSearch(int q) {
+        double[] distances = new double[DOCUMENTS];
+        for (int i = 0; i < DOCUMENTS; i++) {
+            distances[i] = l2(halfQueries[q], halfVectors[i]);
+        }
+        return rescore(q, nearest(distances, K * rescoreMultiplier));
+    }
+
+    private int[] binarySearch(int q) {
+        double[] distances = new double[DOCUMENTS];
+        for (int i = 0; i < DOCUMENTS; i++) {
+            distances[i] = hamming(binaryQueries[q], binaryVectors[i]);
+        }
+        return rescore(q, nearest(distances, K * rescoreMultiplier));
+    }
+
+    /**
+     * Ranks the candidates by exact distance and keeps the best K, like the outer query of a rescored search
+     */
+    private int[] rescore(int q, int[] candidates) {
+        double[] distances = new double[candidates.length];
+        for (int i = 0; i < candidates.length; i++) {
+            distances[i] = l2(queries[q], vectors[candidates[i]]);
+        }
+        int[] best = nearest(distances, K);
+        int[] result = new int[best.length];
+        for (int i = 0; i < best.length; i++) {
+            result[i] = candidates[best[i]];
+        }
+        return result;
+    }
+
+    private static int[] nearest(double[] distances, int n) {
+        PriorityQueue<Integer> worstFirst = new PriorityQueue<>(
+                Comparator.comparingDouble((Integer i) -> distances[i]).reversed());
+        for (int i = 0; i < distances.length; i++) {
+            worstFirst.add(i);
+            if (worstFirst.size() > n) {
+                worstFirst.poll();
+            }
+        }
+        int[] result = new int[worstFirst.size()];
+        for (int i = result.length - 1; i >= 0; i--) {
+            result[i] = worstFirst.poll();
+        }
+        return result;
+    }
+
+    private static double l2(float[] a, float[] b) {
+        double sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            double d = a[i] - b[i];
+            sum += d * d;
+        }
+        return sum;
+    }
+
+    private static double l2(short[] a, short[] b) {
+        double sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            double d = HALF_TO_FLOAT[a[i] & 0xffff] - HALF_TO_FLOAT[b[i] & 0xffff];
+            sum += d * d;
+        }
+        return sum;
+    }
+
+    private static int hamming(long[] a, long[] b) {
+        int distance = 0;
+        for (int i = 0; i < a.length; i++) {
+            distance += Long.bitCount(a[i] ^ b[i]);
+        }
+        return distance;
+    }
+
+    /**
+     * IEEE half precision as stored by pgvector's halfvec, rounding to nearest; values too small for a
+     * normal half are flushed to zero, which doesn't matter at embedding magnitudes
+     */
+    private static short[] toHalf(float[] vector) {
+        short[] half = new short[vector.length];
+        for (int i = 0; i < vector.length; i++) {
+            int bits = Float.floatToIntBits(vector[i]);
+            int sign = (bits >>> 16) & 0x8000;
+            int exponent = ((bits >>> 23) & 0xff) - 127 + 15;
+            int mantissa = bits & 0x7fffff;
+            if (exponent <= 0) {
+                half[i] = (short) sign;
+            } else if (exponent >= 31) {
+                half[i] = (short) (sign | 0x7c00);
+            } else {
+                half[i] = (short) (sign | ((exponent << 10) + ((mantissa + 0x1000) >> 13)));
+            }
+        }
+        return half;
+    }
+
+    private static float fromHalf(short half) {
+        int sign = (half & 0x8000) << 16;
+        int exponent = (half >>> 10) & 0x1f;
+        int mantissa = half & 0x3ff;
+        if (exponent == 0) {
+            return Float.intBitsToFloat(sign);
+        }
+        return Float.intBitsToFloat(sign | ((exponent - 15 + 127) << 23) | (mantissa << 13));
+    }
+
+    /**
+     * pgvector's binary_quantize: one bit per dimension, set where the value is positive
+     */
+    private static long[] toBits(float[] vector) {
+        long[] bits = new long[(vector.length + 63) / 64];
+        for (int i = 0; i < vector.length; i++) {
+            if (vector[i] > 0) {
+                bits[i / 64] |= 1L << (i % 64);
+            }
+        }
+        return bits;
+    }
+
+    private static float[] gaussian(Random random, float scale) {
+        float[] vector = new float[DIMENSIONS];
+        for (int i = 0; i < DIMENSIONS; i++) {
+            vector[i] = (float) random.nextGaussian() * scale;
+        }
+        return vector;
+    }
+
+    private static float[] add(float[] a, float[] b) {
+        float[] sum = new float[a.length];
+        for (int i = 0; i < a.length; i++) {
+            sum[i] = a[i] + b[i];
+        }
+        return sum;
+    }
+
+    private static float[] normalize(float[] vector) {
+        double norm = Math.sqrt(l2(vector, new float[vector.length]));
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] /= (float) norm;
+        }
+        return vector;
+    }
+
+    private static Set<Integer> toSet(int[] ids) {
+        Set<Integer> set = new HashSet<>();
+        for (int id : ids) {
+            set.add(id);
+        }
+        return set;
+    }
+
+    private static int overlap(Set<Integer> expected, int[] actual) {
+        int matches = 0;
+        for (int id : actual) {
+            if (expected.contains(id)) {
+                matches++;
+            }
+        }
+        return matches;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(VectorQuantizationBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
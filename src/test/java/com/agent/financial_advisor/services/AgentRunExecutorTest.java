@@ -0,0 +1,193 @@
+package com.agent.financial_advisor.services;
+
+import com.agent.financial_advisor.model.User;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class AgentRunExecutorTest {
+
+    private static final long TIMEOUT_SECONDS = 5;
+
+    private AgentRunExecutor executor;
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdown();
+    }
+
+    @Test
+    void usesTheRequestedRunIdOrGeneratesOne() throws InterruptedException {
+        executor = executor(2, 10, 5);
+        List<String> runIds = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(2);
+
+        String requested = executor.submit(user(1), "client-run-1", runId -> {
+            runIds.add(runId);
+            done.countDown();
+        });
+        String generated = executor.submit(user(1), " ", runId -> {
+            runIds.add(runId);
+            done.countDown();
+        });
+
+        assertThat(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS)).isTrue();
+        assertThat(requested).isEqualTo("client-run-1");
+        assertThat(generated).isNotBlank().isNotEqualTo(requested);
+        assertThat(runIds).containsExactly(requested, generated);
+    }
+
+    @Test
+    void runsOneUsersRunsOneAtATimeInSubmissionOrder() throws InterruptedException {
+        executor = executor(4, 10, 10);
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(8);
+
+        List<String> submitted = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            submitted.add(executor.submit(user(1), "run-" + i, runId -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                sleep(5);
+                order.add(runId);
+                running.decrementAndGet();
+                done.countDown();
+            }));
+        }
+
+        assertThat(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS)).isTrue();
+        assertThat(order).containsExactlyElementsOf(submitted);
+        assertThat(maxRunning.get()).isEqualTo(1);
+    }
+
+    @Test
+    void differentUsersRunInParallel() throws InterruptedException {
+        executor = executor(2, 10, 5);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch otherUserDone = new CountDownLatch(1);
+
+        executor.submit(user(1), null, blockUntil(release));
+        executor.submit(user(2), null, runId -> otherUserDone.countDown());
+
+        assertThat(otherUserDone.await(TIMEOUT_SECONDS, TimeUnit.SECONDS)).isTrue();
+        release.countDown();
+    }
+
+    @Test
+    void rejectsRunsBeyondTheUsersPendingLimit() throws InterruptedException {
+        executor = executor(2, 10, 2);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(2);
+
+        executor.submit(user(1), null, blockUntil(release));
+        executor.submit(user(1), null, runId -> done.countDown());
+
+        assertThatThrownBy(() -> executor.submit(user(1), null, runId -> {
+        })).isInstanceOf(RejectedExecutionException.class).hasMessageContaining("Too many pending requests");
+        executor.submit(user(2), null, runId -> done.countDown());
+
+        release.countDown();
+        assertThat(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Test
+    void aRunRejectedByTheFullPoolLeavesNothingQueued() throws InterruptedException {
+        executor = executor(1, 1, 5);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(2);
+
+        executor.submit(user(1), null, blockUntil(release));
+        executor.submit(user(2), null, runId -> done.countDown());
+
+        assertThatThrownBy(() -> executor.submit(user(3), null, runId -> {
+        })).isInstanceOf(RejectedExecutionException.class).hasMessageContaining("busy");
+
+        release.countDown();
+        // The rejected run left no entry behind, so the user's next run starts a drain of its own
+        assertThat(awaitAccepted(user(3), done)).isTrue();
+        assertThat(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Test
+    void aFailingRunDoesNotHoldUpTheNextOne() throws InterruptedException {
+        executor = executor(2, 10, 5);
+        CountDownLatch done = new CountDownLatch(2);
+
+        executor.submit(user(1), null, runId -> {
+            done.countDown();
+            throw new IllegalStateException("Agent run failed");
+        });
+        executor.submit(user(1), null, runId -> {
+            done.countDown();
+            throw new AssertionError("Agent run failed with an error");
+        });
+        CountDownLatch next = new CountDownLatch(1);
+        executor.submit(user(1), null, runId -> next.countDown());
+
+        assertThat(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS)).isTrue();
+        assertThat(next.await(TIMEOUT_SECONDS, TimeUnit.SECONDS)).isTrue();
+    }
+
+    /**
+     * Submits until the pool has room again, which it has once the blocked run has finished.
+     */
+    private boolean awaitAccepted(User user, CountDownLatch done) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+        while (System.nanoTime() < deadline) {
+            try {
+                executor.submit(user, null, runId -> done.countDown());
+                return true;
+            } catch (RejectedExecutionException e) {
+                Thread.sleep(10);
+            }
+        }
+        return false;
+    }
+
+    private static AgentRunExecutor executor(int concurrency, int queueCapacity, int maxPendingPerUser) {
+        AgentRunExecutor executor = new AgentRunExecutor();
+        ReflectionTestUtils.setField(executor, "concurrency", concurrency);
+        ReflectionTestUtils.setField(executor, "queueCapacity", queueCapacity);
+        ReflectionTestUtils.setField(executor, "maxPendingPerUser", maxPendingPerUser);
+        executor.init();
+        return executor;
+    }
+
+    private static User user(long id) {
+        User user = new User();
+        user.setId(id);
+        user.setEmail("user" + id + "@example.com");
+        return user;
+    }
+
+    private static Consumer<String> blockUntil(CountDownLatch release) {
+        return runId -> {
+            try {
+                release.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.agent.financial_advisor.services;
+
+import com.agent.financial_advisor.model.ContactSearchHit;
+import com.agent.financial_advisor.model.EmailSearchHit;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ContextPackerTest {
+
+    private static final String LETTER = "Hello Anna. Hope you are well. The invoice for March is overdue. " +
+            "We had a great time at the dinner. Please settle the invoice soon. Best regards.";
+
+    private final PromptAssembler promptAssembler = new PromptAssembler();
+    private ContextPacker packer;
+
+    @BeforeEach
+    void setUp() {
+        packer = new ContextPacker(promptAssembler);
+        ReflectionTestUtils.setField(packer, "passagesPerDocument", 3);
+    }
+
+    @Test
+    void snippetReturnsShortTextsWhole() {
+        assertThat(packer.snippet("Hello Anna. Hope you are well.", Set.of("invoice")))
+                .isEqualTo("Hello Anna. Hope you are well.");
+        assertThat(packer.snippet("  ", Set.of("invoice"))).isEmpty();
+        assertThat(packer.snippet(null, Set.of("invoice"))).isEmpty();
+    }
+
+    @Test
+    void snippetKeepsTheBestMatchingPassagesInDocumentOrder() {
+        assertThat(packer.snippet(LETTER, Set.of("invoice", "overdue")))
+                .isEqualTo("Hello Anna. … The invoice for March is overdue. … Please settle the invoice soon. …");
+    }
+
+    @Test
+    void snippetFallsBackToTheOpeningPassages() {
+        assertThat(packer.snippet(LETTER, Set.of("zebra")))
+                .isEqualTo("Hello Anna. Hope you are well. The invoice for March is overdue. …");
+    }
+
+    @Test
+    void packMergesLegacyChunksOfOneEmail() {
+        List<EmailSearchHit> emails = List.of(
+                email("msg1_chunk_1", "Quarterly review [Part 2]", "Second part about the bond ladder.", 0.2),
+                email("msg1_chunk_0", "Quarterly review [Part 1]", "First part about the portfolio.", 0.4));
+
+        String context = packer.pack("bond ladder", emails, List.of(), 1000);
+
+        assertThat(context).containsOnlyOnce("From: ");
+        assertThat(context).contains("Subject: Quarterly review\n");
+        assertThat(context).contains("Body: First part about the portfolio. Second part about the bond ladder.\n");
+    }
+
+    @Test
+    void packSkipsNearDuplicates() {
+        String body = "Let us meet next Tuesday to go over the retirement plan and the new account paperwork.";
+        List<EmailSearchHit> emails = List.of(
+                email("msg1", "Retirement plan", body, 0.1),
+                email("msg2", "Retirement plan", body, 0.1));
+
+        assertThat(packer.pack("retirement", emails, List.of(), 1000)).containsOnlyOnce("From: ");
+    }
+
+    @Test
+    void packAlternatesSourcesWithinTheBudget() {
+        List<EmailSearchHit> emails = new ArrayList<>();
+        List<ContactSearchHit> contacts = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            emails.add(email("msg" + i, "Update " + i, distinctWords("email" + i), 0.1 * i));
+            contacts.add(new ContactSearchHit((long) i, "contact" + i, "First" + i, "Last" + i,
+                    "contact" + i + "@example.com", distinctWords("contact" + i), null, 0.1 * i));
+        }
+
+        String context = packer.pack("update", emails, contacts, 300);
+
+        assertThat(promptAssembler.countTokens(OpenAIService.CHAT_MODEL, context)).isLessThanOrEqualTo(300);
+        assertThat(context).startsWith("=== Relevant Emails ===\nFrom: ");
+        assertThat(context).contains("\n=== Relevant Contacts ===\nContact: First0 Last0\n");
+        assertThat(context).doesNotContain("Update 9");
+    }
+
+    private static EmailSearchHit email(String messageId, String subject, String body, double distance) {
+        return new EmailSearchHit(1L, messageId, "anna@example.com", "Anna", subject, body,
+                LocalDateTime.of(2024, 3, 1, 9, 0), distance);
+    }
+
+    private static String distinctWords(String prefix) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 20; i++) {
+            text.append(prefix).append("note").append(i).append(' ');
+        }
+        return text.toString().trim() + ".";
+    }
+}
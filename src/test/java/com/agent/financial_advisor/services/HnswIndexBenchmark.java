@@ -0,0 +1,223 @@
+package com.agent.financial_advisor.services;
+
+import com.agent.financial_advisor.model.ContactSearchHit;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Search latency and recall of the in-memory HNSW index against an exact brute-force scan over the same seeded
+ * vectors. At setup it prints the recall@10 of the ef being measured for three cases: an intact index, the same
+ * index after a tenth of its nodes were removed, and a contact index in which a fifth of the contacts were
+ * replaced by updated vectors, where a result is only correct if it carries the contact's current vector.
+ *
+ * Lives next to HnswIndex because the index is package-private.
+ *
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test
+ *   -Dexec.mainClass=com.agent.financial_advisor.services.HnswIndexBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HnswIndexBenchmark {
+
+    private static final int DIMENSIONS = 1536;
+    private static final int DOCUMENTS = 10_000;
+    private static final int CONTACTS = 2_000;
+    private static final int QUERIES = 50;
+    private static final int TOPICS = 100;
+    private static final int K = 10;
+    private static final int M = 16;
+    private static final int EF_CONSTRUCTION = 64;
+
+    @Param({"10", "40", "100"})
+    private int ef;
+
+    private Random random;
+    private float[][] topics;
+    private float[][] vectors;
+    private float[][] queries;
+    private HnswIndex<Integer> index;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        random = new Random(42);
+        // Real embeddings cluster by topic, which is harder for a graph index than uniform noise
+        topics = new float[TOPICS][];
+        for (int t = 0; t < TOPICS; t++) {
+            topics[t] = gaussian(1.0f);
+        }
+        vectors = new float[DOCUMENTS][];
+        index = new HnswIndex<>(DIMENSIONS, M, EF_CONSTRUCTION);
+        for (int i = 0; i < DOCUMENTS; i++) {
+            vectors[i] = clustered();
+            index.add(vectors[i], i);
+        }
+        queries = new float[QUERIES][];
+        for (int q = 0; q < QUERIES; q++) {
+            queries[q] = clustered();
+        }
+
+        double intact = recall(index, new BitSet());
+
+        HnswIndex<Integer> withRemovals = new HnswIndex<>(DIMENSIONS, M, EF_CONSTRUCTION);
+        for (int i = 0; i < DOCUMENTS; i++) {
+            withRemovals.add(vectors[i], i);
+        }
+        BitSet removed = new BitSet();
+        for (int i = 0; i < DOCUMENTS; i += 10) {
+            withRemovals.remove(i);
+            removed.set(i);
+        }
+        double afterRemovals = recall(withRemovals, removed);
+
+        System.out.printf("%nrecall@%d at ef %d: intact %.3f, 10%% removed %.3f, 20%% of contacts replaced %.3f%n",
+                K, ef, intact, afterRemovals, contactReplacementRecall());
+    }
+
+    @Benchmark
+    public List<HnswIndex.Result<Integer>> hnsw() {
+        return index.search(queries[nextQuery()], K, ef);
+    }
+
+    @Benchmark
+    public int[] bruteForce() {
+        return exactSearch(vectors, new BitSet(), queries[nextQuery()]);
+    }
+
+    private int nextQuery() {
+        next = (next + 1) % QUERIES;
+        return next;
+    }
+
+    private double recall(HnswIndex<Integer> hnsw, BitSet removed) {
+        double recall = 0;
+        for (float[] query : queries) {
+            Set<Integer> exact = toSet(exactSearch(vectors, removed, query));
+            int matches = 0;
+            for (HnswIndex.Result<Integer> result : hnsw.search(query, K, ef)) {
+                if (exact.contains(result.payload())) {
+                    matches++;
+                }
+            }
+            recall += matches / (double) K;
+        }
+        return recall / QUERIES;
+    }
+
+    /**
+     * Adds every contact, then re-adds a fifth of them with a new vector as an update does, and compares the
+     * search with the exact neighbours among the current vectors. A stale contact version counts as a miss.
+     */
+    private double contactReplacementRecall() {
+        UserVectorIndex contacts = new UserVectorIndex(new EmbeddingModel("benchmark", DIMENSIONS, 1), M,
+                EF_CONSTRUCTION);
+        float[][] current = new float[CONTACTS][];
+        int[] versions = new int[CONTACTS];
+        for (int i = 0; i < CONTACTS; i++) {
+            current[i] = clustered();
+            contacts.addContact(contact(i, 0), current[i]);
+        }
+        for (int i = 0; i < CONTACTS; i += 5) {
+            current[i] = clustered();
+            versions[i] = 1;
+            contacts.addContact(contact(i, 1), current[i]);
+        }
+
+        double recall = 0;
+        for (float[] query : queries) {
+            Set<Integer> exact = toSet(exactSearch(current, new BitSet(), query));
+            int matches = 0;
+            for (ContactSearchHit hit : contacts.searchContacts(query, K, ef)) {
+                int id = hit.id().intValue();
+                if (exact.contains(id) && hit.hubspotContactId().equals(id + "@" + versions[id])) {
+                    matches++;
+                }
+            }
+            recall += matches / (double) K;
+        }
+        return recall / QUERIES;
+    }
+
+    private static ContactSearchHit contact(int id, int version) {
+        return new ContactSearchHit((long) id, id + "@" + version, null, null, null, null, null, 0);
+    }
+
+    private static int[] exactSearch(float[][] candidates, BitSet removed, float[] query) {
+        PriorityQueue<Integer> worstFirst = new PriorityQueue<>(
+                Comparator.comparingDouble((Integer i) -> l2(query, candidates[i])).reversed());
+        for (int i = 0; i < candidates.length; i++) {
+            if (removed.get(i)) {
+                continue;
+            }
+            worstFirst.add(i);
+            if (worstFirst.size() > K) {
+                worstFirst.poll();
+            }
+        }
+        int[] result = new int[worstFirst.size()];
+        for (int i = result.length - 1; i >= 0; i--) {
+            result[i] = worstFirst.poll();
+        }
+        return result;
+    }
+
+    private float[] clustered() {
+        return normalize(add(topics[random.nextInt(TOPICS)], gaussian(0.7f)));
+    }
+
+    private float[] gaussian(float scale) {
+        float[] vector = new float[DIMENSIONS];
+        for (int i = 0; i < DIMENSIONS; i++) {
+            vector[i] = (float) random.nextGaussian() * scale;
+        }
+        return vector;
+    }
+
+    private static double l2(float[] a, float[] b) {
+        double sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            double d = a[i] - b[i];
+            sum += d * d;
+        }
+        return sum;
+    }
+
+    private static float[] add(float[] a, float[] b) {
+        float[] sum = new float[a.length];
+        for (int i = 0; i < a.length; i++) {
+            sum[i] = a[i] + b[i];
+        }
+        return sum;
+    }
+
+    private static float[] normalize(float[] vector) {
+        double norm = Math.sqrt(l2(vector, new float[vector.length]));
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] /= (float) norm;
+        }
+        return vector;
+    }
+
+    private static Set<Integer> toSet(int[] ids) {
+        Set<Integer> set = new HashSet<>();
+        for (int id : ids) {
+            set.add(id);
+        }
+        return set;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(HnswIndexBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
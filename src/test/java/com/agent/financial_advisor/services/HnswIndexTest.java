@@ -0,0 +1,141 @@
+package com.agent.financial_advisor.services;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
+
+class HnswIndexTest {
+
+    private static final int DIMENSIONS = 32;
+    private static final int VECTORS = 2_000;
+    private static final int QUERIES = 50;
+    private static final int K = 10;
+    private static final int EF = 100;
+
+    private final Random random = new Random(7);
+    private float[][] vectors;
+    private float[][] queries;
+    private HnswIndex<Integer> index;
+
+    @BeforeEach
+    void setUp() {
+        vectors = new float[VECTORS][];
+        index = new HnswIndex<>(DIMENSIONS, 16, 64);
+        for (int i = 0; i < VECTORS; i++) {
+            vectors[i] = gaussian();
+            index.add(vectors[i], i);
+        }
+        queries = new float[QUERIES][];
+        for (int q = 0; q < QUERIES; q++) {
+            queries[q] = gaussian();
+        }
+    }
+
+    @Test
+    void anEmptyIndexFindsNothing() {
+        assertThat(new HnswIndex<Integer>(DIMENSIONS, 16, 64).search(gaussian(), K, EF)).isEmpty();
+    }
+
+    @Test
+    void findsAStoredVectorItselfFirst() {
+        List<HnswIndex.Result<Integer>> results = index.search(vectors[123], K, EF);
+
+        assertThat(results.get(0).payload()).isEqualTo(123);
+        assertThat(results.get(0).distance()).isZero();
+    }
+
+    @Test
+    void returnsResultsNearestFirstWithTheirEuclideanDistance() {
+        List<HnswIndex.Result<Integer>> results = index.search(queries[0], K, EF);
+
+        assertThat(results).hasSize(K);
+        assertThat(results).isSortedAccordingTo(Comparator.comparingDouble(HnswIndex.Result::distance));
+        for (HnswIndex.Result<Integer> result : results) {
+            assertThat(result.distance())
+                    .isCloseTo(Math.sqrt(l2(queries[0], vectors[result.payload()])), within(1e-3));
+        }
+    }
+
+    @Test
+    void recallMatchesAnExactScan() {
+        assertThat(recall(new BitSet())).isGreaterThanOrEqualTo(0.95);
+    }
+
+    @Test
+    void removedVectorsAreNeverReturnedAndRecallHolds() {
+        BitSet removed = new BitSet();
+        for (int i = 0; i < VECTORS; i += 10) {
+            index.remove(i);
+            removed.set(i);
+        }
+
+        for (float[] query : queries) {
+            List<HnswIndex.Result<Integer>> results = index.search(query, K, EF);
+            assertThat(results).hasSize(K);
+            assertThat(results).noneMatch(result -> removed.get(result.payload()));
+        }
+        assertThat(index.search(vectors[0], K, EF)).extracting(HnswIndex.Result::payload).doesNotContain(0);
+        assertThat(recall(removed)).isGreaterThanOrEqualTo(0.95);
+    }
+
+    @Test
+    void trimKeepsTheVectors() {
+        List<HnswIndex.Result<Integer>> before = index.search(queries[0], K, EF);
+        long bytes = index.bytes();
+
+        index.trim();
+
+        assertThat(index.search(queries[0], K, EF)).isEqualTo(before);
+        assertThat(index.bytes()).isEqualTo(bytes);
+    }
+
+    @Test
+    void rejectsVectorsOfAnotherSize() {
+        assertThatThrownBy(() -> index.add(new float[DIMENSIONS + 1], -1))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private double recall(BitSet removed) {
+        double recall = 0;
+        for (float[] query : queries) {
+            Set<Integer> exact = new HashSet<>(Arrays.asList(IntStream.range(0, VECTORS)
+                    .filter(i -> !removed.get(i))
+                    .boxed()
+                    .sorted(Comparator.comparingDouble(i -> l2(query, vectors[i])))
+                    .limit(K)
+                    .toArray(Integer[]::new)));
+            recall += index.search(query, K, EF).stream().filter(result -> exact.contains(result.payload())).count()
+                    / (double) K;
+        }
+        return recall / QUERIES;
+    }
+
+    private float[] gaussian() {
+        float[] vector = new float[DIMENSIONS];
+        for (int i = 0; i < DIMENSIONS; i++) {
+            vector[i] = (float) random.nextGaussian();
+        }
+        return vector;
+    }
+
+    private static double l2(float[] a, float[] b) {
+        double sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            double d = a[i] - b[i];
+            sum += d * d;
+        }
+        return sum;
+    }
+}
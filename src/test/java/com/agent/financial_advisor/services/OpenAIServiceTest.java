@@ -0,0 +1,72 @@
+package com.agent.financial_advisor.services;
+
+import okio.Buffer;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class OpenAIServiceTest {
+
+    private final OpenAIService openAIService = new OpenAIService(null, null);
+
+    @Test
+    void streamsContentTokensAndJoinsThem() throws IOException {
+        List<String> tokens = new ArrayList<>();
+
+        ChatTurn turn = openAIService.readStream(stream(
+                ": keep-alive",
+                "data: {\"choices\":[{\"delta\":{\"role\":\"assistant\",\"content\":\"\"}}]}",
+                "",
+                "data: {\"choices\":[{\"delta\":{\"content\":\"Your next \"}}]}",
+                "data: {\"choices\":[{\"delta\":{\"content\":\"meeting is at 3pm.\"}}]}",
+                "data: {\"choices\":[{\"delta\":{},\"finish_reason\":\"stop\"}]}",
+                "data: [DONE]",
+                "data: {\"choices\":[{\"delta\":{\"content\":\"ignored\"}}]}"), tokens::add);
+
+        assertThat(tokens).containsExactly("Your next ", "meeting is at 3pm.");
+        assertThat(turn.content()).isEqualTo("Your next meeting is at 3pm.");
+        assertThat(turn.hasToolCalls()).isFalse();
+    }
+
+    @Test
+    void assemblesToolCallFragmentsByIndex() throws IOException {
+        List<String> tokens = new ArrayList<>();
+
+        ChatTurn turn = openAIService.readStream(stream(
+                "data: {\"choices\":[{\"delta\":{\"tool_calls\":[{\"index\":0,\"id\":\"call_a\",\"type\":\"function\"," +
+                        "\"function\":{\"name\":\"search_emails\",\"arguments\":\"\"}}]}}]}",
+                "data: {\"choices\":[{\"delta\":{\"tool_calls\":[{\"index\":0,\"function\":{\"arguments\":\"{\\\"que\"}}]}}]}",
+                "data: {\"choices\":[{\"delta\":{\"tool_calls\":[{\"index\":1,\"id\":\"call_b\",\"type\":\"function\"," +
+                        "\"function\":{\"name\":\"search_contacts\",\"arguments\":\"{\\\"name\\\":\"}}]}}]}",
+                "data: {\"choices\":[{\"delta\":{\"tool_calls\":[{\"index\":0,\"function\":{\"arguments\":\"ry\\\":\\\"Sara\\\"}\"}}]}}]}",
+                "data: {\"choices\":[{\"delta\":{\"tool_calls\":[{\"index\":1,\"function\":{\"arguments\":\"\\\"Sara\\\"}\"}}]}}]}",
+                "data: {\"choices\":[{\"delta\":{},\"finish_reason\":\"tool_calls\"}]}",
+                "data: [DONE]"), tokens::add);
+
+        assertThat(tokens).isEmpty();
+        assertThat(turn.content()).isNull();
+        assertThat(turn.toolCalls()).containsExactly(
+                new ChatTurn.ToolCall("call_a", "search_emails", "{\"query\":\"Sara\"}"),
+                new ChatTurn.ToolCall("call_b", "search_contacts", "{\"name\":\"Sara\"}"));
+    }
+
+    @Test
+    void ordersToolCallsByIndexWhateverOrderTheyStartIn() throws IOException {
+        ChatTurn turn = openAIService.readStream(stream(
+                "data: {\"choices\":[{\"delta\":{\"tool_calls\":[{\"index\":1,\"id\":\"call_b\"," +
+                        "\"function\":{\"name\":\"get_calendar\",\"arguments\":\"{}\"}}]}}]}",
+                "data: {\"choices\":[{\"delta\":{\"tool_calls\":[{\"index\":0,\"id\":\"call_a\"," +
+                        "\"function\":{\"name\":\"search_emails\",\"arguments\":\"{}\"}}]}}]}"), token -> {
+        });
+
+        assertThat(turn.toolCalls()).extracting(ChatTurn.ToolCall::id).containsExactly("call_a", "call_b");
+    }
+
+    private static Buffer stream(String... lines) {
+        return new Buffer().writeUtf8(String.join("\n", lines) + "\n");
+    }
+}
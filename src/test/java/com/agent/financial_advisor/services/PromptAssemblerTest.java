@@ -0,0 +1,132 @@
+package com.agent.financial_advisor.services;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PromptAssemblerTest {
+
+    private static final String MODEL = OpenAIService.CHAT_MODEL;
+
+    private PromptAssembler assembler;
+
+    @BeforeEach
+    void setUp() {
+        assembler = new PromptAssembler();
+        ReflectionTestUtils.setField(assembler, "maxPromptTokens", 300);
+        ReflectionTestUtils.setField(assembler, "completionReserve", 1024);
+        ReflectionTestUtils.setField(assembler, "toolResultTokens", 20);
+        ReflectionTestUtils.setField(assembler, "compactedToolResultTokens", 40);
+    }
+
+    @Test
+    void keepsEveryMessageThatFits() {
+        List<ObjectNode> messages = List.of(
+                OpenAIService.message("system", "You are a financial advisor assistant."),
+                OpenAIService.message("user", "Who is Sara?"),
+                OpenAIService.message("assistant", "Sara is a client of yours."),
+                OpenAIService.message("user", "When did she last write?"));
+
+        assertThat(assembler.assemble(MODEL, messages, 0)).containsExactlyElementsOf(messages);
+    }
+
+    @Test
+    void dropsTheOldestHistoryFirst() {
+        List<ObjectNode> messages = new ArrayList<>();
+        ObjectNode system = OpenAIService.message("system", "You are a financial advisor assistant.");
+        messages.add(system);
+        for (int i = 0; i < 10; i++) {
+            messages.add(OpenAIService.message(i % 2 == 0 ? "user" : "assistant", "Message " + i + words(50)));
+        }
+        ObjectNode current = OpenAIService.message("user", "What is my next meeting?");
+        messages.add(current);
+
+        List<ObjectNode> prompt = assembler.assemble(MODEL, messages, 0);
+
+        assertThat(prompt.get(0)).isSameAs(system);
+        assertThat(prompt.get(prompt.size() - 1)).isSameAs(current);
+        List<ObjectNode> kept = prompt.subList(2, prompt.size() - 1);
+        assertThat(kept).isNotEmpty().hasSizeLessThan(10);
+        assertThat(kept).containsExactlyElementsOf(messages.subList(11 - kept.size(), 11));
+        assertThat(prompt.get(1).get("role").asText()).isEqualTo("system");
+        assertThat(prompt.get(1).get("content").asText()).startsWith((10 - kept.size()) + " earlier messages");
+
+        List<ObjectNode> sent = new ArrayList<>(prompt);
+        sent.remove(1);
+        assertThat(assembler.countTokens(MODEL, sent)).isLessThanOrEqualTo(300);
+    }
+
+    @Test
+    void fixedTokensCountAgainstTheBudget() {
+        List<ObjectNode> messages = List.of(
+                OpenAIService.message("system", "You are a financial advisor assistant."),
+                OpenAIService.message("user", "Earlier question" + words(50)),
+                OpenAIService.message("user", "What is my next meeting?"));
+
+        assertThat(assembler.assemble(MODEL, messages, 0)).hasSize(3);
+        assertThat(assembler.assemble(MODEL, messages, 250))
+                .extracting(message -> message.get("content").asText())
+                .doesNotContain(messages.get(1).get("content").asText());
+    }
+
+    @Test
+    void alwaysSendsTheCurrentRequestWithItsContextAndToolExchange() {
+        ObjectNode system = OpenAIService.message("system", "You are a financial advisor assistant.");
+        ObjectNode context = OpenAIService.message("system", "Relevant context:" + words(100));
+        ObjectNode request = OpenAIService.message("user", "Summarize my emails from Sara." + words(100));
+        ObjectNode toolCall = new ChatTurn(null, List.of(
+                new ChatTurn.ToolCall("call_1", "search_emails", "{\"query\":\"Sara\"}"))).toMessage();
+        ObjectNode toolResult = OpenAIService.message("tool", "Results:" + words(100));
+        toolResult.put("tool_call_id", "call_1");
+        List<ObjectNode> messages = List.of(
+                system,
+                OpenAIService.message("user", "An older question" + words(50)),
+                OpenAIService.message("assistant", "An older answer" + words(50)),
+                context, request, toolCall, toolResult);
+
+        List<ObjectNode> prompt = assembler.assemble(MODEL, messages, 0);
+
+        assertThat(prompt).hasSize(6);
+        assertThat(prompt.get(0)).isSameAs(system);
+        assertThat(prompt.get(1).get("content").asText()).startsWith("2 earlier messages");
+        assertThat(prompt.subList(2, 6)).containsExactly(context, request, toolCall, toolResult);
+    }
+
+    @Test
+    void capsLongToolResults() {
+        String capped = assembler.capToolResult(MODEL, "Results:" + words(200));
+
+        assertThat(capped).startsWith("Results: word").endsWith("[truncated]");
+        assertThat(assembler.countTokens(MODEL, capped)).isLessThanOrEqualTo(20);
+        assertThat(assembler.capToolResult(MODEL, "No emails found.")).isEqualTo("No emails found.");
+    }
+
+    @Test
+    void compactsReadToolResultsOnce() {
+        ObjectNode user = OpenAIService.message("user", "Question" + words(100));
+        ObjectNode longResult = OpenAIService.message("tool", "Results:" + words(200));
+        ObjectNode shortResult = OpenAIService.message("tool", "No emails found.");
+        List<ObjectNode> messages = List.of(user, longResult, shortResult);
+        String question = user.get("content").asText();
+
+        assembler.compactToolResults(MODEL, messages);
+        String compacted = longResult.get("content").asText();
+        assembler.compactToolResults(MODEL, messages);
+
+        assertThat(compacted).startsWith("Results: word").endsWith("call the tool again for the full result]");
+        assertThat(assembler.countTokens(MODEL, compacted)).isLessThanOrEqualTo(40);
+        assertThat(longResult.get("content").asText()).isEqualTo(compacted);
+        assertThat(shortResult.get("content").asText()).isEqualTo("No emails found.");
+        assertThat(user.get("content").asText()).isEqualTo(question);
+    }
+
+    private static String words(int count) {
+        return " word".repeat(count);
+    }
+}
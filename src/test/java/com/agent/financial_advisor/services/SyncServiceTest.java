@@ -0,0 +1,61 @@
+package com.agent.financial_advisor.services;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SyncServiceTest {
+
+    private static final Instant FETCH_STARTED_AT = Instant.parse("2024-06-01T12:00:00Z");
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    void watermarkMovesToTheLatestModifiedContact() throws JsonProcessingException {
+        List<JsonNode> contacts = List.of(
+                contact("{\"lastmodifieddate\":\"2024-05-02T08:00:00Z\"}"),
+                contact("{\"lastmodifieddate\":\"2024-05-03T09:30:00.123Z\"}"),
+                contact("{\"lastmodifieddate\":\"2024-05-01T00:00:00Z\"}"));
+
+        assertThat(SyncService.nextHubspotWatermark("2024-04-30T00:00:00Z", contacts, FETCH_STARTED_AT))
+                .isEqualTo(Instant.parse("2024-05-03T09:30:00.123Z"));
+    }
+
+    @Test
+    void watermarkNeverMovesBackFromTheCursor() throws JsonProcessingException {
+        List<JsonNode> contacts = List.of(contact("{\"lastmodifieddate\":\"2024-05-01T00:00:00Z\"}"));
+
+        assertThat(SyncService.nextHubspotWatermark("2024-05-10T00:00:00Z", contacts, FETCH_STARTED_AT))
+                .isEqualTo(Instant.parse("2024-05-10T00:00:00Z"));
+        assertThat(SyncService.nextHubspotWatermark("2024-05-10T00:00:00Z", List.of(), FETCH_STARTED_AT))
+                .isEqualTo(Instant.parse("2024-05-10T00:00:00Z"));
+    }
+
+    @Test
+    void contactsWithoutAModificationDateAreSkipped() throws JsonProcessingException {
+        List<JsonNode> contacts = List.of(
+                contact("{\"lastmodifieddate\":null}"),
+                contact("{\"email\":\"sara@example.com\"}"),
+                contact("{\"lastmodifieddate\":\"2024-05-02T08:00:00Z\"}"));
+
+        assertThat(SyncService.nextHubspotWatermark(null, contacts, FETCH_STARTED_AT))
+                .isEqualTo(Instant.parse("2024-05-02T08:00:00Z"));
+    }
+
+    @Test
+    void anEmptyPortalStartsFromTheFetchTime() throws JsonProcessingException {
+        assertThat(SyncService.nextHubspotWatermark(null, List.of(), FETCH_STARTED_AT)).isEqualTo(FETCH_STARTED_AT);
+        assertThat(SyncService.nextHubspotWatermark(null, List.of(contact("{\"lastmodifieddate\":null}")),
+                FETCH_STARTED_AT)).isEqualTo(FETCH_STARTED_AT);
+    }
+
+    private JsonNode contact(String properties) throws JsonProcessingException {
+        return objectMapper.readTree("{\"id\":\"1\",\"properties\":" + properties + "}");
+    }
+}
@@ -0,0 +1,133 @@
+package com.agent.financial_advisor.services;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class TextChunkerTest {
+
+    @Test
+    void blankTextHasNoChunks() {
+        TextChunker chunker = chunker(512, 10, 4);
+
+        assertThat(chunker.chunk(null, 0)).isEmpty();
+        assertThat(chunker.chunk(" \n ", 0)).isEmpty();
+    }
+
+    @Test
+    void shortTextIsOneChunk() {
+        assertThat(chunker(512, 10, 4).chunk("Alpha one two. Beta one two.", 0))
+                .containsExactly("Alpha one two. Beta one two.");
+    }
+
+    @Test
+    void chunksRepeatTheLastSentencesOfThePreviousChunk() {
+        List<String> chunks = chunker(512, 10, 4)
+                .chunk("S1 a b. S2 a b. S3 a b. S4 a b. S5 a b. S6 a b.", 0);
+
+        assertThat(chunks).containsExactly(
+                "S1 a b. S2 a b. S3 a b.",
+                "S2 a b. S3 a b. S4 a b.",
+                "S3 a b. S4 a b. S5 a b.",
+                "S4 a b. S5 a b. S6 a b.");
+    }
+
+    @Test
+    void dropsTheOverlapWhenItLeavesNoRoomForTheNextSentence() {
+        List<String> chunks = chunker(512, 10, 4).chunk("S1 a b c d e. S2 a b c d e.", 0);
+
+        assertThat(chunks).containsExactly("S1 a b c d e.", "S2 a b c d e.");
+    }
+
+    @Test
+    void chunksLeaveRoomForTheHeaderWithinTheModelInput() {
+        List<Integer> sizes = sizes(chunker(40, 300, 50).chunk(words(200), 5));
+
+        assertThat(sizes).containsExactly(35, 35, 35, 35, 35, 25);
+    }
+
+    @Test
+    void aLongHeaderDoesNotShrinkChunksBelowTheFloor() {
+        List<Integer> sizes = sizes(chunker(40, 300, 50).chunk(words(200), 30));
+
+        assertThat(sizes).containsExactly(32, 32, 32, 32, 32, 32, 8);
+    }
+
+    @Test
+    void chunksAreCappedByTheConfiguredSize() {
+        TextChunker chunker = chunker(512, 20, 5);
+
+        assertThat(sizes(chunker.chunk(words(50), 10))).containsExactly(20, 20, 10);
+    }
+
+    @Test
+    void rejectsAnOverlapAsLargeAsTheChunk() {
+        assertThatThrownBy(() -> chunker(512, 50, 50).init()).isInstanceOf(IllegalStateException.class);
+    }
+
+    private static TextChunker chunker(int maxInputTokens, int chunkTokens, int overlapTokens) {
+        WordProvider provider = new WordProvider(maxInputTokens);
+        EmbeddingModelRegistry registry = new EmbeddingModelRegistry(List.of(provider));
+        ReflectionTestUtils.setField(registry, "providerName", provider.name());
+        ReflectionTestUtils.setField(registry, "version", 1);
+        registry.init();
+
+        TextChunker chunker = new TextChunker(registry);
+        ReflectionTestUtils.setField(chunker, "chunkTokens", chunkTokens);
+        ReflectionTestUtils.setField(chunker, "overlapTokens", overlapTokens);
+        return chunker;
+    }
+
+    private List<Integer> sizes(List<String> chunks) {
+        return chunks.stream().map(chunk -> chunk.split(" ").length).toList();
+    }
+
+    private static String words(int count) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            text.append("w").append(i).append(' ');
+        }
+        return text.toString().trim();
+    }
+
+    /**
+     * Counts one token per word, so expected chunk sizes can be worked out by hand.
+     */
+    private record WordProvider(int maxInputTokens) implements EmbeddingProvider {
+
+        @Override
+        public String name() {
+            return "words";
+        }
+
+        @Override
+        public Map<String, ModelSpec> models() {
+            return Map.of("word-model", new ModelSpec(8, false));
+        }
+
+        @Override
+        public String configuredModel() {
+            return "word-model";
+        }
+
+        @Override
+        public int configuredDimensions() {
+            return 0;
+        }
+
+        @Override
+        public int countTokens(String text) {
+            return text.isBlank() ? 0 : text.trim().split("\\s+").length;
+        }
+
+        @Override
+        public List<float[]> embed(EmbeddingModel model, List<String> texts) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}